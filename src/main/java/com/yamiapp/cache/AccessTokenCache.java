@@ -0,0 +1,78 @@
+package com.yamiapp.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.yamiapp.model.projection.AuthenticatedUser;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.function.Function;
+
+/**
+ * Bounded in-process cache of access token -> user, so authenticated requests don't need a
+ * round-trip to postgres just to figure out who is calling.
+ * Only an immutable AuthenticatedUser is cached, never the entity: callers that read or write anything else load
+ * the user themselves (see UserService#getRawByToken).
+ * Hits and misses are exported as the cache.gets meter, tagged cache=access-tokens.
+ * A ttl of 0 disables the cache altogether.
+ */
+@Component
+public class AccessTokenCache {
+
+    private final Cache<String, AuthenticatedUser> cache;
+
+    public AccessTokenCache(
+        @Value("${yami.cache.token.max-size}") long maxSize,
+        @Value("${yami.cache.token.ttl-seconds}") long ttlSeconds,
+        MeterRegistry meterRegistry
+    ) {
+        if (ttlSeconds <= 0 || maxSize <= 0) {
+            this.cache = null;
+            return;
+        }
+
+        this.cache = Caffeine.newBuilder()
+            .maximumSize(maxSize)
+            .expireAfterWrite(Duration.ofSeconds(ttlSeconds))
+            .recordStats()
+            .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "access-tokens");
+    }
+
+    // returns null if the loader didn't find a user; misses are not cached
+    public AuthenticatedUser get(String accessToken, Function<String, Optional<AuthenticatedUser>> loader) {
+        if (cache == null) {
+            return loader.apply(accessToken).orElse(null);
+        }
+        return cache.get(accessToken, token -> loader.apply(token).orElse(null));
+    }
+
+    public void invalidate(String accessToken) {
+        if (cache != null && accessToken != null) {
+            cache.invalidate(accessToken);
+        }
+    }
+
+    public void invalidateAll() {
+        if (cache != null) {
+            cache.invalidateAll();
+        }
+    }
+
+    public boolean isEnabled() {
+        return cache != null;
+    }
+
+    public long size() {
+        return cache == null ? 0 : cache.estimatedSize();
+    }
+
+    public CacheStats stats() {
+        return cache == null ? CacheStats.empty() : cache.stats();
+    }
+}
@@ -0,0 +1,21 @@
+package com.yamiapp.cache;
+
+import org.springframework.core.io.FileSystemResource;
+
+import java.nio.file.Path;
+
+// a picture served from ImageDiskCache. Written to the response by PictureHttpMessageConverter
+public class CachedImageResource extends FileSystemResource {
+
+    private final String photoPath;
+
+    public CachedImageResource(Path file, String photoPath) {
+        super(file);
+        this.photoPath = photoPath;
+    }
+
+    @Override
+    public String getFilename() {
+        return photoPath;
+    }
+}
@@ -0,0 +1,197 @@
+package com.yamiapp.cache;
+
+import com.backblaze.b2.client.exceptions.B2Exception;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * Bounded on-disk LRU cache for the pictures we store on Backblaze, keyed by photo path and B2 file id
+ * (so uploading a new version under the same path never serves the old bytes).
+ * The index only lives in memory, so the cache directory is wiped on startup.
+ * A max size of 0 disables the cache altogether.
+ */
+@Slf4j
+@Component
+public class ImageDiskCache {
+
+    @FunctionalInterface
+    public interface Downloader {
+        void downloadTo(Path target) throws B2Exception;
+    }
+
+    private record Entry(Path file, long size) {}
+
+    private final Path directory;
+    private final long maxBytes;
+    // access-ordered, so iteration starts at the least recently used entry
+    private final LinkedHashMap<String, Entry> index = new LinkedHashMap<>(64, 0.75f, true);
+    private long totalBytes = 0;
+
+    public ImageDiskCache(
+        @Value("${yami.cache.images.dir}") String directory,
+        @Value("${yami.cache.images.max-bytes}") long maxBytes
+    ) {
+        this.directory = Path.of(directory);
+        this.maxBytes = maxBytes;
+        if (maxBytes <= 0) {
+            return;
+        }
+
+        try {
+            FileSystemUtils.deleteRecursively(this.directory);
+            Files.createDirectories(this.directory);
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not prepare the image cache directory " + directory, e);
+        }
+    }
+
+    // serves the cached copy if there is one; otherwise downloads the picture straight into the cache.
+    // returns null if the cache is disabled or the file couldn't be written, in which case callers should stream it
+    public CachedImageResource get(String photoPath, String photoId, Downloader downloader) throws B2Exception {
+        if (!isEnabled()) {
+            return null;
+        }
+
+        String key = key(photoPath, photoId);
+        Entry cached = lookup(key);
+        if (cached == null) {
+            cached = store(key, downloader);
+        }
+        return cached == null ? null : new CachedImageResource(cached.file(), photoPath);
+    }
+
+    // drops every cached version of the picture at photoPath
+    public void invalidate(String photoPath) {
+        if (!isEnabled() || photoPath == null) {
+            return;
+        }
+
+        String prefix = photoPath + "@";
+        List<Entry> removed = new ArrayList<>();
+        synchronized (index) {
+            Iterator<Map.Entry<String, Entry>> it = index.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<String, Entry> e = it.next();
+                if (e.getKey().startsWith(prefix)) {
+                    removed.add(e.getValue());
+                    totalBytes -= e.getValue().size();
+                    it.remove();
+                }
+            }
+        }
+        removed.forEach(this::delete);
+    }
+
+    public boolean isEnabled() {
+        return maxBytes > 0;
+    }
+
+    public long size() {
+        synchronized (index) {
+            return totalBytes;
+        }
+    }
+
+    private Entry lookup(String key) {
+        Entry entry;
+        synchronized (index) {
+            entry = index.get(key);
+        }
+        if (entry != null && !Files.exists(entry.file())) {
+            // someone cleaned the directory under us
+            synchronized (index) {
+                if (index.remove(key, entry)) {
+                    totalBytes -= entry.size();
+                }
+            }
+            return null;
+        }
+        return entry;
+    }
+
+    private Entry store(String key, Downloader downloader) throws B2Exception {
+        Path target = directory.resolve(fileName(key));
+        Path temp = null;
+        try {
+            temp = Files.createTempFile(directory, "img-", ".tmp");
+            try {
+                downloader.downloadTo(temp);
+            } catch (B2Exception e) {
+                Files.deleteIfExists(temp);
+                throw e;
+            }
+            long size = Files.size(temp);
+            if (size > maxBytes) {
+                Files.delete(temp);
+                return null;
+            }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            Entry entry = new Entry(target, size);
+            List<Entry> evicted = new ArrayList<>();
+            synchronized (index) {
+                Entry previous = index.put(key, entry);
+                if (previous != null) {
+                    totalBytes -= previous.size();
+                }
+                totalBytes += size;
+
+                Iterator<Map.Entry<String, Entry>> it = index.entrySet().iterator();
+                while (totalBytes > maxBytes && it.hasNext()) {
+                    Map.Entry<String, Entry> eldest = it.next();
+                    if (eldest.getKey().equals(key)) {
+                        continue;
+                    }
+                    evicted.add(eldest.getValue());
+                    totalBytes -= eldest.getValue().size();
+                    it.remove();
+                }
+            }
+            evicted.forEach(this::delete);
+            return entry;
+        } catch (IOException e) {
+            log.warn("Failed to cache picture {}: {}", key, e.getMessage());
+            if (temp != null) {
+                try {
+                    Files.deleteIfExists(temp);
+                } catch (IOException ignored) {
+                }
+            }
+            return null;
+        }
+    }
+
+    private void delete(Entry entry) {
+        // on posix, requests that are still streaming this file keep reading the unlinked inode just fine
+        try {
+            Files.deleteIfExists(entry.file());
+        } catch (IOException e) {
+            log.warn("Failed to delete cached picture {}", entry.file());
+        }
+    }
+
+    private static String key(String photoPath, String photoId) {
+        return photoPath + "@" + Objects.requireNonNullElse(photoId, "");
+    }
+
+    // photo paths contain slashes, so we hash the key rather than trying to map it onto the filesystem
+    private static String fileName(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package com.yamiapp.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.yamiapp.exception.ServiceUnavailableException;
+import com.yamiapp.model.dto.UserCounts;
+import com.yamiapp.model.dto.UserCountsDTO;
+import com.yamiapp.util.RedisHelper;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import redis.clients.jedis.Response;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * Two-tier cache for the follower/following/review counts of a user.
+ * L1 is a small Caffeine cache local to this instance, with a short ttl so other instances' writes show up quickly.
+ * L2 is a redis hash shared by every instance, which is deleted whenever the counts change.
+ * Redis failures are never fatal here; we just fall through to the database.
+ * L1 hits and misses are exported as the cache.gets meter, tagged cache=user-counts.
+ */
+@Slf4j
+@Component
+public class UserCountsCache {
+
+    private static final String KEY_PREFIX = "user:counts:";
+    private static final String FOLLOWERS = "followers";
+    private static final String FOLLOWING = "following";
+    private static final String REVIEWS = "reviews";
+
+    private final RedisHelper redisHelper;
+    private final Cache<Long, UserCounts> local;
+    private final long sharedTtlSeconds;
+
+    public UserCountsCache(
+        RedisHelper redisHelper,
+        @Value("${yami.cache.user-counts.local-max-size}") long localMaxSize,
+        @Value("${yami.cache.user-counts.local-ttl-seconds}") long localTtlSeconds,
+        @Value("${yami.cache.user-counts.shared-ttl-seconds}") long sharedTtlSeconds,
+        MeterRegistry meterRegistry
+    ) {
+        this.redisHelper = redisHelper;
+        this.sharedTtlSeconds = sharedTtlSeconds;
+        this.local = (localTtlSeconds <= 0 || localMaxSize <= 0) ? null : Caffeine.newBuilder()
+            .maximumSize(localMaxSize)
+            .expireAfterWrite(Duration.ofSeconds(localTtlSeconds))
+            .recordStats()
+            .build();
+        if (local != null) {
+            CaffeineCacheMetrics.monitor(meterRegistry, local, "user-counts");
+        }
+    }
+
+    public UserCountsDTO get(Long userId, Function<Long, UserCountsDTO> loader) {
+        Function<Collection<? extends Long>, Map<Long, UserCountsDTO>> bulkLoader = ids -> {
+            Map<Long, UserCountsDTO> loaded = new HashMap<>();
+            ids.forEach(id -> loaded.put(id, loader.apply(id)));
+            return loaded;
+        };
+
+        if (local == null) {
+            return loadShared(List.of(userId), bulkLoader).get(userId);
+        }
+        return local.get(userId, id -> loadShared(List.of(id), bulkLoader).get(id));
+    }
+
+    // bulk version of get; the loader is called at most once, with every id that missed both tiers
+    public Map<Long, UserCountsDTO> getAll(Collection<Long> userIds, Function<Collection<? extends Long>, Map<Long, UserCountsDTO>> loader) {
+        if (userIds.isEmpty()) {
+            return new HashMap<>();
+        }
+        if (local == null) {
+            return new HashMap<>(loadShared(userIds, loader));
+        }
+        return new HashMap<>(local.getAll(userIds, ids -> loadShared(ids, loader)));
+    }
+
+    // drops the entries right away, and once more after the surrounding transaction commits,
+    // so a concurrent reader can't put the pre-commit counts back in
+    public void invalidate(Long... userIds) {
+        Long[] ids = Arrays.stream(userIds).filter(Objects::nonNull).toArray(Long[]::new);
+        if (ids.length == 0) {
+            return;
+        }
+
+        invalidateNow(ids);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    invalidateNow(ids);
+                }
+            });
+        }
+    }
+
+    public CacheStats stats() {
+        return local == null ? CacheStats.empty() : local.stats();
+    }
+
+    private void invalidateNow(Long[] ids) {
+        if (local != null) {
+            local.invalidateAll(Arrays.asList(ids));
+        }
+        if (sharedTtlSeconds <= 0) {
+            return;
+        }
+
+        String[] keys = Arrays.stream(ids).map(id -> KEY_PREFIX + id).toArray(String[]::new);
+        try {
+            redisHelper.executeVoid(j -> j.del(keys));
+        } catch (ServiceUnavailableException e) {
+            log.warn("Failed to invalidate shared user counts for {}", Arrays.toString(ids));
+        }
+    }
+
+    private Map<Long, UserCounts> loadShared(Collection<? extends Long> userIds, Function<Collection<? extends Long>, Map<Long, UserCountsDTO>> loader) {
+        Map<Long, UserCounts> result = new HashMap<>();
+        List<Long> ids = List.copyOf(userIds);
+
+        if (sharedTtlSeconds > 0) {
+            try {
+                List<Map<String, String>> hashes = redisHelper.execute(j -> {
+                    var p = j.pipelined();
+                    List<Response<Map<String, String>>> responses = ids.stream().map(id -> p.hgetAll(KEY_PREFIX + id)).toList();
+                    p.sync();
+                    return responses.stream().map(Response::get).toList();
+                });
+                for (int i = 0; i < ids.size(); i++) {
+                    UserCounts counts = parse(hashes.get(i));
+                    if (counts != null) {
+                        result.put(ids.get(i), counts);
+                    }
+                }
+            } catch (ServiceUnavailableException e) {
+                log.warn("Failed to read shared user counts; falling back to the database");
+            }
+        }
+
+        List<Long> missing = ids.stream().filter(id -> !result.containsKey(id)).toList();
+        if (missing.isEmpty()) {
+            return result;
+        }
+
+        Map<Long, UserCountsDTO> loaded = loader.apply(missing);
+        Map<Long, UserCounts> fresh = new HashMap<>();
+        for (Long id : missing) {
+            UserCountsDTO counts = loaded.get(id);
+            fresh.put(id, counts == null ? UserCounts.empty() : UserCounts.of(counts));
+        }
+        result.putAll(fresh);
+
+        if (sharedTtlSeconds > 0) {
+            try {
+                redisHelper.executeVoid(j -> {
+                    var p = j.pipelined();
+                    fresh.forEach((id, counts) -> {
+                        p.hset(KEY_PREFIX + id, Map.of(
+                            FOLLOWERS, counts.getFollowerCount().toString(),
+                            FOLLOWING, counts.getFollowingCount().toString(),
+                            REVIEWS, counts.getReviewCount().toString()
+                        ));
+                        p.expire(KEY_PREFIX + id, sharedTtlSeconds);
+                    });
+                    p.sync();
+                });
+            } catch (ServiceUnavailableException e) {
+                log.warn("Failed to write shared user counts for {}", fresh.keySet());
+            }
+        }
+        return result;
+    }
+
+    private UserCounts parse(Map<String, String> hash) {
+        if (hash == null || hash.size() != 3) {
+            return null;
+        }
+        try {
+            return new UserCounts(
+                Long.parseLong(hash.get(FOLLOWERS)),
+                Long.parseLong(hash.get(FOLLOWING)),
+                Long.parseLong(hash.get(REVIEWS))
+            );
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package com.yamiapp.cache;
+
+import com.yamiapp.model.projection.UsernameProjection;
+import com.yamiapp.repo.UserRepository;
+import com.yamiapp.util.PendingChanges;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * In-process trigram index over usernames, so user search gets its candidate ids from memory and only goes to the
+ * database for the users it's actually returning.
+ * Loaded at startup and kept up to date by UsernameIndexListener as users are created, renamed and deleted through
+ * this instance; changes made by other instances show up at the next scheduled rebuild.
+ */
+@Slf4j
+@Component
+public class UsernameIndex {
+
+    // ids are ranked prefix matches first, then shorter usernames first; total counts every match
+    public record Matches(List<Long> ids, int total) {}
+
+    private record Change(Long id, String username) {}
+
+    private record Hit(Long id, String username) {}
+
+    private static final int GRAM = 3;
+
+    private final UserRepository userRepository;
+
+    private volatile Grams grams = new Grams();
+    private final PendingChanges<Change> pending = new PendingChanges<>();
+
+    public UsernameIndex(UserRepository userRepository) {
+        this.userRepository = userRepository;
+    }
+
+    @PostConstruct
+    public void load() {
+        rebuild();
+    }
+
+    @Scheduled(cron = "${yami.search.usernames.rebuild.cron}")
+    public void rebuild() {
+        synchronized (this) {
+            pending.start();
+        }
+        Grams rebuilt = new Grams();
+        List<UsernameProjection> users = userRepository.findAllUsernames();
+        users.forEach(u -> rebuilt.put(u.id(), u.username()));
+        synchronized (this) {
+            pending.replay(change -> apply(rebuilt, change));
+            grams = rebuilt;
+        }
+        log.debug("Indexed {} usernames", users.size());
+    }
+
+    public synchronized void put(Long id, String username) {
+        record(new Change(id, username));
+    }
+
+    public synchronized void remove(Long id) {
+        record(new Change(id, null));
+    }
+
+    private void record(Change change) {
+        apply(grams, change);
+        pending.record(change);
+    }
+
+    private static void apply(Grams target, Change change) {
+        if (change.username() == null) {
+            target.remove(change.id());
+        } else {
+            target.put(change.id(), change.username());
+        }
+    }
+
+    // case-insensitive "contains" search, like the `username ilike '%query%'` it replaces. At most limit ids are returned.
+    // queries shorter than a trigram can't use the postings; they only match usernames starting with them, through
+    // the prefix postings, so a keystroke never scans every username
+    public Matches search(String query, int limit) {
+        String q = normalize(query);
+        Grams current = grams;
+
+        Stream<Long> candidates;
+        if (q.isEmpty()) {
+            candidates = current.usernames.keySet().stream();
+        } else if (q.length() < GRAM) {
+            candidates = current.prefixes.getOrDefault(q, Set.of()).stream();
+        } else {
+            // the rarest trigram of the query gives the fewest candidates to check
+            Set<Long> rarest = null;
+            for (String gram : gramsOf(q)) {
+                Set<Long> ids = current.postings.get(gram);
+                if (ids == null) {
+                    return new Matches(List.of(), 0);
+                }
+                if (rarest == null || ids.size() < rarest.size()) {
+                    rarest = ids;
+                }
+            }
+            candidates = rarest.stream();
+        }
+
+        List<Hit> hits = candidates
+            .map(id -> new Hit(id, current.usernames.get(id)))
+            .filter(hit -> hit.username() != null && hit.username().contains(q))
+            .sorted(Comparator.comparing((Hit hit) -> !hit.username().startsWith(q))
+                .thenComparingInt(hit -> hit.username().length())
+                .thenComparing(Hit::id))
+            .toList();
+        return new Matches(hits.stream().limit(limit).map(Hit::id).toList(), hits.size());
+    }
+
+    private static String normalize(String username) {
+        return username.toLowerCase(Locale.ROOT);
+    }
+
+    private static Set<String> gramsOf(String s) {
+        Set<String> grams = new HashSet<>();
+        for (int i = 0; i + GRAM <= s.length(); i++) {
+            grams.add(s.substring(i, i + GRAM));
+        }
+        return grams;
+    }
+
+    // the prefixes too short to be a trigram
+    private static List<String> shortPrefixesOf(String s) {
+        List<String> prefixes = new ArrayList<>();
+        for (int length = 1; length < GRAM && length <= s.length(); length++) {
+            prefixes.add(s.substring(0, length));
+        }
+        return prefixes;
+    }
+
+    private static final class Grams {
+        private final Map<Long, String> usernames = new ConcurrentHashMap<>();
+        private final Map<String, Set<Long>> postings = new ConcurrentHashMap<>();
+        private final Map<String, Set<Long>> prefixes = new ConcurrentHashMap<>();
+
+        void put(Long id, String username) {
+            String normalized = normalize(username);
+            String previous = usernames.put(id, normalized);
+            if (normalized.equals(previous)) {
+                return;
+            }
+            if (previous != null) {
+                unindex(id, previous);
+            }
+            for (String gram : gramsOf(normalized)) {
+                postings.computeIfAbsent(gram, g -> ConcurrentHashMap.newKeySet()).add(id);
+            }
+            for (String prefix : shortPrefixesOf(normalized)) {
+                prefixes.computeIfAbsent(prefix, p -> ConcurrentHashMap.newKeySet()).add(id);
+            }
+        }
+
+        void remove(Long id) {
+            String previous = usernames.remove(id);
+            if (previous != null) {
+                unindex(id, previous);
+            }
+        }
+
+        private void unindex(Long id, String username) {
+            gramsOf(username).forEach(gram -> unpost(postings, gram, id));
+            shortPrefixesOf(username).forEach(prefix -> unpost(prefixes, prefix, id));
+        }
+
+        private static void unpost(Map<String, Set<Long>> index, String key, Long id) {
+            index.computeIfPresent(key, (k, ids) -> {
+                ids.remove(id);
+                return ids.isEmpty() ? null : ids;
+            });
+        }
+    }
+}
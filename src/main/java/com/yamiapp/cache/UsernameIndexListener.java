@@ -0,0 +1,38 @@
+package com.yamiapp.cache;
+
+import com.yamiapp.model.User;
+import jakarta.persistence.PostPersist;
+import jakarta.persistence.PostRemove;
+import jakarta.persistence.PostUpdate;
+import org.springframework.beans.factory.ObjectProvider;
+
+import static com.yamiapp.util.TransactionUtils.afterCommit;
+
+/**
+ * Keeps the UsernameIndex in sync with every user write that goes through JPA (creates, renames in
+ * UsernameTransactionHelper, deletes), once the write commits.
+ * Instantiated by hibernate through spring; the index is looked up lazily, since it depends on the
+ * repositories that are still being set up when hibernate creates its listeners.
+ */
+public class UsernameIndexListener {
+
+    private final ObjectProvider<UsernameIndex> usernameIndex;
+
+    public UsernameIndexListener(ObjectProvider<UsernameIndex> usernameIndex) {
+        this.usernameIndex = usernameIndex;
+    }
+
+    @PostPersist
+    @PostUpdate
+    public void onSave(User user) {
+        Long id = user.getId();
+        String username = user.getUsername();
+        afterCommit(() -> usernameIndex.getObject().put(id, username));
+    }
+
+    @PostRemove
+    public void onRemove(User user) {
+        Long id = user.getId();
+        afterCommit(() -> usernameIndex.getObject().remove(id));
+    }
+}
@@ -4,6 +4,9 @@ import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
 @Configuration
 public class BeanConfig {
 
@@ -12,4 +15,10 @@ public class BeanConfig {
         return new BCryptPasswordEncoder();
     }
 
+    // used to fan out independent read queries (e.g. the authenticated user search); one virtual thread per task
+    @Bean(destroyMethod = "close")
+    public ExecutorService queryFanOutExecutor() {
+        return Executors.newVirtualThreadPerTaskExecutor();
+    }
+
 }
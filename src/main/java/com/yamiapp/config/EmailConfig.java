@@ -30,6 +30,9 @@ public class EmailConfig {
     @Value("${mail.smtp.auth}")
     private boolean auth;
 
+    @Value("${yami.downstream.smtp.timeout-ms}")
+    private int timeoutMillis;
+
     @Bean
     public Session mailSession() {
         Properties props = new Properties();
@@ -39,6 +42,10 @@ public class EmailConfig {
         props.put("mail.smtp.port", String.valueOf(port));
         props.put("mail.smtp.starttls.enable", String.valueOf(useTls));
         props.put("mail.smtp.auth", String.valueOf(auth));
+        // javamail waits forever by default
+        props.put("mail.smtp.connectiontimeout", String.valueOf(timeoutMillis));
+        props.put("mail.smtp.timeout", String.valueOf(timeoutMillis));
+        props.put("mail.smtp.writetimeout", String.valueOf(timeoutMillis));
 
         return Session.getInstance(props, new Authenticator() {
             @Override
@@ -9,6 +9,7 @@ import redis.clients.jedis.JedisPool;
 import redis.clients.jedis.JedisPoolConfig;
 
 import java.net.URI;
+import java.time.Duration;
 
 @Configuration
 public class RedisConfig {
@@ -16,14 +17,18 @@ public class RedisConfig {
     @Value("${redis.url}")
     private String redisUrl;
 
+    @Value("${yami.downstream.redis.timeout-ms}")
+    private int timeoutMillis;
+
     @Bean
     public JedisPool jedisPool() {
         JedisPoolConfig poolConfig = new JedisPoolConfig();
         poolConfig.setJmxEnabled(false);
+        poolConfig.setMaxWait(Duration.ofMillis(timeoutMillis));
 
         try {
             URI redisUri = new URI(redisUrl);
-            return new JedisPool(poolConfig, redisUri);
+            return new JedisPool(poolConfig, redisUri, timeoutMillis);
         } catch (Exception e) {
             throw new RuntimeException("Invalid Redis URI", e);
         }
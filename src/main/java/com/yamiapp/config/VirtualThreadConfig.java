@@ -0,0 +1,26 @@
+package com.yamiapp.config;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.undertow.UndertowServletWebServerFactory;
+import org.springframework.boot.web.server.WebServerFactoryCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.Executors;
+
+/**
+ * Opt-in (yami.virtual-threads.enabled): dispatches servlet requests to a virtual thread each, instead of
+ * undertow's fixed worker pool. Requests spend most of their time blocked on postgres, redis or b2, so this lets
+ * far more of them wait at once; the Bulkheads and the hikari pool keep them from all hitting a downstream together.
+ */
+@Configuration
+@ConditionalOnProperty(name = "yami.virtual-threads.enabled", havingValue = "true")
+public class VirtualThreadConfig {
+
+    @Bean
+    public WebServerFactoryCustomizer<UndertowServletWebServerFactory> virtualThreadRequestExecutor() {
+        return factory -> factory.addDeploymentInfoCustomizers(
+            deploymentInfo -> deploymentInfo.setExecutor(Executors.newVirtualThreadPerTaskExecutor())
+        );
+    }
+}
@@ -0,0 +1,18 @@
+package com.yamiapp.config;
+
+import com.yamiapp.util.PictureHttpMessageConverter;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import java.util.List;
+
+@Configuration
+public class WebConfig implements WebMvcConfigurer {
+
+    @Override
+    public void extendMessageConverters(List<HttpMessageConverter<?>> converters) {
+        // must come before ResourceHttpMessageConverter, which would otherwise claim every Resource
+        converters.addFirst(new PictureHttpMessageConverter());
+    }
+}
@@ -9,13 +9,14 @@ import com.yamiapp.service.FoodService;
 import com.yamiapp.service.UserService;
 import com.yamiapp.util.ControllerUtils;
 import com.yamiapp.util.MessageStrings;
+import com.yamiapp.util.PictureResponder;
 import com.yamiapp.util.ResponseFactory;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.http.HttpHeaders;
-import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.util.List;
@@ -28,10 +29,12 @@ public class FoodController {
 
     private final FoodService foodService;
     private final FoodReviewService foodReviewService;
+    private final PictureResponder pictureResponder;
 
-    public FoodController(FoodService foodService, final FoodReviewService foodReviewService) {
+    public FoodController(FoodService foodService, final FoodReviewService foodReviewService, PictureResponder pictureResponder) {
         this.foodService = foodService;
         this.foodReviewService = foodReviewService;
+        this.pictureResponder = pictureResponder;
     }
 
     @PostMapping
@@ -97,8 +100,12 @@ public class FoodController {
 
 
     @GetMapping("/{id}/picture")
-    public ResponseEntity<Object> getPictureById(@PathVariable Long id) throws B2Exception {
-        return ResponseEntity.ok().contentType(MediaType.IMAGE_JPEG).body(foodService.getImageById(id));
+    public ResponseEntity<Object> getPictureById(
+        @PathVariable Long id,
+        @RequestParam(required = false) Integer size,
+        WebRequest request
+    ) throws B2Exception {
+        return pictureResponder.respond(foodService.getImageById(id, size), request);
     }
 
     @GetMapping("/{id}/reviews")
@@ -122,6 +129,15 @@ public class FoodController {
         return new ResponseFactory.JsonResponseChain().add("average", avg).build();
     }
 
+    @PostMapping("/ratings/rebuild")
+    public ResponseEntity<Object> rebuildRatings(
+            @RequestHeader(value = HttpHeaders.AUTHORIZATION, required = false) String authHeader
+    ) {
+        String token = ControllerUtils.extractToken(authHeader);
+        int updated = foodService.rebuildRatingAggregates(token);
+        return new ResponseFactory.JsonResponseChain().add("status", "success").add("updated", updated).build();
+    }
+
     @GetMapping("/{id}/stats")
     public ResponseEntity<Object> getFoodStats(@PathVariable Long id) {
         return ResponseEntity.ok().body(foodService.getFoodStats(id));
@@ -9,12 +9,13 @@ import com.yamiapp.service.RestaurantService;
 import com.yamiapp.service.UserService;
 import com.yamiapp.util.ControllerUtils;
 import com.yamiapp.util.MessageStrings;
+import com.yamiapp.util.PictureResponder;
 import com.yamiapp.util.ResponseFactory;
 import org.springframework.data.domain.Pageable;
 import org.springframework.http.HttpHeaders;
-import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.util.List;
@@ -26,10 +27,12 @@ public class RestaurantController {
 
     private final RestaurantService restaurantService;
     private final UserService userService;
+    private final PictureResponder pictureResponder;
 
-    public RestaurantController(RestaurantService restaurantService, UserService userService) {
+    public RestaurantController(RestaurantService restaurantService, UserService userService, PictureResponder pictureResponder) {
         this.restaurantService = restaurantService;
         this.userService = userService;
+        this.pictureResponder = pictureResponder;
     }
 
 
@@ -95,8 +98,12 @@ public class RestaurantController {
     }
 
     @GetMapping("/{id}/picture")
-    public ResponseEntity<Object> getRestaurantImage(@PathVariable Integer id) {
-        return ResponseEntity.ok().contentType(MediaType.IMAGE_JPEG).body(restaurantService.getImageById(id));
+    public ResponseEntity<Object> getRestaurantImage(
+        @PathVariable Integer id,
+        @RequestParam(required = false) Integer size,
+        WebRequest request
+    ) throws B2Exception {
+        return pictureResponder.respond(restaurantService.getImageById(id, size), request);
     }
 
     @GetMapping("/reccomendations")
@@ -105,7 +112,7 @@ public class RestaurantController {
         @RequestParam(value = "stochastic", required = false, defaultValue = "true") boolean stochastic
     ) {
         String token = ControllerUtils.extractToken(authHeader);
-        User u = userService.getRawByToken(token);
+        User u = userService.getReferenceByToken(token);
         return ResponseEntity.ok(restaurantService.findRestaurantReccomendations(u, stochastic));
     }
 
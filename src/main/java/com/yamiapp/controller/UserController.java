@@ -94,13 +94,19 @@ public class UserController {
         ));
     }
 
+    // passing a cursor (even an empty one, for the first page) switches to keyset pagination, which ignores offset
     @GetMapping("/feed")
-    public ResponseEntity<Page<FoodReviewResponseDTO>> getUserFeed(
+    public ResponseEntity<Object> getUserFeed(
         @RequestHeader(value = HttpHeaders.AUTHORIZATION, required = false) String authHeader,
         @RequestParam(defaultValue =  "0") Integer offset,
-        @RequestParam(defaultValue =  "20") Integer count
+        @RequestParam(defaultValue =  "20") Integer count,
+        @RequestParam(required = false) String cursor
     ) {
         String token = ControllerUtils.extractToken(authHeader);
+        if (cursor != null) {
+            return ResponseEntity.ok(foodReviewService.getFoodReviewsByFollowers(token, cursor, count));
+        }
+
         Pageable pageable = Pageable.ofSize(count).withPage(offset);
 
         return ResponseEntity.ok(foodReviewService.getFoodReviewsByFollowers(token, pageable));
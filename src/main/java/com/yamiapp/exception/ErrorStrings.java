@@ -45,9 +45,16 @@ public enum ErrorStrings {
     INVALID_FOOD_REVIEW_ID("No food review was found with this ID"),
     CANNOT_FOLLOW_ONESELF("You cannot follow yourself."),
     FOOD_DOESNT_HAVE_PHOTO("This food doesn't have a picture of it."),
+    RESTAURANT_DOESNT_HAVE_PHOTO("This restaurant doesn't have a picture yet."),
     INVALID_USER_EMAIL("No user was found with this email."),
     REDIS_ERROR("An error occurred with the Redis database. Try again later"),
-    MAIL_ERROR("An error occurred with our mailing service.");
+    MAIL_ERROR("An error occurred with our mailing service."),
+    INVALID_CURSOR("The provided pagination cursor is invalid."),
+    PHOTO_QUEUE_FULL("Too many pictures are being processed right now. Try again later."),
+    INVALID_PICTURE_SIZE("The requested picture size must be a positive number of pixels."),
+    DOWNSTREAM_BUSY("One of our services is overloaded right now. Try again later."),
+    DOWNSTREAM_UNAVAILABLE("One of our services is temporarily unavailable. Try again later."),
+    DATABASE_BUSY("The database is overloaded right now. Try again later.");
 
     private final String message;
 
@@ -9,6 +9,7 @@ import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.transaction.CannotCreateTransactionException;
 import org.springframework.web.HttpMediaTypeException;
 import org.springframework.web.HttpRequestMethodNotSupportedException;
 import org.springframework.web.bind.MissingServletRequestParameterException;
@@ -26,6 +27,12 @@ public class GlobalExceptionHandler {
     private final Logger logger = LoggerFactory.getLogger(this.getClass());
 
     // Internal exceptions
+    @ExceptionHandler(ServiceUnavailableException.class)
+    public ResponseEntity<Map<String, String>> handleServiceUnavailable(ServiceUnavailableException e) {
+        logger.info("Handling ServiceUnavailableException: {}", e.getMessage());
+        return ResponseFactory.createErrorResponse(e, HttpStatus.SERVICE_UNAVAILABLE.value());
+    }
+
     @ExceptionHandler(BadRequestException.class)
     public ResponseEntity<Map<String, String>> handleBadRequest(BadRequestException e) {
         logger.info("Handling BadRequestException: {}", e.getMessage());
@@ -76,6 +83,13 @@ public class GlobalExceptionHandler {
     }
 
     // External exceptions
+    // hikari timed out waiting for a connection; the pool is the database's bulkhead, so this is a 503 like the others
+    @ExceptionHandler(CannotCreateTransactionException.class)
+    public ResponseEntity<Map<String, String>> handleCannotCreateTransaction(CannotCreateTransactionException e) {
+        logger.warn("Handling CannotCreateTransactionException: {}", e.getMessage());
+        return ResponseFactory.createErrorResponse(new ServiceUnavailableException(ErrorStrings.DATABASE_BUSY.getMessage()), HttpStatus.SERVICE_UNAVAILABLE.value());
+    }
+
     @ExceptionHandler(EntityNotFoundException.class)
     public ResponseEntity<Map<String, String>> handleEntityNotFound(EntityNotFoundException e) {
         logger.info("Handling EntityNotFoundException: {}", e.getMessage());
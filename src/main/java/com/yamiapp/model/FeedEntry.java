@@ -0,0 +1,48 @@
+package com.yamiapp.model;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import org.hibernate.annotations.OnDelete;
+import org.hibernate.annotations.OnDeleteAction;
+
+import java.time.LocalDateTime;
+
+// one row per (reader, review) in a reader's materialized home feed.
+// rows are only ever written by the bulk statements in FeedEntryRepository; created_at and author_id are copied
+// from the review so a page of the feed can be read straight off the (owner_id, created_at, food_review_id) index
+@Getter
+@Entity
+@Table(
+    name = "feed_entries",
+    uniqueConstraints = @UniqueConstraint(name = "uk_feed_entries_owner_review", columnNames = {"owner_id", "food_review_id"}),
+    indexes = {
+        @Index(name = "idx_feed_entries_owner_created", columnList = "owner_id, created_at, food_review_id"),
+        @Index(name = "idx_feed_entries_owner_author", columnList = "owner_id, author_id")
+    }
+)
+public class FeedEntry {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @Column(name = "feed_entry_id")
+    private Long id;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "owner_id", nullable = false)
+    @OnDelete(action = OnDeleteAction.CASCADE)
+    private User owner;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "food_review_id", nullable = false)
+    @OnDelete(action = OnDeleteAction.CASCADE)
+    private FoodReview review;
+
+    @Column(name = "author_id", nullable = false)
+    private Long authorId;
+
+    @Column(name = "created_at", nullable = false)
+    private LocalDateTime createdAt;
+
+    public FeedEntry() {
+    }
+}
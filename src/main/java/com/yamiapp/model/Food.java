@@ -1,16 +1,23 @@
 package com.yamiapp.model;
 
+import com.yamiapp.service.CatalogIndexListener;
+import com.yamiapp.util.PictureVariants;
 import jakarta.persistence.*;
 import lombok.Getter;
 import lombok.Setter;
+import org.hibernate.annotations.ColumnDefault;
+
+import java.time.LocalDateTime;
 
 @Getter
 @Setter
 @Table(
         name = "foods",
-        uniqueConstraints = @UniqueConstraint(columnNames = {"name", "restaurant_id"})
+        uniqueConstraints = @UniqueConstraint(columnNames = {"name", "restaurant_id"}),
+        indexes = @Index(name = "idx_food_photo", columnList = "photo")
 )
 @Entity
+@EntityListeners(CatalogIndexListener.class)
 public class Food {
     public Food() {
         avgRating = 0D;
@@ -27,18 +34,40 @@ public class Food {
     @Column(name = "description", nullable = false, length = 511)
     private String description;
 
-    @Setter
-    @Column(nullable = true, name = "photo")
+    // the photo columns are filled in by the PhotoPipeline once the upload finishes, through FoodRepository#setPhoto,
+    // so saving a Food loaded before that can't clear them
+    @Column(nullable = true, name = "photo", updatable = false)
     private String photoPath;
 
-    @Setter
-    @Column(nullable = true, name = "photo_id")
+    @Column(nullable = true, name = "photo_id", updatable = false)
     private String photoId;
 
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = true, name = "photo_status", updatable = false)
+    private PhotoStatus photoStatus;
+
+    // when photo_status last changed; StalePhotoSweeper fails the pictures left PENDING for too long
+    @Column(nullable = true, name = "photo_status_at", updatable = false)
+    private LocalDateTime photoStatusAt;
+
+    // downscaled copies of the photo, in PictureVariants' format
+    @Column(nullable = true, name = "photo_variants", length = PictureVariants.MAX_LENGTH, updatable = false)
+    private String photoVariants;
+
+    // avg_rating, rating_sum and rating_count are only ever written through FoodRepository's atomic update queries,
+    // so saving a stale Food can't overwrite a concurrent review's contribution
     @Setter
-    @Column(name = "avg_rating")
+    @Column(name = "avg_rating", updatable = false)
     private Double avgRating;
 
+    @ColumnDefault("0")
+    @Column(name = "rating_sum", nullable = false, updatable = false)
+    private Long ratingSum = 0L;
+
+    @ColumnDefault("0")
+    @Column(name = "rating_count", nullable = false, updatable = false)
+    private Long ratingCount = 0L;
+
     @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "restaurant_id")
     private Restaurant restaurant;
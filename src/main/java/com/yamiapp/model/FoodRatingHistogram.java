@@ -0,0 +1,47 @@
+package com.yamiapp.model;
+
+import com.yamiapp.model.dto.RatingHistogram;
+import jakarta.persistence.*;
+import lombok.Getter;
+import org.hibernate.annotations.JdbcTypeCode;
+import org.hibernate.annotations.OnDelete;
+import org.hibernate.annotations.OnDeleteAction;
+import org.hibernate.type.SqlTypes;
+
+// materialized rating distribution of a food: one row per food, one array slot per rating
+@Getter
+@Entity
+@Table(name = "food_rating_histograms")
+public class FoodRatingHistogram {
+
+    @Id
+    @Column(name = "food_id")
+    private Long foodId;
+
+    @MapsId
+    @OneToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "food_id")
+    @OnDelete(action = OnDeleteAction.CASCADE)
+    private Food food;
+
+    @JdbcTypeCode(SqlTypes.ARRAY)
+    @Column(name = "buckets", nullable = false)
+    private long[] buckets;
+
+    public FoodRatingHistogram() {
+    }
+
+    public FoodRatingHistogram(Food food, long[] buckets) {
+        this.food = food;
+        this.buckets = buckets;
+    }
+
+    // replaces the array instead of mutating it, so hibernate's dirty checking always sees the change
+    public void add(int rating, long delta) {
+        buckets = RatingHistogram.withDelta(buckets, rating, delta);
+    }
+
+    public void replaceBuckets(long[] buckets) {
+        this.buckets = buckets;
+    }
+}
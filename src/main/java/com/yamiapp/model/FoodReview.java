@@ -4,6 +4,7 @@ import jakarta.persistence.*;
 import lombok.Builder;
 import lombok.Getter;
 import lombok.Setter;
+import org.hibernate.annotations.ColumnDefault;
 import org.hibernate.annotations.CreationTimestamp;
 
 import java.time.LocalDateTime;
@@ -41,6 +42,12 @@ public class FoodReview {
     @Column(name = "created_at", nullable = false, updatable = false)
     private LocalDateTime createdAt;
 
+    // denormalized count of review_like rows; kept up to date by FoodReviewLikeService and reconciled periodically.
+    // only ever written through atomic update queries, so saving a stale entity can't overwrite concurrent likes
+    @ColumnDefault("0")
+    @Column(name = "like_count", nullable = false, updatable = false)
+    private Long likeCount = 0L;
+
     public FoodReview() {
     }
 }
@@ -0,0 +1,8 @@
+package com.yamiapp.model;
+
+// lifecycle of an uploaded picture going through the PhotoPipeline. null means no picture was ever uploaded
+public enum PhotoStatus {
+    PENDING,
+    READY,
+    FAILED
+}
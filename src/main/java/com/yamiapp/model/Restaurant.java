@@ -1,16 +1,24 @@
 package com.yamiapp.model;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.yamiapp.service.CatalogIndexListener;
+import com.yamiapp.util.PictureVariants;
 import jakarta.persistence.*;
 import lombok.Getter;
 import lombok.Setter;
+import org.hibernate.annotations.ColumnDefault;
 
+import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.List;
 
 @Getter
-@Table(name = "restaurants")
+@Table(
+    name = "restaurants",
+    indexes = @Index(name = "idx_restaurant_photo", columnList = "photo")
+)
 @Entity
+@EntityListeners(CatalogIndexListener.class)
 public class Restaurant {
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
@@ -25,18 +33,42 @@ public class Restaurant {
     @Column(nullable = true, name="short_name", unique = false)
     private String shortName;
 
-    @Setter
-    @Column(nullable = true, name = "photo")
+    // filled in by the PhotoPipeline through RestaurantRepository#setPhoto; see Food
+    @Column(nullable = true, name = "photo", updatable = false)
     private String photoPath;
 
-    @Setter
-    @Column(nullable = true, name = "photo_id")
+    @Column(nullable = true, name = "photo_id", updatable = false)
     private String photoId;
 
+    @Setter
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = true, name = "photo_status", updatable = false)
+    private PhotoStatus photoStatus;
+
+    // when photo_status last changed; StalePhotoSweeper fails the pictures left PENDING for too long
+    @Setter
+    @Column(nullable = true, name = "photo_status_at", updatable = false)
+    private LocalDateTime photoStatusAt;
+
+    // downscaled copies of the photo, in PictureVariants' format
+    @Column(nullable = true, name = "photo_variants", length = PictureVariants.MAX_LENGTH, updatable = false)
+    private String photoVariants;
+
     @Setter
     @Column(nullable = false, name = "description")
     private String description;
 
+    // denormalized counts of the restaurant's foods and of the reviews on them, so reads don't have to join and count
+    // every review. Only written through RestaurantRepository's update queries, and reconciled periodically by the
+    // CounterReconciliationService
+    @ColumnDefault("0")
+    @Column(name = "food_count", nullable = false, updatable = false)
+    private Long foodCount = 0L;
+
+    @ColumnDefault("0")
+    @Column(name = "review_count", nullable = false, updatable = false)
+    private Long reviewCount = 0L;
+
     @OneToMany(mappedBy = "restaurant", cascade = CascadeType.ALL, orphanRemoval = true)
     private List<Food> foods = new ArrayList<>();
 }
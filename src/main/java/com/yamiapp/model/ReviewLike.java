@@ -9,7 +9,7 @@ import java.time.LocalDateTime;
 @Getter
 @Table(
     name = "review_like",
-    uniqueConstraints = @UniqueConstraint(columnNames = {"post_id", "user_id"})
+    uniqueConstraints = @UniqueConstraint(name = "uk_review_like_review_user", columnNames = {"food_review_id", "user_id"})
 )
 @Entity
 public class ReviewLike {
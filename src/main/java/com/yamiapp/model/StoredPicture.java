@@ -0,0 +1,38 @@
+package com.yamiapp.model;
+
+import com.yamiapp.util.PictureVariants;
+import jakarta.persistence.*;
+import lombok.Getter;
+
+// a picture already on B2, keyed by the SHA-256 of the upload it came from; see PictureStore
+@Getter
+@Entity
+@Table(
+    name = "stored_pictures",
+    indexes = @Index(name = "idx_stored_picture_path", columnList = "photo_path")
+)
+public class StoredPicture {
+
+    @Id
+    @Column(name = "content_hash", length = 64)
+    private String contentHash;
+
+    @Column(name = "photo_path", nullable = false)
+    private String photoPath;
+
+    @Column(name = "photo_id", nullable = false)
+    private String photoId;
+
+    @Column(name = "photo_variants", length = PictureVariants.MAX_LENGTH)
+    private String photoVariants;
+
+    public StoredPicture() {
+    }
+
+    public StoredPicture(String contentHash, String photoPath, String photoId, String photoVariants) {
+        this.contentHash = contentHash;
+        this.photoPath = photoPath;
+        this.photoId = photoId;
+        this.photoVariants = photoVariants;
+    }
+}
@@ -1,7 +1,9 @@
 package com.yamiapp.model;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.yamiapp.cache.UsernameIndexListener;
 import jakarta.persistence.*;
+import org.hibernate.annotations.ColumnDefault;
 
 import java.util.HashSet;
 import java.util.Set;
@@ -9,6 +11,7 @@ import lombok.Getter;
 import lombok.Setter;
 
 @Entity
+@EntityListeners(UsernameIndexListener.class)
 @Table(name = "users", uniqueConstraints = {
         @UniqueConstraint(name = "uk_users_username", columnNames = "username"),
         @UniqueConstraint(name = "uk_users_email", columnNames = "email"),
@@ -44,6 +47,13 @@ public class User {
     @Column(nullable = false, name = "role")
     private Role role;
 
+    // set once the user has too many followers to fan their reviews out on write; followers then pull them at read time.
+    // only written through UserRepository#enableFeedPull, so merging a stale cached user can't reset it
+    @JsonIgnore
+    @ColumnDefault("false")
+    @Column(nullable = false, name = "feed_pull", updatable = false)
+    private boolean feedPull = false;
+
     // FKs
     @ManyToMany(fetch = FetchType.LAZY)
     @JoinTable(
@@ -0,0 +1,60 @@
+package com.yamiapp.model;
+
+import com.yamiapp.model.dto.RatingHistogram;
+import jakarta.persistence.*;
+import lombok.Getter;
+import org.hibernate.annotations.JdbcTypeCode;
+import org.hibernate.annotations.OnDelete;
+import org.hibernate.annotations.OnDeleteAction;
+import org.hibernate.type.SqlTypes;
+
+// materialized rating distribution, sum and count of every review written by a user
+@Getter
+@Entity
+@Table(name = "user_rating_stats")
+public class UserRatingStats {
+
+    @Id
+    @Column(name = "user_id")
+    private Long userId;
+
+    @MapsId
+    @OneToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "user_id")
+    @OnDelete(action = OnDeleteAction.CASCADE)
+    private User user;
+
+    @JdbcTypeCode(SqlTypes.ARRAY)
+    @Column(name = "buckets", nullable = false)
+    private long[] buckets;
+
+    @Column(name = "rating_sum", nullable = false)
+    private Long ratingSum;
+
+    @Column(name = "rating_count", nullable = false)
+    private Long ratingCount;
+
+    public UserRatingStats() {
+    }
+
+    public UserRatingStats(User user, long[] buckets) {
+        this.user = user;
+        this.buckets = buckets;
+        this.ratingSum = 0L;
+        this.ratingCount = 0L;
+        for (int rating = 0; rating < buckets.length; rating++) {
+            this.ratingSum += rating * buckets[rating];
+            this.ratingCount += buckets[rating];
+        }
+    }
+
+    public void add(int rating, long delta) {
+        buckets = RatingHistogram.withDelta(buckets, rating, delta);
+        ratingSum = Math.max(0, ratingSum + rating * delta);
+        ratingCount = Math.max(0, ratingCount + delta);
+    }
+
+    public double getAverageRating() {
+        return ratingCount == 0 ? 0D : (double) ratingSum / ratingCount;
+    }
+}
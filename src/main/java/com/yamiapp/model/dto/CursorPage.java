@@ -0,0 +1,6 @@
+package com.yamiapp.model.dto;
+
+import java.util.List;
+
+// a page of a keyset-paginated listing. nextCursor is null once there is nothing left to fetch
+public record CursorPage<T>(List<T> content, String nextCursor) {}
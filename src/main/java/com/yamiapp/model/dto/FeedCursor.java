@@ -0,0 +1,34 @@
+package com.yamiapp.model.dto;
+
+import com.yamiapp.exception.BadRequestException;
+import com.yamiapp.exception.ErrorStrings;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Base64;
+
+// position of the last review a client has seen in a feed; opaque to clients, which just echo it back
+public record FeedCursor(LocalDateTime createdAt, Long id) {
+
+    public static FeedCursor of(FoodReviewResponseDTO review) {
+        return new FeedCursor(review.getCreatedAt(), review.getId());
+    }
+
+    public String encode() {
+        String raw = createdAt.toString() + "|" + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static FeedCursor decode(String cursor) {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            int separator = raw.lastIndexOf('|');
+            return new FeedCursor(
+                LocalDateTime.parse(raw.substring(0, separator)),
+                Long.parseLong(raw.substring(separator + 1))
+            );
+        } catch (RuntimeException e) {
+            throw new BadRequestException(ErrorStrings.INVALID_CURSOR.getMessage());
+        }
+    }
+}
@@ -0,0 +1,4 @@
+package com.yamiapp.model.dto;
+
+// a RatingDistributionEntry of one food, from a query over many
+public record FoodRatingDistributionEntry(Long foodId, Integer key, Long value) {}
@@ -3,6 +3,9 @@ package com.yamiapp.model.dto;
 import com.yamiapp.model.FoodReview;
 import lombok.Data;
 
+import java.time.LocalDateTime;
+import java.util.Objects;
+
 @Data
 public class FoodReviewResponseDTO {
     private Long id;
@@ -24,6 +27,8 @@ public class FoodReviewResponseDTO {
     private Boolean liked;
     private Long likeCount;
 
+    private LocalDateTime createdAt;
+
     public FoodReviewResponseDTO() {
         this.liked = false;
     }
@@ -40,13 +45,16 @@ public class FoodReviewResponseDTO {
         this.restaurantId = foodReview.getFood().getRestaurant().getId();
         this.restaurantName = foodReview.getFood().getRestaurant().getName();
         this.restaurantShortName = foodReview.getFood().getRestaurant().getShortName();
+        this.likeCount = Objects.requireNonNullElse(foodReview.getLikeCount(), 0L);
+        this.createdAt = foodReview.getCreatedAt();
     }
 
     public FoodReviewResponseDTO(
         Long id, String review, Integer rating,
         Long userId, String username,
         Long foodId, String foodName,
-        Long restaurantId, String restaurantName, String restaurantShortName
+        Long restaurantId, String restaurantName, String restaurantShortName,
+        Long likeCount, LocalDateTime createdAt
     ) {
         this();
         this.id = id;
@@ -59,6 +67,8 @@ public class FoodReviewResponseDTO {
         this.restaurantId = restaurantId;
         this.restaurantName = restaurantName;
         this.restaurantShortName = restaurantShortName;
+        setLikeCount(likeCount);
+        this.createdAt = createdAt;
     }
 
     public void setLikeCount(Long likeCount) {
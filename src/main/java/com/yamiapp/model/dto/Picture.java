@@ -0,0 +1,17 @@
+package com.yamiapp.model.dto;
+
+import com.backblaze.b2.client.exceptions.B2Exception;
+
+// a stored picture, resolved up to the point of fetching its bytes, so conditional requests can be answered
+// from the B2 file id alone. open() returns either a CachedImageResource or a StreamedPicture
+public record Picture(String photoPath, String photoId, Opener opener) {
+
+    @FunctionalInterface
+    public interface Opener {
+        Object open() throws B2Exception;
+    }
+
+    public Object open() throws B2Exception {
+        return opener.open();
+    }
+}
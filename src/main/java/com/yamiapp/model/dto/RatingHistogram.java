@@ -0,0 +1,55 @@
+package com.yamiapp.model.dto;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.stream.IntStream;
+
+// rating -> amount of reviews, for every rating from 0 to 20.
+// serialized as {"0": n, "1": n, ...}, the same shape the old Map<Integer, Long> had, but without boxing anything
+@JsonSerialize(using = RatingHistogram.Serializer.class)
+public record RatingHistogram(long[] buckets) {
+
+    public static final int BUCKETS = 21;
+    private static final String[] KEYS = IntStream.range(0, BUCKETS).mapToObj(Integer::toString).toArray(String[]::new);
+
+    public static RatingHistogram empty() {
+        return new RatingHistogram(new long[BUCKETS]);
+    }
+
+    public static long[] bucketsOf(List<RatingDistributionEntry> entries) {
+        long[] buckets = new long[BUCKETS];
+        for (RatingDistributionEntry entry : entries) {
+            if (entry.key() != null && entry.value() != null && entry.key() >= 0 && entry.key() < BUCKETS) {
+                buckets[entry.key()] = entry.value();
+            }
+        }
+        return buckets;
+    }
+
+    // copy of buckets with delta applied to the given rating; never goes below zero, and ignores ratings out of range
+    public static long[] withDelta(long[] buckets, int rating, long delta) {
+        long[] updated = buckets.clone();
+        if (rating >= 0 && rating < updated.length) {
+            updated[rating] = Math.max(0, updated[rating] + delta);
+        }
+        return updated;
+    }
+
+    public static class Serializer extends JsonSerializer<RatingHistogram> {
+        @Override
+        public void serialize(RatingHistogram value, JsonGenerator gen, SerializerProvider serializers) throws IOException {
+            long[] buckets = value.buckets();
+            gen.writeStartObject();
+            for (int i = 0; i < buckets.length; i++) {
+                gen.writeFieldName(KEYS[i]);
+                gen.writeNumber(buckets[i]);
+            }
+            gen.writeEndObject();
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package com.yamiapp.model.dto;
+
+import com.backblaze.b2.client.exceptions.B2Exception;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+// a picture fetched from backblaze as the response is written, for when it isn't in the disk cache
+public record StreamedPicture(Writer writer) {
+
+    @FunctionalInterface
+    public interface Writer {
+        void writeTo(OutputStream out) throws B2Exception, IOException;
+    }
+}
@@ -0,0 +1,30 @@
+package com.yamiapp.model.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.Objects;
+
+// concrete UserCountsDTO, used where the counts outlive the query that produced them (caches, batched lookups)
+@Getter
+@AllArgsConstructor
+public class UserCounts implements UserCountsDTO {
+    private final Long followerCount;
+    private final Long followingCount;
+    private final Long reviewCount;
+
+    public static UserCounts of(UserCountsDTO counts) {
+        if (counts instanceof UserCounts c) {
+            return c;
+        }
+        return new UserCounts(
+            Objects.requireNonNullElse(counts.getFollowerCount(), 0L),
+            Objects.requireNonNullElse(counts.getFollowingCount(), 0L),
+            Objects.requireNonNullElse(counts.getReviewCount(), 0L)
+        );
+    }
+
+    public static UserCounts empty() {
+        return new UserCounts(0L, 0L, 0L);
+    }
+}
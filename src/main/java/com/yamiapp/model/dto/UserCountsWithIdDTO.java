@@ -0,0 +1,5 @@
+package com.yamiapp.model.dto;
+
+public interface UserCountsWithIdDTO extends UserCountsDTO {
+    Long getUserId();
+}
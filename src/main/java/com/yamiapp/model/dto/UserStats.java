@@ -1,5 +1,3 @@
 package com.yamiapp.model.dto;
 
-import java.util.Map;
-
-public record UserStats(Double averageRating, Map<Integer, Long> ratingDistribution) {}
+public record UserStats(Double averageRating, RatingHistogram ratingDistribution) {}
@@ -0,0 +1,10 @@
+package com.yamiapp.model.projection;
+
+import com.yamiapp.model.Role;
+
+// what AccessTokenCache keeps per token: just enough to authorize a request, and immutable so it can be shared
+public record AuthenticatedUser(
+    Long id,
+    Role role,
+    boolean feedPull
+) {}
@@ -0,0 +1,8 @@
+package com.yamiapp.model.projection;
+
+public record FoodSearchProjection(
+    Long id,
+    Long restaurantId,
+    String name,
+    String description
+) {}
@@ -1,7 +0,0 @@
-package com.yamiapp.model.projection;
-
-public record ReviewLikeCountProjection(
-    Long reviewId,
-    Long count
-)
-{ }
@@ -0,0 +1,6 @@
+package com.yamiapp.model.projection;
+
+public record UsernameProjection(
+    Long id,
+    String username
+) {}
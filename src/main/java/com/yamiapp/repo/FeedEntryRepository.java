@@ -0,0 +1,107 @@
+package com.yamiapp.repo;
+
+import com.yamiapp.model.FeedEntry;
+import com.yamiapp.model.dto.FoodReviewResponseDTO;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.time.LocalDateTime;
+
+public interface FeedEntryRepository extends JpaRepository<FeedEntry, Long> {
+
+    // pushes a freshly created review into the inbox of every current follower of its author
+    @Modifying
+    @Query(value = """
+        INSERT INTO feed_entries (owner_id, food_review_id, author_id, created_at)
+        SELECT f.follower_id, :reviewId, :authorId, :createdAt
+        FROM follows f
+        WHERE f.following_id = :authorId
+    """, nativeQuery = true)
+    int fanOut(@Param("reviewId") Long reviewId, @Param("authorId") Long authorId, @Param("createdAt") LocalDateTime createdAt);
+
+    // copies the author's latest reviews into a new follower's inbox, skipping any that are already there
+    @Modifying
+    @Query(value = """
+        INSERT INTO feed_entries (owner_id, food_review_id, author_id, created_at)
+        SELECT :ownerId, latest.food_review_id, latest.user_id, latest.created_at
+        FROM (
+            SELECT fr.food_review_id, fr.user_id, fr.created_at
+            FROM food_reviews fr
+            WHERE fr.user_id = :authorId
+            ORDER BY fr.created_at DESC, fr.food_review_id DESC
+            LIMIT :limit
+        ) latest
+        WHERE NOT EXISTS (
+            SELECT 1 FROM feed_entries fe
+            WHERE fe.owner_id = :ownerId AND fe.food_review_id = latest.food_review_id
+        )
+    """, nativeQuery = true)
+    int backfill(@Param("ownerId") Long ownerId, @Param("authorId") Long authorId, @Param("limit") int limit);
+
+    // backfill for every follow of a push-mode author at once. Idempotent, so it doubles as a repair job
+    // for inboxes that predate the feed_entries table or missed a fan-out
+    @Modifying
+    @Query(value = """
+        INSERT INTO feed_entries (owner_id, food_review_id, author_id, created_at)
+        SELECT f.follower_id, latest.food_review_id, latest.user_id, latest.created_at
+        FROM follows f
+        JOIN users u ON u.user_id = f.following_id AND u.feed_pull = false
+        JOIN (
+            SELECT fr.food_review_id, fr.user_id, fr.created_at,
+                ROW_NUMBER() OVER (PARTITION BY fr.user_id ORDER BY fr.created_at DESC, fr.food_review_id DESC) AS rn
+            FROM food_reviews fr
+        ) latest ON latest.user_id = f.following_id AND latest.rn <= :limit
+        WHERE NOT EXISTS (
+            SELECT 1 FROM feed_entries fe
+            WHERE fe.owner_id = f.follower_id AND fe.food_review_id = latest.food_review_id
+        )
+    """, nativeQuery = true)
+    int backfillAll(@Param("limit") int limit);
+
+    @Modifying
+    @Query("delete FeedEntry e where e.owner.id = :ownerId and e.authorId = :authorId")
+    int trim(@Param("ownerId") Long ownerId, @Param("authorId") Long authorId);
+
+    @Query("select count(e) from FeedEntry e where e.owner.id = :ownerId")
+    long countInbox(@Param("ownerId") Long ownerId);
+
+    @Query("""
+        SELECT new com.yamiapp.model.dto.FoodReviewResponseDTO(
+            fr.id, fr.review, fr.rating,
+            fr.user.id, fr.user.username,
+            fr.food.id, fr.food.name,
+            fr.food.restaurant.id, fr.food.restaurant.name, fr.food.restaurant.shortName,
+            fr.likeCount, fr.createdAt
+        )
+        FROM FeedEntry e
+        JOIN e.review fr
+        WHERE e.owner.id = :ownerId
+        ORDER BY e.createdAt DESC, fr.id DESC
+    """)
+    Slice<FoodReviewResponseDTO> findInboxFirstSlice(@Param("ownerId") Long ownerId, Pageable pageable);
+
+    @Query("""
+        SELECT new com.yamiapp.model.dto.FoodReviewResponseDTO(
+            fr.id, fr.review, fr.rating,
+            fr.user.id, fr.user.username,
+            fr.food.id, fr.food.name,
+            fr.food.restaurant.id, fr.food.restaurant.name, fr.food.restaurant.shortName,
+            fr.likeCount, fr.createdAt
+        )
+        FROM FeedEntry e
+        JOIN e.review fr
+        WHERE e.owner.id = :ownerId
+        AND (e.createdAt < :createdAt OR (e.createdAt = :createdAt AND fr.id < :id))
+        ORDER BY e.createdAt DESC, fr.id DESC
+    """)
+    Slice<FoodReviewResponseDTO> findInboxAfter(
+        @Param("ownerId") Long ownerId,
+        @Param("createdAt") LocalDateTime createdAt,
+        @Param("id") Long id,
+        Pageable pageable
+    );
+}
@@ -0,0 +1,17 @@
+package com.yamiapp.repo;
+
+import com.yamiapp.model.FoodRatingHistogram;
+import jakarta.persistence.LockModeType;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.util.Optional;
+
+public interface FoodRatingHistogramRepository extends JpaRepository<FoodRatingHistogram, Long> {
+
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select h from FoodRatingHistogram h where h.foodId = :foodId")
+    Optional<FoodRatingHistogram> findByFoodIdForUpdate(@Param("foodId") Long foodId);
+}
@@ -2,7 +2,10 @@ package com.yamiapp.repo;
 
 import com.yamiapp.model.Food;
 import com.yamiapp.model.FoodReview;
+import com.yamiapp.model.PhotoStatus;
+import com.yamiapp.model.dto.FoodRatingDistributionEntry;
 import com.yamiapp.model.dto.RatingDistributionEntry;
+import com.yamiapp.model.projection.FoodSearchProjection;
 import com.yamiapp.model.projection.FoodWithReviewProjection;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.EntityGraph;
@@ -11,33 +14,92 @@ import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
 @Repository
 public interface FoodRepository extends JpaRepository<Food, Long> {
-    @Query("select avg(fr.rating) from FoodReview fr where fr.food.id = :id")
-    double getAverageRating(Long id);
 
+    long countByPhotoPath(String photoPath);
     @Query("SELECT f FROM Food f WHERE f.restaurant.id = :id")
     List<Food> getRestaurantFoods(@Param("id") Long id);
 
-    @Query("SELECT f from Food f where f.restaurant.id = :id and f.name ilike %:query%")
-    List<Food> searchRestaurantFoods(@Param("id") Long id, @Param("query") String query);
+    // loads the CatalogIndex
+    @Query("SELECT new com.yamiapp.model.projection.FoodSearchProjection(f.id, f.restaurant.id, f.name, f.description) FROM Food f")
+    List<FoodSearchProjection> findAllForSearch();
 
+    // called by the PhotoPipeline from its own threads, hence the transaction on the method itself
+    @Transactional
+    @Modifying
+    @Query("""
+        update Food f
+        set f.photoPath = :photoPath, f.photoId = :photoId, f.photoVariants = :variants, f.photoStatus = :status,
+            f.photoStatusAt = local datetime
+        where f.id = :id
+    """)
+    int setPhoto(
+        @Param("id") Long id,
+        @Param("photoPath") String photoPath,
+        @Param("photoId") String photoId,
+        @Param("variants") String variants,
+        @Param("status") PhotoStatus status
+    );
+
+    @Transactional
+    @Modifying
+    @Query("update Food f set f.photoStatus = :status, f.photoStatusAt = local datetime where f.id = :id")
+    int setPhotoStatus(@Param("id") Long id, @Param("status") PhotoStatus status);
+
+    @Modifying
+    @Query("""
+        update Food f
+        set f.photoStatus = com.yamiapp.model.PhotoStatus.FAILED, f.photoStatusAt = local datetime
+        where f.photoStatus = com.yamiapp.model.PhotoStatus.PENDING and f.photoStatusAt < :cutoff
+    """)
+    int failPhotosPendingSince(@Param("cutoff") LocalDateTime cutoff);
+
+    // applies a single review's contribution to the running sum and count, and derives the average from them.
+    // the right hand side always sees the pre-update values, so this is atomic without any locking on our side
     @Modifying(clearAutomatically = true)
     @Query(value = """
     UPDATE foods
-    SET avg_rating = (
-        SELECT AVG(rating)
-        FROM food_reviews
-        
-        WHERE food_reviews.food_id = foods.food_id
-    )
+    SET rating_sum = rating_sum + :sumDelta,
+        rating_count = rating_count + :countDelta,
+        avg_rating = CASE
+            WHEN rating_count + :countDelta > 0
+            THEN CAST(rating_sum + :sumDelta AS DOUBLE PRECISION) / (rating_count + :countDelta)
+            ELSE NULL
+        END
     WHERE foods.food_id = :foodId
     """, nativeQuery = true)
-    void updateAverageRating(@Param("foodId") Long foodId);
+    void applyRatingDelta(@Param("foodId") Long foodId, @Param("sumDelta") long sumDelta, @Param("countDelta") long countDelta);
+
+    // fixes every food whose rating_sum or rating_count drifted from food_reviews (reviews deleted along with their
+    // user, manual SQL...), re-deriving avg_rating from them; returns how many rows were fixed
+    @Modifying(clearAutomatically = true)
+    @Query(value = """
+    UPDATE foods
+    SET rating_sum = COALESCE((SELECT SUM(fr.rating) FROM food_reviews fr WHERE fr.food_id = foods.food_id), 0),
+        rating_count = (SELECT COUNT(*) FROM food_reviews fr WHERE fr.food_id = foods.food_id),
+        avg_rating = (SELECT AVG(CAST(fr.rating AS DOUBLE PRECISION)) FROM food_reviews fr WHERE fr.food_id = foods.food_id)
+    WHERE rating_sum <> COALESCE((SELECT SUM(fr.rating) FROM food_reviews fr WHERE fr.food_id = foods.food_id), 0)
+    OR rating_count <> (SELECT COUNT(*) FROM food_reviews fr WHERE fr.food_id = foods.food_id)
+    """, nativeQuery = true)
+    int reconcileRatingAggregates();
+
+    // full recompute from food_reviews, to repair any drift in the running aggregates
+    @Modifying(clearAutomatically = true)
+    @Query(value = """
+    UPDATE foods
+    SET rating_sum = COALESCE((SELECT SUM(fr.rating) FROM food_reviews fr WHERE fr.food_id = foods.food_id), 0),
+        rating_count = (SELECT COUNT(*) FROM food_reviews fr WHERE fr.food_id = foods.food_id),
+        avg_rating = (SELECT AVG(CAST(fr.rating AS DOUBLE PRECISION)) FROM food_reviews fr WHERE fr.food_id = foods.food_id)
+    """, nativeQuery = true)
+    int rebuildRatingAggregates();
 
     @Query("""
     SELECT new com.yamiapp.model.projection.FoodWithReviewProjection(
@@ -59,7 +121,18 @@ public interface FoodRepository extends JpaRepository<Food, Long> {
     """, nativeQuery = true)
     List<RatingDistributionEntry> getRatingDistribution(@Param("foodId") Long foodId);
 
+    // getRatingDistribution of every food with reviews, for rebuilding all the histograms at once
+    @Query(value = """
+        select fr.food_id as foodId, fr.rating as k, COUNT(*) as v
+        from food_reviews fr
+        group by fr.food_id, fr.rating
+    """, nativeQuery = true)
+    List<FoodRatingDistributionEntry> getRatingDistributions();
+
     @Query("select f from Food f join fetch f.restaurant where f.id = :id")
     Optional<Food> findByIdWithRestaurant(@Param("id") Long id);
 
+    @Query("select f from Food f join fetch f.restaurant where f.id in :ids")
+    List<Food> findAllByIdWithRestaurant(@Param("ids") Collection<Long> ids);
+
 }
\ No newline at end of file
@@ -5,12 +5,15 @@ import com.yamiapp.model.FoodReview;
 import com.yamiapp.model.dto.FoodReviewResponseDTO;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.jpa.domain.Specification;
 import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 
+import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Optional;
 
@@ -30,29 +33,101 @@ public interface FoodReviewRepository extends JpaRepository<FoodReview, Long> {
 
     Page<FoodReview> findAll(Specification<FoodReview> spec, Pageable pageable);
 
-    @EntityGraph(attributePaths = {"user", "food", "food.restaurant"})
+    // keyword searches; patterns come from ServiceUtils#containsPattern. On postgres, lower(review) is covered by the
+    // pg_trgm index created in V12__review_trigram_index.sql, so these don't scan the whole table (keywords shorter
+    // than 3 characters have no trigrams, and still do)
+    @EntityGraph(attributePaths = {"food", "food.restaurant", "user"})
+    @Query("select fr from FoodReview fr where fr.food.id = :foodId and lower(fr.review) like :reviewPattern escape '\\'")
+    Page<FoodReview> searchFoodReviewsByFoodId(@Param("foodId") Long foodId, @Param("reviewPattern") String reviewPattern, Pageable pageable);
+
+    // a null pattern doesn't filter
+    @EntityGraph(attributePaths = {"food", "food.restaurant", "user"})
+    @Query("""
+        select fr from FoodReview fr
+        where fr.user.id = :userId
+        and (:foodPattern is null or lower(fr.food.name) like :foodPattern escape '\\')
+        and (:reviewPattern is null or lower(fr.review) like :reviewPattern escape '\\')
+    """)
+    Page<FoodReview> searchFoodReviewsByUserId(
+        @Param("userId") Long userId,
+        @Param("foodPattern") String foodPattern,
+        @Param("reviewPattern") String reviewPattern,
+        Pageable pageable
+    );
+
+    // the pulled reviews that aren't also in the owner's inbox, so the two sources add up to the merged feed's size
+    @Query("""
+        SELECT COUNT(fr)
+        FROM FoodReview fr
+        WHERE fr.user.id IN (
+            SELECT f.id
+            FROM User me
+            JOIN me.following f
+            WHERE me.id = :ownerId AND f.feedPull = true
+        )
+        AND NOT EXISTS (SELECT 1 FROM FeedEntry e WHERE e.owner.id = :ownerId AND e.review.id = fr.id)
+    """)
+    long countPulledFeedNotInInbox(@Param("ownerId") Long ownerId);
+
+    // keyset reads of the reviews by followed users whose posts are not fanned out (see FeedService); the rest of
+    // the feed comes from feed_entries. The id tiebreaker makes the order total, so reviews created in the same
+    // instant are neither skipped nor repeated
+    @Query("""
+        SELECT new com.yamiapp.model.dto.FoodReviewResponseDTO(
+            fr.id, fr.review, fr.rating,
+            fr.user.id, fr.user.username,
+            fr.food.id, fr.food.name,
+            fr.food.restaurant.id, fr.food.restaurant.name, fr.food.restaurant.shortName,
+            fr.likeCount, fr.createdAt
+        )
+        FROM FoodReview fr
+        WHERE fr.user.id IN (
+            SELECT f.id
+            FROM User me
+            JOIN me.following f
+            WHERE me.id = :ownerId AND f.feedPull = true
+        )
+        ORDER BY fr.createdAt DESC, fr.id DESC
+    """)
+    Slice<FoodReviewResponseDTO> findPulledFeedFirstSlice(@Param("ownerId") Long ownerId, Pageable pageable);
+
     @Query("""
         SELECT new com.yamiapp.model.dto.FoodReviewResponseDTO(
-            fr.id,
-            fr.review,
-            fr.rating,
-            fr.user.id,
-            fr.user.username,
-            fr.food.id,
-            fr.food.name,
-            fr.food.restaurant.id,
-            fr.food.restaurant.name,
-            fr.food.restaurant.shortName
+            fr.id, fr.review, fr.rating,
+            fr.user.id, fr.user.username,
+            fr.food.id, fr.food.name,
+            fr.food.restaurant.id, fr.food.restaurant.name, fr.food.restaurant.shortName,
+            fr.likeCount, fr.createdAt
         )
         FROM FoodReview fr
         WHERE fr.user.id IN (
             SELECT f.id
             FROM User me
             JOIN me.following f
-            WHERE me.accessToken = :accessToken
+            WHERE me.id = :ownerId AND f.feedPull = true
         )
-        ORDER BY fr.createdAt DESC
+        AND (fr.createdAt < :createdAt OR (fr.createdAt = :createdAt AND fr.id < :id))
+        ORDER BY fr.createdAt DESC, fr.id DESC
     """)
-    Page<FoodReviewResponseDTO> findUserFeed(@Param("accessToken") String userToken, Pageable pageable);
+    Slice<FoodReviewResponseDTO> findPulledFeedAfter(
+        @Param("ownerId") Long ownerId,
+        @Param("createdAt") LocalDateTime createdAt,
+        @Param("id") Long id,
+        Pageable pageable
+    );
+
+    // atomic in the database, so concurrent likes never lose an update. Never lets the count go negative
+    @Modifying
+    @Query("update FoodReview fr set fr.likeCount = fr.likeCount + :delta where fr.id = :reviewId and fr.likeCount + :delta >= 0")
+    int addToLikeCount(@Param("reviewId") Long reviewId, @Param("delta") long delta);
+
+    // fixes every review whose like_count drifted from the review_like table; returns how many rows were fixed
+    @Modifying
+    @Query(value = """
+        update food_reviews
+        set like_count = (select COUNT(*) from review_like rl where rl.food_review_id = food_reviews.food_review_id)
+        where like_count <> (select COUNT(*) from review_like rl where rl.food_review_id = food_reviews.food_review_id)
+    """, nativeQuery = true)
+    int reconcileLikeCounts();
 
 }
@@ -1,50 +1,98 @@
 package com.yamiapp.repo;
 
+import com.yamiapp.model.PhotoStatus;
 import com.yamiapp.model.Restaurant;
 import com.yamiapp.model.User;
 import com.yamiapp.model.dto.RestaurantResposneDTO;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 public interface RestaurantRepository extends JpaRepository<Restaurant, Integer> {
 
+    long countByPhotoPath(String photoPath);
+
+    // called by the PhotoPipeline from its own threads, hence the transaction on the method itself
+    @Transactional
+    @Modifying
     @Query("""
-        SELECT new com.yamiapp.model.dto.RestaurantResposneDTO(
-            r.id, r.name, r.shortName, r.description,
-            CAST(COALESCE(COUNT(DISTINCT f.id), 0L) AS LONG),
-            CAST(COALESCE(COUNT(DISTINCT fr.id), 0L) AS LONG)
-        )
-        FROM Restaurant  r
-        LEFT JOIN r.foods f
-        LEFT JOIN FoodReview fr on fr.food.id = f.id
-        WHERE r.id=:id
-        GROUP BY r.id, r.name, r.shortName, r.description
+        update Restaurant r
+        set r.photoPath = :photoPath, r.photoId = :photoId, r.photoVariants = :variants, r.photoStatus = :status,
+            r.photoStatusAt = local datetime
+        where r.id = :id
+    """)
+    int setPhoto(
+        @Param("id") Long id,
+        @Param("photoPath") String photoPath,
+        @Param("photoId") String photoId,
+        @Param("variants") String variants,
+        @Param("status") PhotoStatus status
+    );
+
+    @Transactional
+    @Modifying
+    @Query("update Restaurant r set r.photoStatus = :status, r.photoStatusAt = local datetime where r.id = :id")
+    int setPhotoStatus(@Param("id") Long id, @Param("status") PhotoStatus status);
+
+    @Modifying
+    @Query("""
+        update Restaurant r
+        set r.photoStatus = com.yamiapp.model.PhotoStatus.FAILED, r.photoStatusAt = local datetime
+        where r.photoStatus = com.yamiapp.model.PhotoStatus.PENDING and r.photoStatusAt < :cutoff
+    """)
+    int failPhotosPendingSince(@Param("cutoff") LocalDateTime cutoff);
+
+    @Query("""
+        SELECT new com.yamiapp.model.dto.RestaurantResposneDTO(r.id, r.name, r.shortName, r.description, r.foodCount, r.reviewCount)
+        FROM Restaurant r
+        WHERE r.id = :id
     """)
     Optional<RestaurantResposneDTO> getRestaurantByIdWithMetrics(
         @Param("id") Integer id
     );
 
+    // the page of restaurants a CatalogIndex search returned, in no particular order
     @Query("""
-        SELECT new com.yamiapp.model.dto.RestaurantResposneDTO(
-            r.id, r.name, r.shortName, r.description,
-            CAST(COALESCE(COUNT(DISTINCT f.id), 0L) AS LONG),
-            CAST(COALESCE(COUNT(DISTINCT fr.id), 0L) AS LONG)
-        )
+        SELECT new com.yamiapp.model.dto.RestaurantResposneDTO(r.id, r.name, r.shortName, r.description, r.foodCount, r.reviewCount)
         FROM Restaurant r
-        LEFT JOIN r.foods f
-        LEFT JOIN FoodReview fr ON fr.food.id = f.id
-        WHERE r.name ILIKE CONCAT('%', :searchParams, '%')
-        GROUP BY r.id, r.name, r.shortName, r.description
+        WHERE r.id IN :ids
     """)
-    Page<RestaurantResposneDTO> getRestaurantsByAnonymousSearch(
-        @Param("searchParams") String searchParams,
-        Pageable pageable
-    );
+    List<RestaurantResposneDTO> getRestaurantsByIdsWithMetrics(@Param("ids") Collection<Long> ids);
+
+    // atomic in the database, like FoodReviewRepository#addToLikeCount
+    @Modifying
+    @Query("update Restaurant r set r.foodCount = r.foodCount + :foodDelta, r.reviewCount = r.reviewCount + :reviewDelta where r.id = :id")
+    int addToCounts(@Param("id") Long id, @Param("foodDelta") long foodDelta, @Param("reviewDelta") long reviewDelta);
+
+    // fixes every restaurant whose counts drifted from the foods and food_reviews tables (reviews deleted along with
+    // their user, manual SQL...); returns how many rows were fixed
+    @Modifying
+    @Query(value = """
+        update restaurants
+        set food_count = (select COUNT(*) from foods f where f.restaurant_id = restaurants.restaurant_id),
+            review_count = (
+                select COUNT(*) from food_reviews fr join foods f on f.food_id = fr.food_id
+                where f.restaurant_id = restaurants.restaurant_id
+            )
+        where food_count <> (select COUNT(*) from foods f where f.restaurant_id = restaurants.restaurant_id)
+        or review_count <> (
+            select COUNT(*) from food_reviews fr join foods f on f.food_id = fr.food_id
+            where f.restaurant_id = restaurants.restaurant_id
+        )
+    """, nativeQuery = true)
+    int reconcileCounts();
+
+    // loads the CatalogIndex
+    @Query("SELECT new com.yamiapp.model.dto.RestaurantResposneDTO(r.id, r.name, r.shortName, r.description) FROM Restaurant r")
+    List<RestaurantResposneDTO> findAllForSearch();
 
     @Query("""
         SELECT new com.yamiapp.model.dto.RestaurantResposneDTO(
@@ -3,7 +3,6 @@ package com.yamiapp.repo;
 import com.yamiapp.model.FoodReview;
 import com.yamiapp.model.ReviewLike;
 import com.yamiapp.model.User;
-import com.yamiapp.model.projection.ReviewLikeCountProjection;
 import com.yamiapp.model.projection.ReviewLikedProjection;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
@@ -27,7 +26,7 @@ public interface ReviewLikeRepository extends JpaRepository<ReviewLike, Long> {
     @Transactional
     @Modifying
     @Query("delete ReviewLike rl where rl.user.accessToken = :accessToken and rl.review.id = :reviewId")
-    public void deleteReviewLikeByAccessTokenAndReviewId(@Param("accessToken") String accessToken, @Param("reviewId") Long reviewId);
+    public int deleteReviewLikeByAccessTokenAndReviewId(@Param("accessToken") String accessToken, @Param("reviewId") Long reviewId);
 
     public boolean existsByUserIdAndReviewId(Long userId, Long reviewId);
 
@@ -45,12 +44,4 @@ public interface ReviewLikeRepository extends JpaRepository<ReviewLike, Long> {
 
     Long countByReviewId(Long foodReviewId);
 
-    @Query("""
-        select new com.yamiapp.model.projection.ReviewLikeCountProjection(rl.review.id, count(rl))
-        from ReviewLike rl
-        where rl.review.id in :reviewIds
-        group by rl.review.id
-    """)
-    List<ReviewLikeCountProjection> countLikesByReviewIds(@Param("reviewIds") List<Long> reviewIds);
-
 }
@@ -0,0 +1,29 @@
+package com.yamiapp.repo;
+
+import com.yamiapp.model.StoredPicture;
+import jakarta.persistence.LockModeType;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+import java.util.Optional;
+
+public interface StoredPictureRepository extends JpaRepository<StoredPicture, String> {
+
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select p from StoredPicture p where p.contentHash = :contentHash")
+    Optional<StoredPicture> findByContentHashForUpdate(@Param("contentHash") String contentHash);
+
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select p from StoredPicture p where p.photoPath = :photoPath")
+    List<StoredPicture> findByPhotoPathForUpdate(@Param("photoPath") String photoPath);
+
+    @Transactional
+    @Modifying
+    @Query("delete from StoredPicture p where p.photoPath = :photoPath")
+    int deleteByPhotoPath(@Param("photoPath") String photoPath);
+}
@@ -0,0 +1,17 @@
+package com.yamiapp.repo;
+
+import com.yamiapp.model.UserRatingStats;
+import jakarta.persistence.LockModeType;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.util.Optional;
+
+public interface UserRatingStatsRepository extends JpaRepository<UserRatingStats, Long> {
+
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select s from UserRatingStats s where s.userId = :userId")
+    Optional<UserRatingStats> findByUserIdForUpdate(@Param("userId") Long userId);
+}
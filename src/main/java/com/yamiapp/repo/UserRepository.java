@@ -3,19 +3,34 @@ package com.yamiapp.repo;
 import com.yamiapp.model.User;
 import com.yamiapp.model.dto.RatingDistributionEntry;
 import com.yamiapp.model.dto.UserCountsDTO;
+import com.yamiapp.model.dto.UserCountsWithIdDTO;
+import com.yamiapp.model.projection.AuthenticatedUser;
+import com.yamiapp.model.projection.UsernameProjection;
+import jakarta.persistence.QueryHint;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.query.Param;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
 public interface UserRepository extends JpaRepository<User, Long> {
+    // statement timeout of the user search sources, after which the database cancels them; UserService stops waiting
+    // for them at the same deadline. Whole seconds, since that's the granularity of JDBC query timeouts
+    String SEARCH_QUERY_TIMEOUT_MS = "2000";
+
     @Query("select u from User u where u.accessToken = :accessToken")
     Optional<User> findByAccessToken(@Param("accessToken") String accessToken);
 
+    // backs the AccessTokenCache
+    @Query("select new com.yamiapp.model.projection.AuthenticatedUser(u.id, u.role, u.feedPull) from User u where u.accessToken = :accessToken")
+    Optional<AuthenticatedUser> findAuthenticatedByAccessToken(@Param("accessToken") String accessToken);
+
     @Query("select u from User u where u.username = :username")
     Optional<User> findByUsername(@Param("username") String username);
 
@@ -28,6 +43,10 @@ public interface UserRepository extends JpaRepository<User, Long> {
     @Query("select u from User u where u.id = :id")
     Optional<User> findById(@Param("id") Long id);
 
+    @Modifying
+    @Query("update User u set u.feedPull = true where u.id = :userId and u.feedPull = false")
+    int enableFeedPull(@Param("userId") Long userId);
+
     @Query(value = """
         select
             (select COUNT(*) from follows where following_id = :userId) as followerCount,
@@ -36,6 +55,27 @@ public interface UserRepository extends JpaRepository<User, Long> {
        """, nativeQuery = true)
     UserCountsDTO getUserCounts(@Param("userId") Long userId);
 
+    // same as getUserCounts, but for a whole page of users at once; each table is grouped once instead of once per user
+    @Query(value = """
+        select
+            u.user_id as userId,
+            coalesce(follower_counts.c, 0) as followerCount,
+            coalesce(following_counts.c, 0) as followingCount,
+            coalesce(review_counts.c, 0) as reviewCount
+        from users u
+        left join (
+            select following_id as id, COUNT(*) as c from follows where following_id in (:userIds) group by following_id
+        ) follower_counts on follower_counts.id = u.user_id
+        left join (
+            select follower_id as id, COUNT(*) as c from follows where follower_id in (:userIds) group by follower_id
+        ) following_counts on following_counts.id = u.user_id
+        left join (
+            select user_id as id, COUNT(*) as c from food_reviews where user_id in (:userIds) group by user_id
+        ) review_counts on review_counts.id = u.user_id
+        where u.user_id in (:userIds)
+       """, nativeQuery = true)
+    List<UserCountsWithIdDTO> getUserCountsByIds(@Param("userIds") Collection<Long> userIds);
+
     @Query(value = """
         select r.rating as k, COUNT(*) as v\
         from food_reviews r
@@ -44,24 +84,25 @@ public interface UserRepository extends JpaRepository<User, Long> {
     """, nativeQuery = true)
     List<RatingDistributionEntry> getRatingDistribution(@Param("userId") Long userId);
 
-    @Query("select AVG(r.rating) from FoodReview r where r.user.id = :userId")
-    Double getAverageRating(@Param("userId") Long userId);
+    // loads the UsernameIndex
+    @Query("select new com.yamiapp.model.projection.UsernameProjection(u.id, u.username) from User u")
+    List<UsernameProjection> findAllUsernames();
 
-    @Query("select u from User u where u.username ilike :searchParams")
-    Page<User> getUsersByAnonymousSearch(@Param("searchParams") String searchParams, Pageable pageable);
+    // the searches below take the users whose username matched, as found by the UsernameIndex
 
+    @QueryHints(@QueryHint(name = "jakarta.persistence.query.timeout", value = SEARCH_QUERY_TIMEOUT_MS))
     @Query("""
         SELECT DISTINCT f2
         FROM User u
         JOIN u.following f1
         JOIN f1.following f2
         WHERE u.id = :userId
-        AND LOWER(f2.username) iLIKE LOWER(:search)
+        AND f2.id IN :candidateIds
         AND f2.id <> :userId
     """)
+    Page<User> findSecondDegree(@Param("userId") Long userId, @Param("candidateIds") Collection<Long> candidateIds, Pageable pageable);
 
-    Page<User> findSecondDegree(@Param("userId") Long userId, @Param("search") String search, Pageable pageable);
-
+    @QueryHints(@QueryHint(name = "jakarta.persistence.query.timeout", value = SEARCH_QUERY_TIMEOUT_MS))
     @Query("""
         SELECT DISTINCT u
         FROM User u
@@ -70,10 +111,11 @@ public interface UserRepository extends JpaRepository<User, Long> {
             SELECT f1 FROM User u2 JOIN u2.following f1 WHERE u2.id = :userId
         )
         AND u.id <> :userId
-        AND LOWER(u.username) LIKE LOWER(:search)
+        AND u.id IN :candidateIds
     """)
-    Page<User> findSharedInterest(@Param("userId") Long userId, @Param("search") String search, Pageable pageable);
+    Page<User> findSharedInterest(@Param("userId") Long userId, @Param("candidateIds") Collection<Long> candidateIds, Pageable pageable);
 
+    @QueryHints(@QueryHint(name = "jakarta.persistence.query.timeout", value = SEARCH_QUERY_TIMEOUT_MS))
     @Query(value = """
         SELECT u.*
         FROM users u
@@ -81,10 +123,10 @@ public interface UserRepository extends JpaRepository<User, Long> {
         WHERE u.user_id NOT IN (
             SELECT following_id FROM follows WHERE follower_id = :userId
         ) AND u.user_id <> :userId
-        AND LOWER(u.username) LIKE LOWER(:search)
+        AND u.user_id IN (:candidateIds)
         GROUP BY u.user_id
         ORDER BY COUNT(f.follower_id) DESC
     """, nativeQuery = true)
-    Page<User> findPopularUsersExcludingFollows(@Param("userId") Long userId, @Param("search") String search, Pageable pageable);
+    Page<User> findPopularUsersExcludingFollows(@Param("userId") Long userId, @Param("candidateIds") Collection<Long> candidateIds, Pageable pageable);
 
 }
@@ -1,27 +1,40 @@
 package com.yamiapp.service;
 
 import com.backblaze.b2.client.B2StorageClient;
-import com.backblaze.b2.client.B2StorageClientFactory;
-import com.backblaze.b2.client.contentHandlers.B2ContentMemoryWriter;
+import com.backblaze.b2.client.contentHandlers.B2ContentFileWriter;
 import com.backblaze.b2.client.contentSources.B2ContentSource;
-import com.backblaze.b2.client.contentSources.B2FileContentSource;
 import com.backblaze.b2.client.exceptions.B2Exception;
 import com.backblaze.b2.client.structures.B2DeleteFileVersionRequest;
 import com.backblaze.b2.client.structures.B2DownloadByNameRequest;
 import com.backblaze.b2.client.structures.B2FileVersion;
 import com.backblaze.b2.client.structures.B2UploadFileRequest;
+import com.backblaze.b2.client.webApiHttpClient.B2StorageHttpClientBuilder;
+import com.backblaze.b2.client.webApiHttpClient.HttpClientFactoryImpl;
+import com.yamiapp.exception.ServiceUnavailableException;
+import com.yamiapp.util.B2StreamContentSource;
+import com.yamiapp.util.Bulkhead;
+import com.yamiapp.util.Bulkheads;
+import com.yamiapp.util.ByteArrayMultipartFile;
+import com.yamiapp.util.PictureVariants;
 import jakarta.annotation.PostConstruct;
 import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
 import org.jetbrains.annotations.NotNull;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.core.io.ByteArrayResource;
 import org.springframework.http.MediaType;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
-import java.io.File;
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+@Slf4j
 @Service
 public class BackblazeService {
 
@@ -31,20 +44,41 @@ public class BackblazeService {
     private String applicationKey;
     @Value("${backblaze.b2.bucket-name}")
     private String bucketName;
+    @Value("${yami.downstream.b2.connect-timeout-seconds}")
+    private int connectTimeoutSeconds;
+    @Value("${yami.downstream.b2.socket-timeout-seconds}")
+    private int socketTimeoutSeconds;
+
+    private static final int STREAM_BUFFER_SIZE = 256 * 1024;
+
+    // field-injected like the rest of this class, so test fakes can still be built with a plain constructor
+    private Bulkhead bulkhead;
 
 
     private B2StorageClient client;
     private String bucketId;
+    // files bigger than b2's recommended part size are uploaded in parallel parts
+    private long largeFileThreshold = Long.MAX_VALUE;
+    private ExecutorService largeFileExecutor;
+
+    @Autowired
+    public void setBulkheads(Bulkheads bulkheads) {
+        this.bulkhead = bulkheads.b2();
+    }
 
     @PostConstruct
     public void initialize() {
-        client = B2StorageClientFactory.createDefaultFactory().create(
-                applicationKeyId,
-                applicationKey,
-                "FoodApp/1.0"
-        );
+        largeFileExecutor = Executors.newVirtualThreadPerTaskExecutor();
+        // explicit timeouts, so a stalled b2 fails the call instead of holding its bulkhead slot indefinitely
+        client = B2StorageHttpClientBuilder.builder(applicationKeyId, applicationKey, "FoodApp/1.0")
+                .setHttpClientFactory(HttpClientFactoryImpl.builder()
+                        .setConnectTimeoutSeconds(connectTimeoutSeconds)
+                        .setSocketTimeoutSeconds(socketTimeoutSeconds)
+                        .build())
+                .build();
         try {
             bucketId = client.getBucketOrNullByName(bucketName).getBucketId();
+            largeFileThreshold = client.getPartSizes().getRecommendedPartSize();
         } catch (B2Exception e) {
             e.printStackTrace();
             throw new RuntimeException(e); // server can't run without backblaze
@@ -56,54 +90,106 @@ public class BackblazeService {
         if (client != null) {
             client.close();
         }
+        if (largeFileExecutor != null) {
+            largeFileExecutor.close();
+        }
     }
 
 
+    // uploads straight from memory (converted images) or from the request stream; nothing touches the disk
     public B2FileVersion uploadFile(MultipartFile file, String b2FileName) throws B2Exception, IOException {
-        File tempFile = Files.createTempFile("b2-upload-", ".tmp").toFile();
-        try {
-            file.transferTo(tempFile);
-            B2ContentSource contentSource = B2FileContentSource.build(tempFile);
-
-            B2FileVersion fileVersion = client.uploadSmallFile(
-                    B2UploadFileRequest.builder(
-                            bucketId,
-                            b2FileName,
-                            file.getContentType(),
-                            contentSource
-                    ).build()
-            );
-
-            return fileVersion;
-        } finally {
-            Files.deleteIfExists(tempFile.toPath());
+        B2ContentSource contentSource = file instanceof ByteArrayMultipartFile bytes
+                ? B2StreamContentSource.of(bytes.getBytes())
+                : B2StreamContentSource.of(file);
+
+        B2UploadFileRequest request = B2UploadFileRequest.builder(
+                bucketId,
+                b2FileName,
+                file.getContentType(),
+                contentSource
+        ).build();
+
+        if (contentSource.getContentLength() > largeFileThreshold) {
+            return bulkhead.execute(() -> client.uploadLargeFile(request, largeFileExecutor));
         }
+        return bulkhead.execute(() -> client.uploadSmallFile(request));
     }
 
 
-    public ByteArrayResource downloadFile(String fileName) throws B2Exception {
-        B2ContentMemoryWriter handler = B2ContentMemoryWriter.build();
-        client.downloadByName(
+    // downloads straight to disk; used to fill the local picture cache
+    public void downloadToFile(String fileName, Path target) throws B2Exception {
+        bulkhead.run(() -> client.downloadByName(
                 B2DownloadByNameRequest.builder(bucketName, fileName).build(),
-                handler
-        );
+                B2ContentFileWriter.builder(target.toFile()).build()
+        ));
+    }
 
-        return new ByteArrayResource(handler.getBytes()) {
-            @Override
-            public String getFilename() {
-                return fileName;
-            }
-        };
+    // reads the whole file before writing any of it to out, so the bulkhead slot is given back as soon as b2 is done
+    // rather than after a slow client, and a client hanging up never counts against b2's circuit breaker.
+    // only the first STREAM_BUFFER_SIZE bytes are held in memory; anything past that is spooled to a temp file, so
+    // heap use per download stays bounded
+    public void streamFile(String fileName, OutputStream out) throws B2Exception, IOException {
+        try (SpooledContent content = new SpooledContent()) {
+            bulkhead.run(() -> client.downloadByName(
+                    B2DownloadByNameRequest.builder(bucketName, fileName).build(),
+                    (headers, in) -> content.read(in)
+            ));
+            content.writeTo(out);
+        }
     }
 
     public void deleteFile(@NotNull String filename, @NotNull String fileId) throws B2Exception {
-        client.deleteFileVersion(filename, fileId);
+        bulkhead.run(() -> client.deleteFileVersion(filename, fileId));
+    }
+
+    // best effort; a thumbnail left behind only costs a bit of storage
+    public void deleteVariants(String photoPath, String variants) {
+        PictureVariants.parse(variants).forEach((size, fileId) -> {
+            try {
+                deleteFile(PictureVariants.pathFor(photoPath, size), fileId);
+            } catch (B2Exception | ServiceUnavailableException e) {
+                log.warn("Failed to delete the {}px variant of {}: {}", size, photoPath, e.getMessage());
+            }
+        });
     }
 
     public MediaType getContentType(String fileName, String fileID) throws B2Exception {
-        B2FileVersion fileInfo = client.getFileInfoByName(bucketName, fileName);
+        B2FileVersion fileInfo = bulkhead.execute(() -> client.getFileInfoByName(bucketName, fileName));
         return MediaType.parseMediaType(fileInfo.getContentType());
     }
 
+    private static final class SpooledContent implements Closeable {
+
+        private final byte[] head = new byte[STREAM_BUFFER_SIZE];
+        private int headLength;
+        private Path spill;
+
+        // may be called again if the download is retried, so it starts over every time
+        void read(InputStream in) throws IOException {
+            close();
+            headLength = in.readNBytes(head, 0, head.length);
+            if (headLength == head.length) {
+                spill = Files.createTempFile("yami-picture-", ".part");
+                try (OutputStream file = Files.newOutputStream(spill)) {
+                    in.transferTo(file);
+                }
+            }
+        }
+
+        void writeTo(OutputStream out) throws IOException {
+            out.write(head, 0, headLength);
+            if (spill != null) {
+                Files.copy(spill, out);
+            }
+        }
 
+        @Override
+        public void close() throws IOException {
+            headLength = 0;
+            if (spill != null) {
+                Files.deleteIfExists(spill);
+                spill = null;
+            }
+        }
+    }
 }
@@ -0,0 +1,280 @@
+package com.yamiapp.service;
+
+import com.yamiapp.exception.ErrorStrings;
+import com.yamiapp.exception.InternalServerException;
+import com.yamiapp.model.dto.RestaurantResposneDTO;
+import com.yamiapp.model.projection.FoodSearchProjection;
+import com.yamiapp.repo.FoodRepository;
+import com.yamiapp.repo.RestaurantRepository;
+import com.yamiapp.util.PendingChanges;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.lucene.analysis.*;
+import org.apache.lucene.analysis.miscellaneous.ASCIIFoldingFilter;
+import org.apache.lucene.analysis.pt.PortugueseAnalyzer;
+import org.apache.lucene.analysis.standard.StandardTokenizer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.StoredFields;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.*;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Embedded Lucene index over restaurants (name, short name, description) and foods (name, description), serving the
+ * restaurant and menu searches with ranking, typo tolerance and accent folding ("pao" finds "Pão").
+ * The index lives in memory: it's built from the database at startup and rebuilt on a schedule, and
+ * CatalogIndexListener applies creates, updates and deletes in between, once they commit.
+ * Searches only return ids; callers load the entities themselves.
+ */
+@Slf4j
+@Service
+public class CatalogIndex {
+
+    private static final String KEY = "key";
+    private static final String TYPE = "type";
+    private static final String ID = "id";
+    private static final String RESTAURANT_ID = "restaurant_id";
+    private static final String NAME = "name";
+    private static final String SHORT_NAME = "short_name";
+    private static final String DESCRIPTION = "description";
+
+    private static final String RESTAURANT = "restaurant";
+    private static final String FOOD = "food";
+
+    // a match on the name counts for more than one on the description
+    private static final Map<String, Float> RESTAURANT_FIELDS = Map.of(NAME, 3f, SHORT_NAME, 2f, DESCRIPTION, 1f);
+    private static final Map<String, Float> FOOD_FIELDS = Map.of(NAME, 3f, DESCRIPTION, 1f);
+
+    // longer queries are cut off here, which keeps the number of clauses bounded
+    private static final int MAX_QUERY_TERMS = 8;
+
+    private final RestaurantRepository restaurantRepository;
+    private final FoodRepository foodRepository;
+    private final Analyzer analyzer = new FoldingAnalyzer();
+    private final IndexWriter writer;
+    private final SearcherManager searcherManager;
+
+    private final PendingChanges<WriterAction> pending = new PendingChanges<>();
+
+    @FunctionalInterface
+    private interface WriterAction {
+        void apply(IndexWriter writer) throws IOException;
+    }
+
+    public CatalogIndex(RestaurantRepository restaurantRepository, FoodRepository foodRepository) throws IOException {
+        this.restaurantRepository = restaurantRepository;
+        this.foodRepository = foodRepository;
+        this.writer = new IndexWriter(new ByteBuffersDirectory(), new IndexWriterConfig(analyzer));
+        this.searcherManager = new SearcherManager(writer, null);
+    }
+
+    @PostConstruct
+    public void load() {
+        rebuild();
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        searcherManager.close();
+        writer.close();
+    }
+
+    @Scheduled(cron = "${yami.search.catalog.rebuild.cron}")
+    public void rebuild() {
+        synchronized (this) {
+            pending.start();
+        }
+        List<RestaurantResposneDTO> restaurants = restaurantRepository.findAllForSearch();
+        List<FoodSearchProjection> foods = foodRepository.findAllForSearch();
+
+        synchronized (this) {
+            try {
+                writer.deleteAll();
+                for (RestaurantResposneDTO r : restaurants) {
+                    writer.addDocument(restaurantDocument(r.getId(), r.getName(), r.getShortName(), r.getDescription()));
+                }
+                for (FoodSearchProjection f : foods) {
+                    writer.addDocument(foodDocument(f.id(), f.restaurantId(), f.name(), f.description()));
+                }
+                pending.replay(action -> action.apply(writer));
+                searcherManager.maybeRefreshBlocking();
+            } catch (IOException e) {
+                log.error("Failed to rebuild the catalog index", e);
+            } finally {
+                pending.stop();
+            }
+        }
+        log.debug("Indexed {} restaurants and {} foods", restaurants.size(), foods.size());
+    }
+
+    public void putRestaurant(Long id, String name, String shortName, String description) {
+        apply(w -> w.updateDocument(new Term(KEY, RESTAURANT + ":" + id), restaurantDocument(id, name, shortName, description)));
+    }
+
+    // the restaurant's foods go with it, like they do in the database
+    public void removeRestaurant(Long id) {
+        apply(w -> w.deleteDocuments(
+            new Term(KEY, RESTAURANT + ":" + id),
+            new Term(RESTAURANT_ID, id.toString())
+        ));
+    }
+
+    public void putFood(Long id, Long restaurantId, String name, String description) {
+        apply(w -> w.updateDocument(new Term(KEY, FOOD + ":" + id), foodDocument(id, restaurantId, name, description)));
+    }
+
+    public void removeFood(Long id) {
+        apply(w -> w.deleteDocuments(new Term(KEY, FOOD + ":" + id)));
+    }
+
+    private synchronized void apply(WriterAction action) {
+        try {
+            action.apply(writer);
+            if (pending.isRecording()) {
+                pending.record(action);
+            } else {
+                searcherManager.maybeRefreshBlocking();
+            }
+        } catch (IOException e) {
+            // the next rebuild picks the change up
+            log.warn("Failed to update the catalog index: {}", e.getMessage());
+        }
+    }
+
+    // ranked restaurant ids
+    public Page<Long> searchRestaurants(String query, Pageable pageable) {
+        return search(query, RESTAURANT, null, RESTAURANT_FIELDS, pageable);
+    }
+
+    // ranked food ids; restaurantId is optional, and narrows the search to that restaurant's menu
+    public Page<Long> searchFoods(String query, Long restaurantId, Pageable pageable) {
+        return search(query, FOOD, restaurantId, FOOD_FIELDS, pageable);
+    }
+
+    // every term of the query has to match one of the fields, exactly, as a prefix (for search-as-you-type) or
+    // within an edit distance that grows with the term's length; exact matches rank above prefixes, and those
+    // above fuzzy ones
+    private Page<Long> search(String query, String type, Long restaurantId, Map<String, Float> fields, Pageable pageable) {
+        List<String> terms = analyze(query);
+        if (terms.isEmpty()) {
+            return new PageImpl<>(List.of(), pageable, 0);
+        }
+
+        BooleanQuery.Builder builder = new BooleanQuery.Builder();
+        builder.add(new TermQuery(new Term(TYPE, type)), BooleanClause.Occur.FILTER);
+        if (restaurantId != null) {
+            builder.add(new TermQuery(new Term(RESTAURANT_ID, restaurantId.toString())), BooleanClause.Occur.FILTER);
+        }
+        for (String term : terms) {
+            BooleanQuery.Builder anyField = new BooleanQuery.Builder();
+            int maxEdits = term.length() < 4 ? 0 : term.length() < 8 ? 1 : 2;
+            fields.forEach((field, boost) -> {
+                Term t = new Term(field, term);
+                anyField.add(new BoostQuery(new TermQuery(t), boost * 3), BooleanClause.Occur.SHOULD);
+                anyField.add(new BoostQuery(new PrefixQuery(t), boost * 2), BooleanClause.Occur.SHOULD);
+                if (maxEdits > 0) {
+                    anyField.add(new BoostQuery(new FuzzyQuery(t, maxEdits, 1), boost), BooleanClause.Occur.SHOULD);
+                }
+            });
+            builder.add(anyField.build(), BooleanClause.Occur.MUST);
+        }
+        Query luceneQuery = builder.build();
+
+        int offset = (int) Math.min(pageable.getOffset(), Integer.MAX_VALUE - pageable.getPageSize());
+        try {
+            IndexSearcher searcher = searcherManager.acquire();
+            try {
+                TopDocs top = searcher.search(luceneQuery, offset + pageable.getPageSize());
+                StoredFields stored = searcher.storedFields();
+                List<Long> ids = new ArrayList<>();
+                for (int i = offset; i < top.scoreDocs.length; i++) {
+                    ids.add(stored.document(top.scoreDocs[i].doc).getField(ID).numericValue().longValue());
+                }
+                return new PageImpl<>(ids, pageable, searcher.count(luceneQuery));
+            } finally {
+                searcherManager.release(searcher);
+            }
+        } catch (IOException e) {
+            log.error("Catalog search failed", e);
+            throw new InternalServerException(ErrorStrings.INTERNAL_IO.getMessage());
+        }
+    }
+
+    private List<String> analyze(String text) {
+        List<String> terms = new ArrayList<>();
+        try (TokenStream stream = analyzer.tokenStream(NAME, text)) {
+            CharTermAttribute term = stream.addAttribute(CharTermAttribute.class);
+            stream.reset();
+            while (stream.incrementToken() && terms.size() < MAX_QUERY_TERMS) {
+                terms.add(term.toString());
+            }
+            stream.end();
+        } catch (IOException e) {
+            throw new InternalServerException(ErrorStrings.INTERNAL_IO.getMessage());
+        }
+        return terms;
+    }
+
+    private static Document restaurantDocument(Long id, String name, String shortName, String description) {
+        Document doc = new Document();
+        doc.add(new StringField(KEY, RESTAURANT + ":" + id, Field.Store.NO));
+        doc.add(new StringField(TYPE, RESTAURANT, Field.Store.NO));
+        doc.add(new StoredField(ID, id));
+        addText(doc, NAME, name);
+        addText(doc, SHORT_NAME, shortName);
+        addText(doc, DESCRIPTION, description);
+        return doc;
+    }
+
+    private static Document foodDocument(Long id, Long restaurantId, String name, String description) {
+        Document doc = new Document();
+        doc.add(new StringField(KEY, FOOD + ":" + id, Field.Store.NO));
+        doc.add(new StringField(TYPE, FOOD, Field.Store.NO));
+        doc.add(new StoredField(ID, id));
+        doc.add(new StringField(RESTAURANT_ID, restaurantId.toString(), Field.Store.NO));
+        addText(doc, NAME, name);
+        addText(doc, DESCRIPTION, description);
+        return doc;
+    }
+
+    private static void addText(Document doc, String field, String value) {
+        if (value != null) {
+            doc.add(new TextField(field, value, Field.Store.NO));
+        }
+    }
+
+    // lowercases, drops portuguese stopwords ("de", "com"...) and folds accents, at index and query time alike
+    private static final class FoldingAnalyzer extends Analyzer {
+        @Override
+        protected TokenStreamComponents createComponents(String fieldName) {
+            Tokenizer tokenizer = new StandardTokenizer();
+            TokenStream stream = new LowerCaseFilter(tokenizer);
+            stream = new StopFilter(stream, PortugueseAnalyzer.getDefaultStopSet());
+            stream = new ASCIIFoldingFilter(stream);
+            return new TokenStreamComponents(tokenizer, stream);
+        }
+
+        @Override
+        protected TokenStream normalize(String fieldName, TokenStream in) {
+            return new ASCIIFoldingFilter(new LowerCaseFilter(in));
+        }
+    }
+}
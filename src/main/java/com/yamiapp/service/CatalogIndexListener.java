@@ -0,0 +1,49 @@
+package com.yamiapp.service;
+
+import com.yamiapp.model.Food;
+import com.yamiapp.model.Restaurant;
+import jakarta.persistence.PostPersist;
+import jakarta.persistence.PostRemove;
+import jakarta.persistence.PostUpdate;
+import org.springframework.beans.factory.ObjectProvider;
+
+import static com.yamiapp.util.TransactionUtils.afterCommit;
+
+/**
+ * Keeps the CatalogIndex in sync with the restaurant and food writes of RestaurantService and FoodService (and
+ * anything else going through JPA, like the foods cascaded away with their restaurant), once they commit.
+ * Instantiated by hibernate through spring; see UsernameIndexListener.
+ */
+public class CatalogIndexListener {
+
+    private final ObjectProvider<CatalogIndex> catalogIndex;
+
+    public CatalogIndexListener(ObjectProvider<CatalogIndex> catalogIndex) {
+        this.catalogIndex = catalogIndex;
+    }
+
+    @PostPersist
+    @PostUpdate
+    public void onSave(Object entity) {
+        if (entity instanceof Restaurant r) {
+            Long id = r.getId();
+            String name = r.getName(), shortName = r.getShortName(), description = r.getDescription();
+            afterCommit(() -> catalogIndex.getObject().putRestaurant(id, name, shortName, description));
+        } else if (entity instanceof Food f) {
+            Long id = f.getId(), restaurantId = f.getRestaurant().getId();
+            String name = f.getName(), description = f.getDescription();
+            afterCommit(() -> catalogIndex.getObject().putFood(id, restaurantId, name, description));
+        }
+    }
+
+    @PostRemove
+    public void onRemove(Object entity) {
+        if (entity instanceof Restaurant r) {
+            Long id = r.getId();
+            afterCommit(() -> catalogIndex.getObject().removeRestaurant(id));
+        } else if (entity instanceof Food f) {
+            Long id = f.getId();
+            afterCommit(() -> catalogIndex.getObject().removeFood(id));
+        }
+    }
+}
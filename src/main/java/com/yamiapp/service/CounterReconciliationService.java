@@ -0,0 +1,69 @@
+package com.yamiapp.service;
+
+import com.yamiapp.repo.FoodRepository;
+import com.yamiapp.repo.FoodReviewRepository;
+import com.yamiapp.repo.RestaurantRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Periodically recomputes the denormalized counters from their source tables, fixing any drift
+ * left behind by writes that bypassed the services (manual SQL, cascades, crashes mid-request...).
+ */
+@Slf4j
+@Service
+public class CounterReconciliationService {
+
+    private final FoodReviewRepository foodReviewRepository;
+    private final FoodRepository foodRepository;
+    private final RatingStatsService ratingStatsService;
+    private final RestaurantRepository restaurantRepository;
+
+    public CounterReconciliationService(FoodReviewRepository foodReviewRepository, FoodRepository foodRepository, RatingStatsService ratingStatsService, RestaurantRepository restaurantRepository) {
+        this.foodReviewRepository = foodReviewRepository;
+        this.foodRepository = foodRepository;
+        this.ratingStatsService = ratingStatsService;
+        this.restaurantRepository = restaurantRepository;
+    }
+
+    @Scheduled(cron = "${yami.reconcile.like-counts.cron}")
+    @Transactional
+    public int reconcileLikeCounts() {
+        int fixed = foodReviewRepository.reconcileLikeCounts();
+        if (fixed > 0) {
+            log.warn("Reconciled like_count of {} food reviews", fixed);
+        }
+        return fixed;
+    }
+
+    @Scheduled(cron = "${yami.reconcile.restaurant-counts.cron}")
+    @Transactional
+    public int reconcileRestaurantCounts() {
+        int fixed = restaurantRepository.reconcileCounts();
+        if (fixed > 0) {
+            log.warn("Reconciled food_count and review_count of {} restaurants", fixed);
+        }
+        return fixed;
+    }
+
+    @Scheduled(cron = "${yami.reconcile.food-ratings.cron}")
+    @Transactional
+    public int reconcileFoodRatings() {
+        int fixed = foodRepository.reconcileRatingAggregates();
+        if (fixed > 0) {
+            log.warn("Reconciled rating_sum and rating_count of {} foods", fixed);
+        }
+        return fixed;
+    }
+
+    // not scheduled: this rewrites every food row, so it's only triggered by an admin (see FoodService#rebuildRatingAggregates)
+    @Transactional
+    public int rebuildFoodRatings() {
+        int updated = foodRepository.rebuildRatingAggregates();
+        ratingStatsService.rebuildFoodHistograms();
+        log.info("Rebuilt rating aggregates of {} foods", updated);
+        return updated;
+    }
+}
@@ -0,0 +1,144 @@
+package com.yamiapp.service;
+
+import com.yamiapp.model.FoodReview;
+import com.yamiapp.model.User;
+import com.yamiapp.model.dto.CursorPage;
+import com.yamiapp.model.dto.FeedCursor;
+import com.yamiapp.model.dto.FoodReviewResponseDTO;
+import com.yamiapp.repo.FeedEntryRepository;
+import com.yamiapp.repo.FoodReviewRepository;
+import com.yamiapp.repo.UserRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.support.PageableExecutionUtils;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.*;
+
+/**
+ * Materialized home feeds. New reviews are pushed into a feed_entries row per follower when they are written,
+ * so reading a page is a single index range scan no matter how many people the reader follows.
+ * Authors with more than yami.feed.fanout.max-followers followers are switched to pull mode instead: their reviews
+ * are not fanned out, and are merged into the page at read time from food_reviews.
+ */
+@Slf4j
+@Service
+public class FeedService {
+
+    private final FeedEntryRepository feedEntryRepository;
+    private final FoodReviewRepository foodReviewRepository;
+    private final UserRepository userRepository;
+    private final UserService userService;
+    private final long fanOutMaxFollowers;
+    private final int backfillSize;
+
+    public FeedService(
+        FeedEntryRepository feedEntryRepository,
+        FoodReviewRepository foodReviewRepository,
+        UserRepository userRepository,
+        UserService userService,
+        @Value("${yami.feed.fanout.max-followers}") long fanOutMaxFollowers,
+        @Value("${yami.feed.backfill-size}") int backfillSize
+    ) {
+        this.feedEntryRepository = feedEntryRepository;
+        this.foodReviewRepository = foodReviewRepository;
+        this.userRepository = userRepository;
+        this.userService = userService;
+        this.fanOutMaxFollowers = fanOutMaxFollowers;
+        this.backfillSize = backfillSize;
+    }
+
+    // must run in the transaction that created the review
+    public void onReviewCreated(FoodReview review) {
+        User author = review.getUser();
+        if (author.isFeedPull()) {
+            return;
+        }
+        feedEntryRepository.fanOut(review.getId(), author.getId(), review.getCreatedAt());
+    }
+
+    // must run in the transaction that created the follow
+    public void onFollow(Long followerId, Long followedId) {
+        Long followerCount = userService.getUserCounts(List.of(followedId)).get(followedId).getFollowerCount();
+        if (followerCount > fanOutMaxFollowers) {
+            // from now on this author is read through the pull path, which also covers the reviews we'd backfill
+            userRepository.enableFeedPull(followedId);
+            return;
+        }
+        feedEntryRepository.backfill(followerId, followedId, backfillSize);
+    }
+
+    public void onUnfollow(Long followerId, Long followedId) {
+        feedEntryRepository.trim(followerId, followedId);
+    }
+
+    @Scheduled(cron = "${yami.feed.repair.cron}")
+    @Transactional
+    public int repairInboxes() {
+        int inserted = feedEntryRepository.backfillAll(backfillSize);
+        if (inserted > 0) {
+            log.warn("Inserted {} missing feed entries", inserted);
+        }
+        return inserted;
+    }
+
+    // a null or blank cursor starts from the newest review
+    public CursorPage<FoodReviewResponseDTO> getFeed(String accessToken, String cursor, int count) {
+        Long ownerId = userService.authenticate(accessToken).id();
+        // fetch one more than asked from each source, so we know whether the merged feed has a next page
+        Pageable pageable = PageRequest.ofSize(count + 1);
+
+        Slice<FoodReviewResponseDTO> pushed;
+        Slice<FoodReviewResponseDTO> pulled;
+        if (cursor == null || cursor.isBlank()) {
+            pushed = feedEntryRepository.findInboxFirstSlice(ownerId, pageable);
+            pulled = foodReviewRepository.findPulledFeedFirstSlice(ownerId, pageable);
+        } else {
+            FeedCursor after = FeedCursor.decode(cursor);
+            pushed = feedEntryRepository.findInboxAfter(ownerId, after.createdAt(), after.id(), pageable);
+            pulled = foodReviewRepository.findPulledFeedAfter(ownerId, after.createdAt(), after.id(), pageable);
+        }
+
+        List<FoodReviewResponseDTO> sorted = merge(pushed, pulled);
+        List<FoodReviewResponseDTO> content = new ArrayList<>(sorted.subList(0, Math.min(count, sorted.size())));
+        String nextCursor = sorted.size() > count && !content.isEmpty() ? FeedCursor.of(content.getLast()).encode() : null;
+        return new CursorPage<>(content, nextCursor);
+    }
+
+    // offset pages of the same feed. Each page reads the first (page + 1) * size rows of both sources, so deep pages
+    // cost more than cursor pages do; the total adds the pulled reviews that aren't in the inbox to the inbox size
+    public Page<FoodReviewResponseDTO> getFeed(String accessToken, Pageable pageable) {
+        Long ownerId = userService.authenticate(accessToken).id();
+        Pageable window = PageRequest.ofSize(Math.toIntExact(pageable.getOffset() + pageable.getPageSize()));
+
+        List<FoodReviewResponseDTO> sorted = merge(
+            feedEntryRepository.findInboxFirstSlice(ownerId, window),
+            foodReviewRepository.findPulledFeedFirstSlice(ownerId, window)
+        );
+
+        int from = (int) Math.min(pageable.getOffset(), sorted.size());
+        List<FoodReviewResponseDTO> content = new ArrayList<>(sorted.subList(from, Math.min(from + pageable.getPageSize(), sorted.size())));
+        return PageableExecutionUtils.getPage(content, pageable,
+            () -> feedEntryRepository.countInbox(ownerId) + foodReviewRepository.countPulledFeedNotInInbox(ownerId));
+    }
+
+    // newest first; an author switched to pull mode still has their older reviews in inboxes, so the two sources can
+    // overlap
+    private static List<FoodReviewResponseDTO> merge(Slice<FoodReviewResponseDTO> pushed, Slice<FoodReviewResponseDTO> pulled) {
+        Map<Long, FoodReviewResponseDTO> merged = new LinkedHashMap<>();
+        pushed.forEach(r -> merged.put(r.getId(), r));
+        pulled.forEach(r -> merged.putIfAbsent(r.getId(), r));
+
+        return merged.values().stream()
+            .sorted(Comparator.comparing(FoodReviewResponseDTO::getCreatedAt)
+                .thenComparing(FoodReviewResponseDTO::getId)
+                .reversed())
+            .toList();
+    }
+}
@@ -6,13 +6,13 @@ import com.yamiapp.model.FoodReview;
 import com.yamiapp.model.ReviewLike;
 import com.yamiapp.model.User;
 import com.yamiapp.model.dto.UserResponseDTO;
-import com.yamiapp.model.projection.ReviewLikeCountProjection;
 import com.yamiapp.model.projection.ReviewLikedProjection;
 import com.yamiapp.repo.FoodReviewRepository;
 import com.yamiapp.repo.ReviewLikeRepository;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.util.List;
 
@@ -29,22 +29,30 @@ public class FoodReviewLikeService {
         this.frRepository = frRepository;
     }
 
+    @Transactional
     public ReviewLike likeReview(String accessToken, Long frId) {
-        User user = userService.getRawByToken(accessToken);
+        User user = userService.getReferenceByToken(accessToken);
         FoodReview foodReview = frRepository.findById(frId).orElseThrow(() -> new NotFoundException(ErrorStrings.INVALID_FOOD_REVIEW_ID.getMessage()));
 
         ReviewLike rl = new ReviewLike();
         rl.setUser(user);
         rl.setReview(foodReview);
 
-        return reviewLikeRepository.save(rl);
+        // the insert fails on the unique constraint if the review was already liked, so we never double count
+        ReviewLike saved = reviewLikeRepository.save(rl);
+        frRepository.addToLikeCount(frId, 1);
+        return saved;
     }
 
+    @Transactional
     public void unlikeReview(String accessToken, Long frId) {
-        User user = userService.getRawByToken(accessToken);
+        userService.authenticate(accessToken);
         FoodReview fr = frRepository.findById(frId).orElseThrow(() -> new NotFoundException(ErrorStrings.INVALID_FOOD_REVIEW_ID.getMessage()));
 
-        reviewLikeRepository.deleteReviewLikeByAccessTokenAndReviewId(accessToken, frId);
+        int deleted = reviewLikeRepository.deleteReviewLikeByAccessTokenAndReviewId(accessToken, frId);
+        if (deleted > 0) {
+            frRepository.addToLikeCount(frId, -deleted);
+        }
     }
 
     public Page<FoodReview> getLikedFoodReviewsByUser(String accessToken, Pageable pageable) {
@@ -71,10 +79,6 @@ public class FoodReviewLikeService {
         return reviewLikeRepository.countByReviewId(foodReviewId);
     }
 
-    public List<ReviewLikeCountProjection> fillFoodReviewLikeCounts(List<Long> foodReviewIds) {
-        return reviewLikeRepository.countLikesByReviewIds(foodReviewIds);
-    }
-
     public List<ReviewLikedProjection> fillFoodReviewLiked(List<Long> foodReviewIds, String accessToken) {
         return reviewLikeRepository.batchedExistsByUserAccessTokenAndReviewId(foodReviewIds, accessToken);
     }
@@ -4,17 +4,19 @@ import com.yamiapp.exception.*;
 import com.yamiapp.model.Food;
 import com.yamiapp.model.FoodReview;
 import com.yamiapp.model.User;
+import com.yamiapp.model.dto.CursorPage;
 import com.yamiapp.model.dto.FoodReviewDTO;
 import com.yamiapp.model.dto.FoodReviewResponseDTO;
-import com.yamiapp.model.projection.ReviewLikeCountProjection;
+import com.yamiapp.model.projection.AuthenticatedUser;
 import com.yamiapp.model.projection.ReviewLikedProjection;
 import com.yamiapp.repo.FoodReviewRepository;
 import com.yamiapp.repo.FoodRepository;
+import com.yamiapp.repo.RestaurantRepository;
+import com.yamiapp.util.ServiceUtils;
 import com.yamiapp.validator.FoodReviewCreateValidator;
 import com.yamiapp.validator.FoodReviewUpdateValidator;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
-import org.springframework.data.jpa.domain.Specification;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -28,23 +30,32 @@ public class FoodReviewService {
 
     private final FoodReviewRepository foodReviewRepository;
     private final FoodRepository foodRepository;
+    private final RestaurantRepository restaurantRepository;
     private final UserService userService;
     private final FoodReviewCreateValidator createValidator;
     private final FoodReviewUpdateValidator updateValidator;
     private final FoodReviewLikeService foodReviewLikeService;
+    private final RatingStatsService ratingStatsService;
+    private final FeedService feedService;
 
     public FoodReviewService(FoodReviewRepository foodReviewRepository,
                              FoodRepository foodRepository,
+                             RestaurantRepository restaurantRepository,
                              UserService userService,
                              FoodReviewCreateValidator createValidator,
                              FoodReviewUpdateValidator updateValidator,
-                             FoodReviewLikeService foodReviewLikeService) {
+                             FoodReviewLikeService foodReviewLikeService,
+                             RatingStatsService ratingStatsService,
+                             FeedService feedService) {
         this.foodReviewRepository = foodReviewRepository;
         this.foodRepository = foodRepository;
+        this.restaurantRepository = restaurantRepository;
         this.userService = userService;
         this.createValidator = createValidator;
         this.updateValidator = updateValidator;
         this.foodReviewLikeService = foodReviewLikeService;
+        this.ratingStatsService = ratingStatsService;
+        this.feedService = feedService;
     }
 
     @Transactional
@@ -55,6 +66,8 @@ public class FoodReviewService {
     @Transactional
     public FoodReview createRawFoodReview(FoodReviewDTO dto, String token, Long foodId) {
         createValidator.validate(dto);
+        // loaded rather than referenced: applyRatingDelta clears the persistence context, and the fan-out and the
+        // response still read the author afterwards
         User user = userService.getRawByToken(token);
 
         Food food = foodRepository.findByIdWithRestaurant(foodId).orElseThrow(() -> new NotFoundException(ErrorStrings.INVALID_FOOD_ID.getMessage()));
@@ -67,7 +80,12 @@ public class FoodReviewService {
         FoodReview result = foodReviewRepository.save(review);
 
         // now we update that food's average rating
-        foodRepository.updateAverageRating(food.getId());
+        foodRepository.applyRatingDelta(food.getId(), result.getRating(), 1);
+        restaurantRepository.addToCounts(food.getRestaurant().getId(), 0, 1);
+        ratingStatsService.applyFoodRatingChange(food.getId(), null, result.getRating());
+        ratingStatsService.applyUserRatingChange(user.getId(), null, result.getRating());
+        userService.invalidateUserCounts(user.getId());
+        feedService.onReviewCreated(result);
 
         return result;
     }
@@ -75,7 +93,7 @@ public class FoodReviewService {
     @Transactional
     public FoodReview updateRawFoodReview(Long reviewId, FoodReviewDTO dto, String token) {
         updateValidator.validate(dto);
-        User user = userService.getRawByToken(token);
+        AuthenticatedUser user = userService.authenticate(token);
 
         Optional<FoodReview> optReview = foodReviewRepository.findById(reviewId);
         if (optReview.isEmpty()) {
@@ -84,7 +102,7 @@ public class FoodReviewService {
         FoodReview review = optReview.get();
 
         // Ensure the review belongs to the user making the request
-        if (!review.getUser().getId().equals(user.getId())) {
+        if (!review.getUser().getId().equals(user.id())) {
             throw new ForbiddenException(ErrorStrings.NOT_OWNER_OF_FOOD_REVIEW.getMessage());
         }
 
@@ -92,9 +110,14 @@ public class FoodReviewService {
             review.setReview(dto.getReview());
         }
         if (dto.getRating() != null) {
+            int previousRating = review.getRating();
             review.setRating(dto.getRating());
             // we only update the food avg rating if the rating was altered
-            foodRepository.updateAverageRating(review.getFood().getId());
+            if (previousRating != dto.getRating()) {
+                foodRepository.applyRatingDelta(review.getFood().getId(), dto.getRating() - previousRating, 0);
+                ratingStatsService.applyFoodRatingChange(review.getFood().getId(), previousRating, dto.getRating());
+                ratingStatsService.applyUserRatingChange(user.id(), previousRating, dto.getRating());
+            }
         }
 
         return foodReviewRepository.save(review);
@@ -104,28 +127,33 @@ public class FoodReviewService {
     public FoodReviewResponseDTO updateFoodReview(Long reviewId, FoodReviewDTO dto, String token) {
         FoodReview updated = updateRawFoodReview(reviewId, dto, token);
         FoodReviewResponseDTO res = new FoodReviewResponseDTO(updated);
-        res.setLikeCount(foodReviewLikeService.countFoodReviewLikes(reviewId));
         applyLiked(res, token);
         return res;
     }
 
     @Transactional
     public void deleteFoodReview(Long reviewId, String token) {
-        User user = userService.getRawByToken(token);
+        AuthenticatedUser user = userService.authenticate(token);
 
         Optional<FoodReview> optReview = foodReviewRepository.findById(reviewId);
         if (optReview.isEmpty()) {
             throw new NotFoundException(ErrorStrings.INVALID_FOOD_REVIEW_ID.getMessage());
         }
         FoodReview review = optReview.get();
-        if (!review.getUser().getId().equals(user.getId())) {
+        if (!review.getUser().getId().equals(user.id())) {
             throw new ForbiddenException(ErrorStrings.NOT_OWNER_OF_FOOD_REVIEW.getMessage());
         }
 
         Long foodId = review.getFood().getId();
+        Long restaurantId = review.getFood().getRestaurant().getId();
+        int rating = review.getRating();
         foodReviewRepository.delete(review);
 
-        foodRepository.updateAverageRating(foodId);
+        foodRepository.applyRatingDelta(foodId, -rating, -1);
+        restaurantRepository.addToCounts(restaurantId, 0, -1);
+        ratingStatsService.applyFoodRatingChange(foodId, rating, null);
+        ratingStatsService.applyUserRatingChange(user.id(), rating, null);
+        userService.invalidateUserCounts(user.id());
     }
 
     public Page<FoodReview> getRawFoodReviewsByFoodId(Long foodId, String reviewKeyword, Pageable pageable) {
@@ -135,22 +163,12 @@ public class FoodReviewService {
 
         if (reviewKeyword == null || reviewKeyword.isBlank()) {
             return foodReviewRepository.getFoodReviewsByFoodId(foodId, pageable);
-        } else {
-
-            Specification<FoodReview> spec = (root, query, cb) -> {
-                query.distinct(true);
-
-                var predicates = cb.equal(root.get("food").get("id"), foodId);
-                predicates = cb.and(predicates,
-                        cb.like(cb.lower(root.get("review")), "%" + reviewKeyword.toLowerCase() + "%"));
-                return predicates;
-            };
-            return foodReviewRepository.findAll(spec, pageable);
         }
+        return foodReviewRepository.searchFoodReviewsByFoodId(foodId, ServiceUtils.containsPattern(reviewKeyword), pageable);
     }
 
     public Page<FoodReviewResponseDTO> getFoodReviewsByFoodId(Long foodId, String reviewKeyword, Pageable pageable, Optional<String> accessToken) {
-        Page<FoodReviewResponseDTO> response = applyLikeCountsAndDTO(getRawFoodReviewsByFoodId(foodId, reviewKeyword, pageable));
+        Page<FoodReviewResponseDTO> response = getRawFoodReviewsByFoodId(foodId, reviewKeyword, pageable).map(FoodReviewResponseDTO::new);
         return accessToken.map(s -> applyLikedBatched(response, s)).orElse(response);
     }
 
@@ -160,39 +178,39 @@ public class FoodReviewService {
             throw new NotFoundException(ErrorStrings.INVALID_USER_ID.getMessage());
         }
 
-        if ((foodName == null || foodName.isBlank()) && (reviewKeyword == null || reviewKeyword.isBlank())) {
+        boolean hasFoodName = foodName != null && !foodName.isBlank();
+        boolean hasKeyword = reviewKeyword != null && !reviewKeyword.isBlank();
+        if (!hasFoodName && !hasKeyword) {
             return foodReviewRepository.getFoodReviewsByUserId(userId, pageable);
-        } else {
-            Specification<FoodReview> spec = (root, query, cb) -> {
-                var predicates = cb.conjunction();
-                // filter by user id
-                predicates = cb.and(predicates, cb.equal(root.get("user").get("id"), userId));
-                if (foodName != null && !foodName.isBlank()) {
-                    predicates = cb.and(predicates,
-                            cb.like(cb.lower(root.get("food").get("name")), "%" + foodName.toLowerCase() + "%"));
-                }
-                if (reviewKeyword != null && !reviewKeyword.isBlank()) {
-                    predicates = cb.and(predicates,
-                            cb.like(cb.lower(root.get("review")), "%" + reviewKeyword.toLowerCase() + "%"));
-                }
-                return predicates;
-            };
-            return foodReviewRepository.findAll(spec, pageable);
         }
+        return foodReviewRepository.searchFoodReviewsByUserId(
+            userId,
+            hasFoodName ? ServiceUtils.containsPattern(foodName) : null,
+            hasKeyword ? ServiceUtils.containsPattern(reviewKeyword) : null,
+            pageable
+        );
     }
 
     public Page<FoodReviewResponseDTO> getFoodReviewsByUser(Long userId, String foodName, String reviewKeyword, Pageable pageable, Optional<String> accessToken) {
-        Page<FoodReviewResponseDTO> reviews = applyLikeCountsAndDTO(getRawFoodReviewsByUser(userId, foodName, reviewKeyword, pageable));
+        Page<FoodReviewResponseDTO> reviews = getRawFoodReviewsByUser(userId, foodName, reviewKeyword, pageable).map(FoodReviewResponseDTO::new);
         return accessToken.map(s -> applyLikedBatched(reviews, s)).orElse(reviews);
     }
 
+    // offset-paginated feed, also read from the materialized inbox; kept for clients that don't send a cursor
     public Page<FoodReviewResponseDTO> getFoodReviewsByFollowers(String authToken, Pageable pageable) {
-        Page<FoodReviewResponseDTO> foodReviews = applyLikeCounts(foodReviewRepository.findUserFeed(authToken, pageable));
+        Page<FoodReviewResponseDTO> foodReviews = feedService.getFeed(authToken, pageable);
         return applyLikedBatched(foodReviews, authToken);
     }
 
+    // keyset-paginated feed, read from the materialized inbox; a null or blank cursor starts from the newest review
+    public CursorPage<FoodReviewResponseDTO> getFoodReviewsByFollowers(String authToken, String cursor, int count) {
+        CursorPage<FoodReviewResponseDTO> page = feedService.getFeed(authToken, cursor, count);
+        applyLikedBatched(page.content(), authToken);
+        return page;
+    }
+
     public Page<FoodReviewResponseDTO> getFoodReviewByRestaurant(Long restaurantId, Pageable pageable, Optional<String> accessToken) {
-        Page<FoodReviewResponseDTO> response = applyLikeCounts(foodReviewRepository.getFoodReviewsByRestaurantId(restaurantId, pageable).map(FoodReviewResponseDTO::new));
+        Page<FoodReviewResponseDTO> response = foodReviewRepository.getFoodReviewsByRestaurantId(restaurantId, pageable).map(FoodReviewResponseDTO::new);
         return accessToken.map(s -> applyLikedBatched(response, s)).orElse(response);
     }
 
@@ -203,47 +221,20 @@ public class FoodReviewService {
     public FoodReviewResponseDTO getFoodReviewById(Long foodReviewId, Optional<String> accessToken) {
         FoodReview r = foodReviewRepository.findById(foodReviewId).orElseThrow(() -> new NotFoundException(ErrorStrings.INVALID_FOOD_REVIEW_ID.getMessage()));
         FoodReviewResponseDTO res = new FoodReviewResponseDTO(r);
-        res.setLikeCount(foodReviewLikeService.countFoodReviewLikes(res.getId()));
         accessToken.ifPresent(s -> applyLiked(res, s));
         return res;
     }
 
-    private Page<FoodReviewResponseDTO> applyLikeCounts(Page<FoodReviewResponseDTO> response) {
-        List<Long> ids = response.stream().map(FoodReviewResponseDTO::getId).toList();
-        Map<Long, Long> idsToLikeCount = foodReviewLikeService.fillFoodReviewLikeCounts(ids)
-            .stream()
-            .collect(Collectors.toMap(
-                ReviewLikeCountProjection::reviewId,
-                ReviewLikeCountProjection::count
-            ));
-
-        return response.map(review -> {
-            review.setLikeCount(idsToLikeCount.get(review.getId()));
-            return review;
-        });
-    }
-
-    private Page<FoodReviewResponseDTO> applyLikeCountsAndDTO(Page<FoodReview> response) {
-        List<Long> ids = response.stream().map(FoodReview::getId).toList();
-        Map<Long, Long> idsToLikeCount = foodReviewLikeService.fillFoodReviewLikeCounts(ids)
-            .stream()
-            .collect(Collectors.toMap(
-                ReviewLikeCountProjection::reviewId,
-                ReviewLikeCountProjection::count
-            ));
-
-        return response.map(review -> {
-            FoodReviewResponseDTO res = new FoodReviewResponseDTO(review);
-            res.setLikeCount(idsToLikeCount.getOrDefault(res.getId(), 0L));
-            return res;
-        });
-    }
-
     private void applyLiked(FoodReviewResponseDTO dto, String accessToken) {
         dto.setLiked(foodReviewLikeService.isReviewLikedByUser(accessToken, dto.getId()));
     }
 
     private Page<FoodReviewResponseDTO> applyLikedBatched(Page<FoodReviewResponseDTO> dto, String accessToken) {
+        applyLikedBatched(dto.getContent(), accessToken);
+        return dto;
+    }
+
+    private void applyLikedBatched(List<FoodReviewResponseDTO> dto, String accessToken) {
         List<Long> ids = dto.stream().map(FoodReviewResponseDTO::getId).toList();
         Map<Long, Boolean> idsToLiked = foodReviewLikeService.fillFoodReviewLiked(ids, accessToken)
             .stream()
@@ -252,9 +243,6 @@ public class FoodReviewService {
                 ReviewLikedProjection::liked
             ));
 
-        return dto.map(review -> {
-            review.setLiked(idsToLiked.getOrDefault(review.getId(), false));
-            return review;
-        });
+        dto.forEach(review -> review.setLiked(idsToLiked.getOrDefault(review.getId(), false)));
     }
 }
\ No newline at end of file
@@ -1,25 +1,28 @@
 package com.yamiapp.service;
 
-import com.backblaze.b2.client.exceptions.B2BadRequestException;
 import com.backblaze.b2.client.exceptions.B2Exception;
-import com.backblaze.b2.client.structures.B2FileVersion;
+import com.yamiapp.cache.CachedImageResource;
+import com.yamiapp.cache.ImageDiskCache;
 import com.yamiapp.exception.*;
 import com.yamiapp.model.Food;
 import com.yamiapp.model.FoodReview;
+import com.yamiapp.model.PhotoStatus;
 import com.yamiapp.model.Restaurant;
 import com.yamiapp.model.dto.*;
 import com.yamiapp.model.projection.FoodWithReviewProjection;
 import com.yamiapp.repo.FoodRepository;
 import com.yamiapp.repo.RestaurantRepository;
+import com.yamiapp.util.PictureVariants;
 import com.yamiapp.util.ResponseFactory;
 import com.yamiapp.validator.FoodCreateValidator;
 import com.yamiapp.validator.FoodUpdateValidator;
 import com.yamiapp.validator.UserLoginRequestValidator;
 import jakarta.persistence.EntityNotFoundException;
 import org.hibernate.exception.ConstraintViolationException;
-import org.springframework.core.io.Resource;
 import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
@@ -29,41 +32,67 @@ import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
+import java.time.LocalDateTime;
 import java.util.Map;
 import java.util.List;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
-import static com.yamiapp.util.ServiceUtils.convertToJPEG;
+import static com.yamiapp.util.ServiceUtils.validateImage;
 import static com.yamiapp.util.ServiceUtils.validateModeratorUser;
 
 @Service
 public class FoodService {
 
+    // the menu search isn't paged; a single menu is never anywhere near this long
+    private static final int MAX_MENU_SEARCH_RESULTS = 500;
+
     private final FoodRepository foodRepository;
+    private final RestaurantRepository restaurantRepository;
     private final BackblazeService backblazeService;
     private final FoodCreateValidator createValidator;
     private final UserService userService;
     private final RestaurantService restaurantService;
     private final FoodUpdateValidator updateValidator;
     private final UserLoginRequestValidator userLoginRequestValidator;
+    private final CounterReconciliationService counterReconciliationService;
+    private final RatingStatsService ratingStatsService;
+    private final ImageDiskCache imageDiskCache;
+    private final PhotoPipeline photoPipeline;
+    private final PictureStore pictureStore;
+    private final CatalogIndex catalogIndex;
 
     public FoodService(
             final FoodRepository foodRepository,
+            final RestaurantRepository restaurantRepository,
             final BackblazeService backblazeService,
             final FoodCreateValidator createValidator,
             final UserService userService,
             RestaurantService restaurantService,
             UserLoginRequestValidator userLoginRequestValidator,
-            FoodUpdateValidator foodUpdateValidator) {
+            FoodUpdateValidator foodUpdateValidator,
+            CounterReconciliationService counterReconciliationService,
+            RatingStatsService ratingStatsService,
+            ImageDiskCache imageDiskCache,
+            PhotoPipeline photoPipeline,
+            PictureStore pictureStore,
+            CatalogIndex catalogIndex) {
         this.foodRepository = foodRepository;
+        this.restaurantRepository = restaurantRepository;
         this.backblazeService = backblazeService;
         this.createValidator = createValidator;
         this.userService = userService;
         this.restaurantService = restaurantService;
         this.updateValidator = foodUpdateValidator;
         this.userLoginRequestValidator = userLoginRequestValidator;
+        this.counterReconciliationService = counterReconciliationService;
+        this.ratingStatsService = ratingStatsService;
+        this.imageDiskCache = imageDiskCache;
+        this.photoPipeline = photoPipeline;
+        this.pictureStore = pictureStore;
+        this.catalogIndex = catalogIndex;
     }
 
 
@@ -75,10 +104,18 @@ public class FoodService {
         // get restaurant from ID
         Restaurant r = restaurantService.getRawById(foodDTO.getRestaurantId());
 
+        if (foodDTO.getPhoto() != null) {
+            validatePhoto(foodDTO.getPhoto());
+        }
+
         Food f = new Food();
         f.setName(foodDTO.getName());
         f.setRestaurant(r);
         f.setDescription(foodDTO.getDescription());
+        if (foodDTO.getPhoto() != null) {
+            f.setPhotoStatus(PhotoStatus.PENDING);
+            f.setPhotoStatusAt(LocalDateTime.now());
+        }
 
         try {
             f = foodRepository.save(f);
@@ -89,23 +126,11 @@ public class FoodService {
             e.printStackTrace();
             throw new InternalServerException(ErrorStrings.INTEGRITY.getMessage());
         }
+        ratingStatsService.createFoodHistogram(f);
+        restaurantRepository.addToCounts(r.getId(), 1, 0);
 
         if (foodDTO.getPhoto() != null) {
-            String photoName = r.getId().toString() + "/food/" + f.getId().toString() + ".jpg";
-
-            try {
-                MultipartFile jpegPhoto = foodDTO.getPhoto().getContentType().equals("image/jpeg")
-                        ? foodDTO.getPhoto()
-                        : convertToJPEG(foodDTO.getPhoto());
-
-                B2FileVersion photo = backblazeService.uploadFile(jpegPhoto, photoName);
-                f.setPhotoPath(photoName);
-                f.setPhotoId(photo.getFileId());
-
-                foodRepository.save(f);
-            } catch (IOException e) {
-                throw new InternalServerException(ErrorStrings.INTERNAL_IO.getMessage());
-            }
+            submitPhoto(f, foodDTO.getPhoto());
         }
 
         return f;
@@ -121,28 +146,41 @@ public class FoodService {
         if (foodDTO.getName() != null) f.setName(foodDTO.getName());
         if (foodDTO.getDescription() != null) f.setDescription(foodDTO.getDescription());
         if (foodDTO.getPhoto() != null) {
-            String photoName = f.getRestaurant().getId().toString() + "/food/" + f.getId().toString() + ".jpg";
+            validatePhoto(foodDTO.getPhoto());
+            foodRepository.setPhotoStatus(f.getId(), PhotoStatus.PENDING);
+            submitPhoto(f, foodDTO.getPhoto());
+        }
 
-            try {
-                MultipartFile jpegPhoto = foodDTO.getPhoto().getContentType().equals("image/jpeg")
-                        ? foodDTO.getPhoto()
-                        : convertToJPEG(foodDTO.getPhoto());
+        return f;
+    }
 
-                B2FileVersion photo = backblazeService.uploadFile(jpegPhoto, photoName);
-                f.setPhotoPath(photoName);
-                f.setPhotoId(photo.getFileId());
+    // the picture is converted and uploaded in the background; the photo columns are set once that's done
+    private void submitPhoto(Food f, MultipartFile photo) {
+        Long foodId = f.getId();
+        String oldPath = f.getPhotoPath(), oldId = f.getPhotoId(), oldVariants = f.getPhotoVariants();
+        photoPipeline.submit(
+                "food:" + foodId,
+                photo,
+                (path, photoId, variants) -> {
+                    foodRepository.setPhoto(foodId, path, photoId, variants, PhotoStatus.READY);
+                    // the old picture may still be used by other foods; PictureStore only deletes it if not
+                    pictureStore.release(oldPath, oldId, oldVariants);
+                },
+                () -> foodRepository.setPhotoStatus(foodId, PhotoStatus.FAILED)
+        );
+    }
 
-                foodRepository.save(f);
-            } catch (IOException e) {
-                throw new InternalServerException(ErrorStrings.INTERNAL_IO.getMessage());
-            }
+    private void validatePhoto(MultipartFile photo) {
+        photoPipeline.ensureCapacity();
+        try {
+            validateImage(photo);
+        } catch (IOException e) {
+            throw new InternalServerException(ErrorStrings.INTERNAL_IO.getMessage());
         }
-
-        return f;
     }
 
     @Transactional
-    public void deleteFood(Long id, String userToken, UserLoginDTO loginDTO) throws B2Exception {
+    public void deleteFood(Long id, String userToken, UserLoginDTO loginDTO) {
         userLoginRequestValidator.validate(loginDTO);
         validateModeratorUser(userService, userToken);
         String pwdToken = userService.getRawByPassword(loginDTO).getAccessToken();
@@ -151,47 +189,20 @@ public class FoodService {
         }
 
         Food f = getRawById(id);
-
-        if (f.getPhotoId() != null) {
-            try {
-                backblazeService.deleteFile(f.getPhotoPath(), f.getPhotoId());
-            } catch (B2BadRequestException e) {
-                if (!e.getMessage().toLowerCase().contains("not present")) {
-                    throw e;
-                }
-                System.out.println("Not present");
-                // we will ignore file not present errors, as foods are allowed not to have a photo
-            }
-        } // if b2 threw an exception, we will not delete the food.
-
+        // the row goes first (flushed, so PictureStore doesn't count it as a reference anymore)
         foodRepository.delete(f);
+        foodRepository.flush();
+        restaurantRepository.addToCounts(f.getRestaurant().getId(), -1, 0);
+
+        pictureStore.release(f.getPhotoPath(), f.getPhotoId(), f.getPhotoVariants());
     }
 
-    public Map<Integer, Long> getFoodStats(Long id) {
+    public RatingHistogram getFoodStats(Long id) {
         if (!foodRepository.existsById(id)) {
             throw new NotFoundException(ErrorStrings.INVALID_FOOD_ID.getMessage());
         }
 
-        try {
-            List<RatingDistributionEntry> ratingDistributionEntries = foodRepository.getRatingDistribution(id);
-
-            Map<Integer, Long> ratingMap = IntStream.rangeClosed(0, 20)
-                .boxed()
-                .collect(Collectors.toMap(
-                    key -> key,
-                    value -> 0L
-                ));
-
-            ratingDistributionEntries.forEach(entry -> {
-                if (entry.key() != null && entry.value() != null) {
-                    ratingMap.put(entry.key(), entry.value());
-                }
-            });
-
-            return ratingMap;
-        } catch (Exception e) {
-            throw e;
-        }
+        return ratingStatsService.getFoodHistogram(id);
     }
 
     public FoodResponseDTO getById(Long id) {
@@ -229,18 +240,34 @@ public class FoodService {
     }
 
     public double getAverageRating(Long id) {
-        return foodRepository.getAverageRating(id);
+        return Objects.requireNonNullElse(getRawById(id).getAvgRating(), 0D);
     }
 
-    public Resource getImageById(Long id) throws B2Exception {
+    // recomputes rating_sum, rating_count and avg_rating of every food from its reviews; returns the amount of foods updated
+    public int rebuildRatingAggregates(String accessToken) {
+        validateModeratorUser(userService, accessToken);
+        return counterReconciliationService.rebuildFoodRatings();
+    }
+
+    // size is optional; when given, the smallest thumbnail at least that big is served (or the original, if none is)
+    public Picture getImageById(Long id, Integer size) {
+        if (size != null && size <= 0) {
+            throw new BadRequestException(ErrorStrings.INVALID_PICTURE_SIZE.getMessage());
+        }
 
         Food f = getRawById(id);
-        String photoPath = f.getPhotoPath();
-        if (photoPath == null) {
+        if (f.getPhotoPath() == null) {
             throw new NotFoundException(ErrorStrings.FOOD_DOESNT_HAVE_PHOTO.getMessage());
         }
 
-        return backblazeService.downloadFile(photoPath);
+        Map.Entry<Integer, String> variant = PictureVariants.pick(f.getPhotoVariants(), size);
+        String photoPath = variant == null ? f.getPhotoPath() : PictureVariants.pathFor(f.getPhotoPath(), variant.getKey());
+        String photoId = variant == null ? f.getPhotoId() : variant.getValue();
+
+        return new Picture(photoPath, photoId, () -> {
+            CachedImageResource cached = imageDiskCache.get(photoPath, photoId, target -> backblazeService.downloadToFile(photoPath, target));
+            return cached != null ? cached : new StreamedPicture(out -> backblazeService.streamFile(photoPath, out));
+        });
     }
 
 
@@ -252,12 +279,21 @@ public class FoodService {
         return getRawByRestaurantId(id).stream().map(FoodResponseDTO::new).toList();
     }
 
-    public List<Food> searchRawRestaurantFoods(Long id, String searchQuery) {
-        return foodRepository.searchRestaurantFoods(id, searchQuery);
+    // ranked by the CatalogIndex; restaurantId is optional. Only the foods on the page are loaded
+    public Page<FoodResponseDTO> searchFoods(String searchQuery, Long restaurantId, Pageable pageable) {
+        Page<Long> ids = catalogIndex.searchFoods(searchQuery, restaurantId, pageable);
+        Map<Long, Food> foods = foodRepository.findAllByIdWithRestaurant(ids.getContent()).stream()
+            .collect(Collectors.toMap(Food::getId, f -> f));
+        List<FoodResponseDTO> content = ids.getContent().stream()
+            .map(foods::get)
+            .filter(Objects::nonNull)
+            .map(FoodResponseDTO::new)
+            .toList();
+        return new PageImpl<>(content, pageable, ids.getTotalElements());
     }
 
     public List<FoodResponseDTO> searchRestaurantFoods(Long id, String searchQuery) {
-        return searchRawRestaurantFoods(id, searchQuery).stream().map(FoodResponseDTO::new).toList();
+        return searchFoods(searchQuery, id, PageRequest.of(0, MAX_MENU_SEARCH_RESULTS)).getContent();
     }
 
 }
@@ -0,0 +1,231 @@
+package com.yamiapp.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.yamiapp.exception.BadGatewayException;
+import com.yamiapp.exception.ServiceUnavailableException;
+import com.yamiapp.util.Bulkheads;
+import com.yamiapp.util.MailHelper;
+import com.yamiapp.util.RedisHelper;
+import jakarta.mail.MessagingException;
+import jakarta.mail.Session;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Transaction;
+import redis.clients.jedis.args.ListDirection;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Durable outbox for the mails we send, kept in redis so requests only pay for a redis write instead of an SMTP
+ * round-trip. A scheduled sender drains it in batches, one SMTP connection per batch, and retries failed mails with
+ * an exponential backoff; mails that keep failing end up in a dead-letter list for inspection.
+ * Claimed mails sit in a processing list of the instance that claimed them until they're sent. Each instance keeps a
+ * heartbeat while it drains, and the lists of instances whose heartbeat went stale (crashed, or stopped mid-batch)
+ * are put back on the queue, so those mails are sent again rather than lost, and batches still in flight elsewhere
+ * are left alone.
+ */
+@Slf4j
+@Service
+public class MailQueue {
+
+    private static final String QUEUE_KEY = "mail:queue";
+    private static final String PROCESSING_KEY_PREFIX = "mail:processing:";
+    private static final String INSTANCES_KEY = "mail:instances";
+    private static final String RETRY_KEY = "mail:retry";
+    private static final String DEAD_KEY = "mail:dead";
+    // moves a due retry back onto the queue, but only if this call is the one that took it out of the retry set, so
+    // instances promoting the same retry at the same time queue it once
+    private static final String PROMOTE_SCRIPT = """
+        if redis.call('zrem', KEYS[1], ARGV[1]) == 1 then
+            redis.call('lpush', KEYS[2], ARGV[1])
+            return 1
+        end
+        return 0
+        """;
+
+    private record MailJob(String id, String to, String subject, String content, int attempts) {
+        MailJob retried() {
+            return new MailJob(id, to, subject, content, attempts + 1);
+        }
+    }
+
+    // a claimed job, along with the exact string it's stored as in the processing list
+    private record Claimed(String raw, MailJob job) {}
+
+    private final RedisHelper redisHelper;
+    private final MailHelper mailHelper;
+    private final ObjectMapper objectMapper;
+    private final int batchSize;
+    private final int maxAttempts;
+    private final long retryBackoffMillis;
+    private final long staleAfterMillis;
+
+    private final String instanceId = UUID.randomUUID().toString();
+    private final String processingKey = PROCESSING_KEY_PREFIX + instanceId;
+
+    public MailQueue(
+        RedisHelper redisHelper,
+        Session mailSession,
+        Bulkheads bulkheads,
+        ObjectMapper objectMapper,
+        @Value("${yami.mail.queue.batch-size}") int batchSize,
+        @Value("${yami.mail.queue.max-attempts}") int maxAttempts,
+        @Value("${yami.mail.queue.retry-backoff-ms}") long retryBackoffMillis,
+        @Value("${yami.mail.queue.stale-after-ms}") long staleAfterMillis
+    ) {
+        this.redisHelper = redisHelper;
+        this.mailHelper = new MailHelper(mailSession, bulkheads.smtp());
+        this.objectMapper = objectMapper;
+        this.batchSize = Math.max(batchSize, 1);
+        this.maxAttempts = Math.max(maxAttempts, 1);
+        this.retryBackoffMillis = retryBackoffMillis;
+        this.staleAfterMillis = staleAfterMillis;
+    }
+
+    // queues the mail as part of the caller's redis transaction, so it's sent if and only if the rest of it is applied
+    public void enqueue(Transaction transaction, String to, String subject, String content) {
+        transaction.lpush(QUEUE_KEY, serialize(new MailJob(UUID.randomUUID().toString(), to, subject, content, 0)));
+    }
+
+    @Scheduled(cron = "${yami.mail.queue.cron}")
+    public synchronized int drain() {
+        heartbeat();
+        recoverAbandoned();
+        promoteDueRetries();
+
+        int sent = 0;
+        List<Claimed> batch;
+        while (!(batch = claimBatch()).isEmpty()) {
+            sent += sendBatch(batch);
+            heartbeat();
+        }
+        return sent;
+    }
+
+    private void heartbeat() {
+        redisHelper.executeVoid(j -> j.zadd(INSTANCES_KEY, System.currentTimeMillis(), instanceId));
+    }
+
+    // our own list is recovered too, since no batch of ours is in flight between drains (a redis error can leave
+    // claimed mails behind). lmove is atomic, so two instances recovering the same list still requeue each mail once
+    private void recoverAbandoned() {
+        int requeued = redisHelper.execute(j -> {
+            int n = requeue(j, processingKey);
+            List<String> stale = j.zrangeByScore(INSTANCES_KEY, Double.NEGATIVE_INFINITY, System.currentTimeMillis() - staleAfterMillis);
+            for (String instance : stale) {
+                n += requeue(j, PROCESSING_KEY_PREFIX + instance);
+                j.zrem(INSTANCES_KEY, instance);
+            }
+            return n;
+        });
+        if (requeued > 0) {
+            log.warn("Requeued {} claimed mails that were never sent", requeued);
+        }
+    }
+
+    private static int requeue(Jedis j, String processingList) {
+        int n = 0;
+        while (j.lmove(processingList, QUEUE_KEY, ListDirection.RIGHT, ListDirection.LEFT) != null) {
+            n++;
+        }
+        return n;
+    }
+
+    private void promoteDueRetries() {
+        redisHelper.executeVoid(j -> {
+            List<String> due = j.zrangeByScore(RETRY_KEY, Double.NEGATIVE_INFINITY, System.currentTimeMillis());
+            for (String raw : due) {
+                j.eval(PROMOTE_SCRIPT, List.of(RETRY_KEY, QUEUE_KEY), List.of(raw));
+            }
+        });
+    }
+
+    private List<Claimed> claimBatch() {
+        List<String> raws = redisHelper.execute(j -> {
+            List<String> claimed = new ArrayList<>();
+            String raw;
+            while (claimed.size() < batchSize && (raw = j.lmove(QUEUE_KEY, processingKey, ListDirection.RIGHT, ListDirection.LEFT)) != null) {
+                claimed.add(raw);
+            }
+            return claimed;
+        });
+
+        List<Claimed> batch = new ArrayList<>();
+        for (String raw : raws) {
+            try {
+                batch.add(new Claimed(raw, objectMapper.readValue(raw, MailJob.class)));
+            } catch (JsonProcessingException e) {
+                log.error("Dropping unreadable mail job to the dead letters: {}", e.getMessage());
+                redisHelper.executeVoid(j -> {
+                    Transaction t = j.multi();
+                    t.lrem(processingKey, 1, raw);
+                    t.lpush(DEAD_KEY, raw);
+                    t.exec();
+                });
+            }
+        }
+        return batch;
+    }
+
+    // sends the whole batch over one connection. mails that failed are rescheduled, and so are the ones that never got
+    // their turn because the connection couldn't be opened (or smtp's circuit was open), but without counting an attempt:
+    // they never reached the server, and an outage shouldn't send every pending mail to the dead letters
+    private int sendBatch(List<Claimed> batch) {
+        Set<Claimed> done = new HashSet<>();
+        List<Claimed> sent = new ArrayList<>();
+        try {
+            mailHelper.withConnection(connection -> {
+                for (Claimed claimed : batch) {
+                    MailJob job = claimed.job();
+                    try {
+                        connection.send(job.to(), job.subject(), job.content());
+                        redisHelper.executeVoid(j -> j.lrem(processingKey, 1, claimed.raw()));
+                        sent.add(claimed);
+                    } catch (MessagingException e) {
+                        log.warn("Failed to send mail {}: {}", job.id(), e.getMessage());
+                        reschedule(claimed, true);
+                    }
+                    done.add(claimed);
+                }
+            });
+        } catch (BadGatewayException | ServiceUnavailableException e) {
+            log.warn("Failed to open an SMTP connection: {}", e.getMessage());
+        }
+
+        batch.stream().filter(claimed -> !done.contains(claimed)).forEach(claimed -> reschedule(claimed, false));
+        return sent.size();
+    }
+
+    private void reschedule(Claimed claimed, boolean attempted) {
+        MailJob retried = attempted ? claimed.job().retried() : claimed.job();
+        String raw = serialize(retried);
+        redisHelper.executeVoid(j -> {
+            Transaction t = j.multi();
+            t.lrem(processingKey, 1, claimed.raw());
+            if (retried.attempts() >= maxAttempts) {
+                log.error("Giving up on mail {} after {} attempts", retried.id(), retried.attempts());
+                t.lpush(DEAD_KEY, raw);
+            } else {
+                long backoff = retryBackoffMillis << Math.min(Math.max(retried.attempts() - 1, 0), 16);
+                t.zadd(RETRY_KEY, System.currentTimeMillis() + backoff, raw);
+            }
+            t.exec();
+        });
+    }
+
+    private String serialize(MailJob job) {
+        try {
+            return objectMapper.writeValueAsString(job);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -5,12 +5,10 @@ import com.yamiapp.exception.ErrorStrings;
 import com.yamiapp.exception.NotFoundException;
 import com.yamiapp.model.User;
 import com.yamiapp.model.dto.UserDTO;
-import com.yamiapp.util.MailHelper;
 import com.yamiapp.util.RedisHelper;
-import jakarta.mail.Session;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
-import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Transaction;
 
 import java.util.Optional;
 import java.util.UUID;
@@ -19,7 +17,7 @@ import java.util.UUID;
 public class PasswordRecoveryService {
     private RedisHelper redisHelper;
     private UserService userService;
-    private MailHelper mailHelper;
+    private MailQueue mailQueue;
 
     @Value("${yami.recoverymail.timeout}")
     private Long mailTimeout;
@@ -27,9 +25,9 @@ public class PasswordRecoveryService {
     @Value("${yami.frontend.url}")
     private String frontendUrl;
 
-    public PasswordRecoveryService(JedisPool jedisPool, Session mailSession, UserService userService) {
-        this.redisHelper = new RedisHelper(jedisPool);
-        this.mailHelper = new MailHelper(mailSession);
+    public PasswordRecoveryService(RedisHelper redisHelper, MailQueue mailQueue, UserService userService) {
+        this.redisHelper = redisHelper;
+        this.mailQueue = mailQueue;
         this.userService = userService;
     }
 
@@ -41,13 +39,17 @@ public class PasswordRecoveryService {
         }
         User u = optU.get();
 
-        // now, create redis token and send email
+        // now, create redis token and queue the email; both go in one transaction, so there's never a mail for a
+        // token that wasn't stored (or the other way around). the MailQueue sends it in the background
         String token = UUID.randomUUID().toString();
-
-        redisHelper.executeVoid(j -> j.setex(token, mailTimeout, u.getEmail()));
         String mailMessage = composeRecoveryMail(token, u);
 
-        mailHelper.sendMail(email, "Yami - Pedido de recuperação de senha", composeRecoveryMail(token, u));
+        redisHelper.executeVoid(j -> {
+            Transaction t = j.multi();
+            t.setex(token, mailTimeout, u.getEmail());
+            mailQueue.enqueue(t, email, "Yami - Pedido de recuperação de senha", mailMessage);
+            t.exec();
+        });
     }
     private String composeRecoveryMail(String token, User u) {
         String url = frontendUrl + "/account/recovery?token=" + token + "&username=" + u.getUsername();
@@ -0,0 +1,202 @@
+package com.yamiapp.service;
+
+import com.backblaze.b2.client.exceptions.B2Exception;
+import com.backblaze.b2.client.structures.B2FileVersion;
+import com.yamiapp.exception.ErrorStrings;
+import com.yamiapp.exception.InternalServerException;
+import com.yamiapp.exception.ServiceUnavailableException;
+import com.yamiapp.util.ByteArrayMultipartFile;
+import com.yamiapp.util.ImageTranscoder;
+import com.yamiapp.util.PictureVariants;
+import com.yamiapp.util.TransactionUtils;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.http.entity.ContentType;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Converts, thumbnails (see PictureVariants) and uploads food and restaurant pictures off the request thread,
+ * so requests never hold a worker or a database connection during the B2 upload.
+ * Pictures are stored under the hash of their content, and uploads PictureStore has already seen skip straight
+ * to the completion.
+ * Jobs run on a small bounded pool and are retried with a linear backoff; when a job finishes, its
+ * completion callback writes the photo columns. A pool size of 0 runs jobs inline, right after commit.
+ */
+@Slf4j
+@Service
+public class PhotoPipeline {
+
+    @FunctionalInterface
+    public interface Completion {
+        // variants is the PictureVariants encoding of the generated thumbnails
+        void complete(String photoPath, String photoId, String variants);
+    }
+
+    private final BackblazeService backblazeService;
+    private final PictureStore pictureStore;
+    private final ImageTranscoder imageTranscoder;
+    private final ThreadPoolExecutor executor;
+    private final int maxAttempts;
+    private final long retryBackoffMillis;
+
+    // latest job per entity; an older job still in flight for the same entity must not overwrite a newer picture
+    private final Map<String, Long> latestJobs = new ConcurrentHashMap<>();
+    private final AtomicLong jobSequence = new AtomicLong();
+
+    public PhotoPipeline(
+        BackblazeService backblazeService,
+        PictureStore pictureStore,
+        ImageTranscoder imageTranscoder,
+        @Value("${yami.photos.pipeline.threads}") int threads,
+        @Value("${yami.photos.pipeline.queue-capacity}") int queueCapacity,
+        @Value("${yami.photos.pipeline.max-attempts}") int maxAttempts,
+        @Value("${yami.photos.pipeline.retry-backoff-ms}") long retryBackoffMillis
+    ) {
+        this.backblazeService = backblazeService;
+        this.pictureStore = pictureStore;
+        this.imageTranscoder = imageTranscoder;
+        this.maxAttempts = Math.max(maxAttempts, 1);
+        this.retryBackoffMillis = retryBackoffMillis;
+        this.executor = threads <= 0 ? null : new ThreadPoolExecutor(
+            threads, threads,
+            0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(queueCapacity),
+            Thread.ofPlatform().name("photo-pipeline-", 0).daemon().factory()
+        );
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    // call before persisting anything, so a full queue turns into a 503 rather than a picture stuck in PENDING
+    public void ensureCapacity() {
+        if (executor != null && executor.getQueue().remainingCapacity() == 0) {
+            throw new ServiceUnavailableException(ErrorStrings.PHOTO_QUEUE_FULL.getMessage());
+        }
+    }
+
+    // the job is only queued once the surrounding transaction commits, so it never races the row it's going to update.
+    // the picture is read into memory right away, since the request (and its multipart stream) is gone by then
+    public void submit(String entityKey, MultipartFile photo, Completion onSuccess, Runnable onFailure) {
+        byte[] content;
+        try {
+            content = photo.getBytes();
+        } catch (IOException e) {
+            throw new InternalServerException(ErrorStrings.INTERNAL_IO.getMessage());
+        }
+        long jobId = jobSequence.incrementAndGet();
+        latestJobs.put(entityKey, jobId);
+
+        Runnable job = () -> process(entityKey, jobId, content, onSuccess, onFailure);
+        TransactionUtils.afterCommit(() -> dispatch(job, onFailure));
+    }
+
+    private void dispatch(Runnable job, Runnable onFailure) {
+        if (executor == null) {
+            job.run();
+            return;
+        }
+        try {
+            executor.execute(job);
+        } catch (RejectedExecutionException e) {
+            log.error("Photo pipeline queue is full; dropping a picture");
+            onFailure.run();
+        }
+    }
+
+    private void process(String entityKey, long jobId, byte[] content, Completion onSuccess, Runnable onFailure) {
+        String contentHash = PictureStore.hash(content);
+        String photoPath = PictureStore.pathFor(contentHash);
+        try {
+            // completed under the stored picture's row lock, so it can't be released from under us meanwhile
+            boolean reused = pictureStore.useIfStored(contentHash, stored -> {
+                if (!isSuperseded(entityKey, jobId)) {
+                    onSuccess.complete(stored.getPhotoPath(), stored.getPhotoId(), stored.getPhotoVariants());
+                }
+            });
+            if (reused) {
+                latestJobs.remove(entityKey, jobId);
+                return;
+            }
+
+            MultipartFile jpeg;
+            Map<Integer, MultipartFile> thumbnails = new TreeMap<>();
+            try {
+                ImageTranscoder.Result transcoded = imageTranscoder.transcode(content, PictureVariants.SIZES);
+                jpeg = asJpeg(transcoded.jpeg(), photoPath);
+                transcoded.thumbnails().forEach((size, bytes) -> thumbnails.put(size, asJpeg(bytes, PictureVariants.pathFor(photoPath, size))));
+            } catch (IOException | RuntimeException e) {
+                log.warn("Failed to convert picture {}: {}", photoPath, e.getMessage());
+                finish(entityKey, jobId, onFailure);
+                return;
+            }
+
+            // thumbnails that made it to B2 are not uploaded again on retries
+            Map<Integer, String> variantIds = new TreeMap<>();
+            for (int attempt = 1; attempt <= maxAttempts; attempt++) {
+                if (isSuperseded(entityKey, jobId)) {
+                    return;
+                }
+                try {
+                    for (Map.Entry<Integer, MultipartFile> thumbnail : thumbnails.entrySet()) {
+                        if (variantIds.containsKey(thumbnail.getKey())) {
+                            continue;
+                        }
+                        String variantPath = PictureVariants.pathFor(photoPath, thumbnail.getKey());
+                        variantIds.put(thumbnail.getKey(), backblazeService.uploadFile(thumbnail.getValue(), variantPath).getFileId());
+                    }
+                    // the original goes last, so a picture never points at thumbnails that aren't there yet
+                    B2FileVersion uploaded = backblazeService.uploadFile(jpeg, photoPath);
+                    String variants = PictureVariants.format(variantIds);
+                    pictureStore.record(contentHash, photoPath, uploaded.getFileId(), variants);
+                    if (!isSuperseded(entityKey, jobId)) {
+                        onSuccess.complete(photoPath, uploaded.getFileId(), variants);
+                    }
+                    latestJobs.remove(entityKey, jobId);
+                    return;
+                } catch (B2Exception | IOException | ServiceUnavailableException e) {
+                    // ServiceUnavailable is b2's bulkhead or circuit breaker turning us away; worth another try too
+                    log.warn("Upload of {} failed (attempt {}/{}): {}", photoPath, attempt, maxAttempts, e.getMessage());
+                    if (attempt < maxAttempts) {
+                        Thread.sleep(retryBackoffMillis * attempt);
+                    }
+                }
+            }
+            finish(entityKey, jobId, onFailure);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            finish(entityKey, jobId, onFailure);
+        } catch (RuntimeException e) {
+            log.error("Photo pipeline job for {} crashed", photoPath, e);
+            finish(entityKey, jobId, onFailure);
+        }
+    }
+
+    private static MultipartFile asJpeg(byte[] content, String path) {
+        return new ByteArrayMultipartFile(content, "photo", path, ContentType.IMAGE_JPEG.getMimeType());
+    }
+
+    private void finish(String entityKey, long jobId, Runnable onFailure) {
+        if (!isSuperseded(entityKey, jobId)) {
+            onFailure.run();
+        }
+        latestJobs.remove(entityKey, jobId);
+    }
+
+    private boolean isSuperseded(String entityKey, long jobId) {
+        Long latest = latestJobs.get(entityKey);
+        return latest != null && latest != jobId;
+    }
+}
@@ -0,0 +1,114 @@
+package com.yamiapp.service;
+
+import com.backblaze.b2.client.exceptions.B2Exception;
+import com.yamiapp.cache.ImageDiskCache;
+import com.yamiapp.exception.ServiceUnavailableException;
+import com.yamiapp.model.StoredPicture;
+import com.yamiapp.repo.FoodRepository;
+import com.yamiapp.repo.RestaurantRepository;
+import com.yamiapp.repo.StoredPictureRepository;
+import com.yamiapp.util.PictureVariants;
+import com.yamiapp.util.TransactionUtils;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Optional;
+import java.util.function.Consumer;
+
+/**
+ * Content-addressed index of the pictures on B2. Uploads are stored under the SHA-256 of their bytes and recorded
+ * here, so an identical upload (say, the same stock photo on a whole imported menu) just points at the existing
+ * object instead of being converted and transferred again.
+ * Since objects are shared, they're only deleted from B2 once no food or restaurant references them anymore.
+ */
+@Slf4j
+@Service
+public class PictureStore {
+
+    private final StoredPictureRepository storedPictureRepository;
+    private final FoodRepository foodRepository;
+    private final RestaurantRepository restaurantRepository;
+    private final BackblazeService backblazeService;
+    private final ImageDiskCache imageDiskCache;
+
+    public PictureStore(
+        StoredPictureRepository storedPictureRepository,
+        FoodRepository foodRepository,
+        RestaurantRepository restaurantRepository,
+        BackblazeService backblazeService,
+        ImageDiskCache imageDiskCache
+    ) {
+        this.storedPictureRepository = storedPictureRepository;
+        this.foodRepository = foodRepository;
+        this.restaurantRepository = restaurantRepository;
+        this.backblazeService = backblazeService;
+        this.imageDiskCache = imageDiskCache;
+    }
+
+    public static String hash(byte[] content) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static String pathFor(String contentHash) {
+        return "pictures/" + contentHash + ".jpg";
+    }
+
+    // two identical uploads racing each other both end up on B2 (as two versions of the same file, so either is fine to
+    // point at). save merges, so the last one to get here wins the index entry, unless both insert at the same time
+    public void record(String contentHash, String photoPath, String photoId, String variants) {
+        try {
+            storedPictureRepository.save(new StoredPicture(contentHash, photoPath, photoId, variants));
+        } catch (DataIntegrityViolationException e) {
+            log.debug("Picture {} was already recorded", contentHash);
+        }
+    }
+
+    // runs use with the stored picture while holding its row lock, so a concurrent release can't delete the object
+    // between finding it and pointing an entity at it. false if there's no such picture (anymore)
+    @Transactional
+    public boolean useIfStored(String contentHash, Consumer<StoredPicture> use) {
+        Optional<StoredPicture> stored = storedPictureRepository.findByContentHashForUpdate(contentHash);
+        stored.ifPresent(use);
+        return stored.isPresent();
+    }
+
+    // deletes the picture (and its variants) from B2 if nothing references it anymore.
+    // callers that just dropped a reference must have flushed it, or the count will still see it.
+    // the index row is locked while counting, and B2 is only touched once the transaction commits, so a rollback
+    // never leaves a row pointing at deleted objects. a failed B2 delete only leaves an orphaned object behind
+    @Transactional
+    public void release(String photoPath, String photoId, String variants) {
+        if (photoPath == null || photoId == null) {
+            return;
+        }
+        storedPictureRepository.findByPhotoPathForUpdate(photoPath);
+        if (foodRepository.countByPhotoPath(photoPath) + restaurantRepository.countByPhotoPath(photoPath) > 0) {
+            return;
+        }
+
+        storedPictureRepository.deleteByPhotoPath(photoPath);
+        TransactionUtils.afterCommit(() -> delete(photoPath, photoId, variants));
+    }
+
+    // the reverse of the upload order, so a failed delete never leaves an original without its thumbnails
+    private void delete(String photoPath, String photoId, String variants) {
+        imageDiskCache.invalidate(photoPath);
+        try {
+            backblazeService.deleteFile(photoPath, photoId);
+        } catch (B2Exception | ServiceUnavailableException e) {
+            log.warn("Failed to delete the released picture {}: {}", photoPath, e.getMessage());
+        }
+        backblazeService.deleteVariants(photoPath, variants);
+        PictureVariants.parse(variants).keySet()
+            .forEach(size -> imageDiskCache.invalidate(PictureVariants.pathFor(photoPath, size)));
+    }
+}
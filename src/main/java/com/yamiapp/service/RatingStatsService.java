@@ -0,0 +1,125 @@
+package com.yamiapp.service;
+
+import com.yamiapp.model.Food;
+import com.yamiapp.model.FoodRatingHistogram;
+import com.yamiapp.model.User;
+import com.yamiapp.model.UserRatingStats;
+import com.yamiapp.model.dto.FoodRatingDistributionEntry;
+import com.yamiapp.model.dto.RatingDistributionEntry;
+import com.yamiapp.model.dto.RatingHistogram;
+import com.yamiapp.model.dto.UserStats;
+import com.yamiapp.repo.FoodRatingHistogramRepository;
+import com.yamiapp.repo.FoodRepository;
+import com.yamiapp.repo.UserRatingStatsRepository;
+import com.yamiapp.repo.UserRepository;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Keeps the materialized rating histograms in sync with the review write paths, and serves them.
+ * The apply* methods must run inside the review's transaction.
+ */
+@Service
+public class RatingStatsService {
+
+    private final FoodRatingHistogramRepository foodHistogramRepository;
+    private final FoodRepository foodRepository;
+    private final UserRatingStatsRepository userStatsRepository;
+    private final UserRepository userRepository;
+
+    public RatingStatsService(
+            FoodRatingHistogramRepository foodHistogramRepository,
+            FoodRepository foodRepository,
+            UserRatingStatsRepository userStatsRepository,
+            UserRepository userRepository) {
+        this.foodHistogramRepository = foodHistogramRepository;
+        this.foodRepository = foodRepository;
+        this.userStatsRepository = userStatsRepository;
+        this.userRepository = userRepository;
+    }
+
+    public void createFoodHistogram(Food food) {
+        foodHistogramRepository.save(new FoodRatingHistogram(food, new long[RatingHistogram.BUCKETS]));
+    }
+
+    // oldRating is null for a new review, newRating is null for a deleted one.
+    // call this after FoodRepository#applyRatingDelta: that update already holds the food's row lock,
+    // so concurrent writers of the same food are serialized before they get here
+    public void applyFoodRatingChange(Long foodId, Integer oldRating, Integer newRating) {
+        Optional<FoodRatingHistogram> optHistogram = foodHistogramRepository.findByFoodIdForUpdate(foodId);
+        if (optHistogram.isEmpty()) {
+            // foods created before histograms existed; the reviews table already reflects this change
+            long[] buckets = RatingHistogram.bucketsOf(foodRepository.getRatingDistribution(foodId));
+            foodHistogramRepository.save(new FoodRatingHistogram(foodRepository.getReferenceById(foodId), buckets));
+            return;
+        }
+
+        FoodRatingHistogram histogram = optHistogram.get();
+        if (oldRating != null) histogram.add(oldRating, -1);
+        if (newRating != null) histogram.add(newRating, 1);
+        foodHistogramRepository.save(histogram);
+    }
+
+    // recomputes the histogram of every food from food_reviews. Call this right after FoodRepository#rebuildRatingAggregates,
+    // in its transaction: that update holds every food's row lock, so review writes wait for this to commit, just like
+    // they wait for the rebuilt aggregates
+    public void rebuildFoodHistograms() {
+        Map<Long, List<RatingDistributionEntry>> distributions = foodRepository.getRatingDistributions().stream()
+            .collect(Collectors.groupingBy(
+                FoodRatingDistributionEntry::foodId,
+                Collectors.mapping(e -> new RatingDistributionEntry(e.key(), e.value()), Collectors.toList())
+            ));
+
+        List<FoodRatingHistogram> histograms = foodHistogramRepository.findAll();
+        Set<Long> rebuilt = new HashSet<>();
+        for (FoodRatingHistogram histogram : histograms) {
+            histogram.replaceBuckets(RatingHistogram.bucketsOf(distributions.getOrDefault(histogram.getFoodId(), List.of())));
+            rebuilt.add(histogram.getFoodId());
+        }
+
+        // foods created before histograms existed; the ones without reviews are computed on read until their first one
+        distributions.forEach((foodId, distribution) -> {
+            if (!rebuilt.contains(foodId)) {
+                histograms.add(new FoodRatingHistogram(foodRepository.getReferenceById(foodId), RatingHistogram.bucketsOf(distribution)));
+            }
+        });
+        foodHistogramRepository.saveAll(histograms);
+    }
+
+    public RatingHistogram getFoodHistogram(Long foodId) {
+        return foodHistogramRepository.findById(foodId)
+            .map(h -> new RatingHistogram(h.getBuckets()))
+            .orElseGet(() -> new RatingHistogram(RatingHistogram.bucketsOf(foodRepository.getRatingDistribution(foodId))));
+    }
+
+    public void createUserStats(User user) {
+        userStatsRepository.save(new UserRatingStats(user, new long[RatingHistogram.BUCKETS]));
+    }
+
+    // same contract as applyFoodRatingChange; call it after that one, so the locks are always taken in the same order
+    public void applyUserRatingChange(Long userId, Integer oldRating, Integer newRating) {
+        Optional<UserRatingStats> optStats = userStatsRepository.findByUserIdForUpdate(userId);
+        if (optStats.isEmpty()) {
+            // users created before the stats existed; the reviews table already reflects this change
+            userStatsRepository.save(computeUserStats(userId));
+            return;
+        }
+
+        UserRatingStats stats = optStats.get();
+        if (oldRating != null) stats.add(oldRating, -1);
+        if (newRating != null) stats.add(newRating, 1);
+        userStatsRepository.save(stats);
+    }
+
+    public UserStats getUserStats(Long userId) {
+        UserRatingStats stats = userStatsRepository.findById(userId).orElseGet(() -> computeUserStats(userId));
+        return new UserStats(stats.getAverageRating(), new RatingHistogram(stats.getBuckets()));
+    }
+
+    private UserRatingStats computeUserStats(Long userId) {
+        long[] buckets = RatingHistogram.bucketsOf(userRepository.getRatingDistribution(userId));
+        return new UserRatingStats(userRepository.getReferenceById(userId), buckets);
+    }
+}
@@ -1,36 +1,44 @@
 package com.yamiapp.service;
 
 import com.backblaze.b2.client.exceptions.B2Exception;
-import com.backblaze.b2.client.structures.B2FileVersion;
+import com.yamiapp.cache.CachedImageResource;
+import com.yamiapp.cache.ImageDiskCache;
 import com.yamiapp.exception.*;
+import com.yamiapp.model.Food;
+import com.yamiapp.model.PhotoStatus;
 import com.yamiapp.model.Restaurant;
 import com.yamiapp.model.User;
+import com.yamiapp.model.dto.Picture;
 import com.yamiapp.model.dto.RestaurantDTO;
 import com.yamiapp.model.dto.RestaurantResposneDTO;
+import com.yamiapp.model.dto.StreamedPicture;
 import com.yamiapp.model.dto.UserLoginDTO;
 import com.yamiapp.repo.RestaurantRepository;
+import com.yamiapp.util.PictureVariants;
 import com.yamiapp.validator.RestaurantCreateValidator;
 import com.yamiapp.validator.RestaurantUpdateRequestValidator;
 import com.yamiapp.validator.UserLoginRequestValidator;
 import jakarta.persistence.EntityNotFoundException;
 import lombok.Setter;
 import org.hibernate.exception.ConstraintViolationException;
-import org.springframework.core.io.Resource;
 import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.multipart.MultipartFile;
 
-import static com.yamiapp.util.ServiceUtils.convertToJPEG;
+import static com.yamiapp.util.ServiceUtils.validateImage;
 import static com.yamiapp.util.ServiceUtils.validateModeratorUser;
 
 import java.io.IOException;
+import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Map;
-import java.util.Optional;
+import java.util.Objects;
 import java.util.Set;
+import java.util.stream.Collectors;
 
 @Service
 public class RestaurantService {
@@ -42,6 +50,10 @@ public class RestaurantService {
     private final UserService userService;
     private final RestaurantUpdateRequestValidator updateValidator;
     private final UserLoginRequestValidator loginValidator;
+    private final ImageDiskCache imageDiskCache;
+    private final PhotoPipeline photoPipeline;
+    private final PictureStore pictureStore;
+    private final CatalogIndex catalogIndex;
 
     public RestaurantService(
             final RestaurantRepository restaurantRepository,
@@ -49,7 +61,11 @@ public class RestaurantService {
             final RestaurantCreateValidator createValidator,
             final BackblazeService backblazeService,
             final RestaurantUpdateRequestValidator updateValidator,
-            final UserLoginRequestValidator loginValidator
+            final UserLoginRequestValidator loginValidator,
+            final ImageDiskCache imageDiskCache,
+            final PhotoPipeline photoPipeline,
+            final PictureStore pictureStore,
+            final CatalogIndex catalogIndex
     ) {
         this.restaurantRepository = restaurantRepository;
         this.userService = userService;
@@ -57,6 +73,10 @@ public class RestaurantService {
         this.backblazeService = backblazeService;
         this.updateValidator = updateValidator;
         this.loginValidator = loginValidator;
+        this.imageDiskCache = imageDiskCache;
+        this.photoPipeline = photoPipeline;
+        this.pictureStore = pictureStore;
+        this.catalogIndex = catalogIndex;
     }
 
     // will throw a B2Exception to be handled by B2ExceptionHandler
@@ -64,11 +84,14 @@ public class RestaurantService {
     public Restaurant createRestaurant(RestaurantDTO dto, String userToken) throws B2Exception {
         createValidator.validate(dto);
         validateModeratorUser(userService, userToken);
+        validatePhoto(dto.getPhoto());
 
         Restaurant r = new Restaurant();
         r.setName(dto.getName());
         r.setDescription(dto.getDescription());
         r.setShortName(dto.getShortName());
+        r.setPhotoStatus(PhotoStatus.PENDING);
+        r.setPhotoStatusAt(LocalDateTime.now());
 
         try {
             r = restaurantRepository.save(r);
@@ -80,26 +103,15 @@ public class RestaurantService {
             throw new InternalServerException(ErrorStrings.INTEGRITY.getMessage());
         }
 
-        // Process image and upload before updating the restaurant entity
-        String photoName = r.getId().toString() + "/picture.jpg";
-
-        try {
-            MultipartFile jpegPhoto = dto.getPhoto().getContentType().equals("image/jpeg")
-                    ? dto.getPhoto()
-                    : convertToJPEG(dto.getPhoto());
-
-            B2FileVersion photo = backblazeService.uploadFile(jpegPhoto, photoName);
-            r.setPhotoPath(photoName);
-            r.setPhotoId(photo.getFileId());
-
-            restaurantRepository.save(r);
-        } catch (IOException e) {
-            throw new InternalServerException(ErrorStrings.INTERNAL_IO.getMessage());
-        }
+        // the picture is converted and uploaded in the background once this transaction commits
+        submitPhoto(r, dto.getPhoto());
 
         return r;
     }
 
+    // the photo goes PENDING with the rest of the changes, and its job is only submitted (and queued after commit) once
+    // the save went through, so a name conflict leaves the current picture alone
+    @Transactional
     public Restaurant updateRestaurant(Integer id, RestaurantDTO dto, String userToken) throws B2Exception {
         updateValidator.validate(dto);
         validateModeratorUser(userService, userToken);
@@ -110,34 +122,63 @@ public class RestaurantService {
         if (dto.getDescription() != null) r.setDescription(dto.getDescription());
         if (dto.getShortName() != null) r.setShortName(dto.getShortName());
         if (dto.getPhoto() != null) {
-            String photoName = r.getId().toString() + "/" + "picture.jpg";
-            r.setPhotoPath(photoName);
-            restaurantRepository.save(r);
-
-            try {
-                dto.setPhoto(convertToJPEG(dto.getPhoto()));
-                backblazeService.uploadFile(dto.getPhoto(), photoName);
-            } catch (IOException e) {
-                throw new InternalServerException(ErrorStrings.INTERNAL_IO.getMessage());
-            }
+            validatePhoto(dto.getPhoto());
+            r.setPhotoStatus(PhotoStatus.PENDING);
+            r.setPhotoStatusAt(LocalDateTime.now());
         }
 
         try {
-            return restaurantRepository.save(r);
+            r = restaurantRepository.saveAndFlush(r);
         } catch (DataIntegrityViolationException e) {
             if (e.getCause() instanceof ConstraintViolationException) {
                 throw new ConflictException(ErrorStrings.CONFLICT_RESTAURANT_NAME.getMessage());
             }
             throw new InternalServerException(ErrorStrings.INTEGRITY.getMessage());
         }
+
+        if (dto.getPhoto() != null) {
+            submitPhoto(r, dto.getPhoto());
+        }
+        return r;
+    }
+
+    private void submitPhoto(Restaurant r, MultipartFile photo) {
+        Long restaurantId = r.getId();
+        String oldPath = r.getPhotoPath(), oldId = r.getPhotoId(), oldVariants = r.getPhotoVariants();
+        photoPipeline.submit(
+                "restaurant:" + restaurantId,
+                photo,
+                (path, photoId, variants) -> {
+                    restaurantRepository.setPhoto(restaurantId, path, photoId, variants, PhotoStatus.READY);
+                    pictureStore.release(oldPath, oldId, oldVariants);
+                },
+                () -> restaurantRepository.setPhotoStatus(restaurantId, PhotoStatus.FAILED)
+        );
     }
 
+    private void validatePhoto(MultipartFile photo) {
+        photoPipeline.ensureCapacity();
+        try {
+            validateImage(photo);
+        } catch (IOException e) {
+            throw new InternalServerException(ErrorStrings.INTERNAL_IO.getMessage());
+        }
+    }
+
+    // ranked by the CatalogIndex; only the restaurants on the page are loaded
     public Page<RestaurantResposneDTO> searchRestaurantsUnauthenticated(String searchParams, Pageable page) {
-        return restaurantRepository.getRestaurantsByAnonymousSearch(searchParams, page);
+        Page<Long> ids = catalogIndex.searchRestaurants(searchParams, page);
+        if (ids.isEmpty()) {
+            return new PageImpl<>(List.of(), page, ids.getTotalElements());
+        }
+        Map<Long, RestaurantResposneDTO> restaurants = restaurantRepository.getRestaurantsByIdsWithMetrics(ids.getContent()).stream()
+            .collect(Collectors.toMap(RestaurantResposneDTO::getId, r -> r));
+        List<RestaurantResposneDTO> content = ids.getContent().stream().map(restaurants::get).filter(Objects::nonNull).toList();
+        return new PageImpl<>(content, page, ids.getTotalElements());
     }
 
     @Transactional
-    public void deleteRestaurant(Integer id, String userToken, UserLoginDTO loginDTO) throws B2Exception {
+    public void deleteRestaurant(Integer id, String userToken, UserLoginDTO loginDTO) {
         loginValidator.validate(loginDTO);
         validateModeratorUser(userService, userToken);
         String pwdToken = userService.getRawByPassword(loginDTO).getAccessToken();
@@ -146,9 +187,13 @@ public class RestaurantService {
         }
 
         Restaurant r = getRawById(id);
+        // the foods go with the restaurant through the cascade, so their pictures are released here as well
+        List<Food> foods = List.copyOf(r.getFoods());
 
-        backblazeService.deleteFile(r.getPhotoPath(), r.getPhotoId());
         restaurantRepository.delete(r);
+        restaurantRepository.flush();
+        pictureStore.release(r.getPhotoPath(), r.getPhotoId(), r.getPhotoVariants());
+        foods.forEach(f -> pictureStore.release(f.getPhotoPath(), f.getPhotoId(), f.getPhotoVariants()));
     }
 
     public RestaurantResposneDTO getByIdWithMetrics(Integer id) {
@@ -164,19 +209,29 @@ public class RestaurantService {
             .orElseThrow(() -> new NotFoundException(ErrorStrings.INVALID_RESTAURANT_ID.getMessage()));
     }
 
-    public Resource getImageById(Integer id) {
-        try {
-            Optional<Restaurant> optionalRestaurant = restaurantRepository.findById(id);
-            if (optionalRestaurant.isPresent()) {
-                return backblazeService.downloadFile(optionalRestaurant.get().getPhotoPath());
-            } else {
-                throw new NotFoundException(ErrorStrings.INVALID_RESTAURANT_ID.getMessage());
-            }
-        } catch (B2Exception e) {
-            throw new InternalServerException(ErrorStrings.B2_UPSTREAM.getMessage());
-        } catch (Exception e) {
-            throw new InternalServerException(ErrorStrings.INTERNAL_UNKNOWN.getMessage());
+    // size is optional; when given, the smallest thumbnail at least that big is served (or the original, if none is)
+    public Picture getImageById(Integer id, Integer size) {
+        if (size != null && size <= 0) {
+            throw new BadRequestException(ErrorStrings.INVALID_PICTURE_SIZE.getMessage());
+        }
+
+        Restaurant r = getRawById(id);
+        if (r.getPhotoPath() == null) {
+            throw new NotFoundException(ErrorStrings.RESTAURANT_DOESNT_HAVE_PHOTO.getMessage());
         }
+
+        Map.Entry<Integer, String> variant = PictureVariants.pick(r.getPhotoVariants(), size);
+        String photoPath = variant == null ? r.getPhotoPath() : PictureVariants.pathFor(r.getPhotoPath(), variant.getKey());
+        String photoId = variant == null ? r.getPhotoId() : variant.getValue();
+
+        return new Picture(photoPath, photoId, () -> {
+            try {
+                CachedImageResource cached = imageDiskCache.get(photoPath, photoId, target -> backblazeService.downloadToFile(photoPath, target));
+                return cached != null ? cached : new StreamedPicture(out -> backblazeService.streamFile(photoPath, out));
+            } catch (B2Exception e) {
+                throw new InternalServerException(ErrorStrings.B2_UPSTREAM.getMessage());
+            }
+        });
     }
 
     public List<RestaurantResposneDTO> findRestaurantReccomendations(User u, boolean stochastic) {
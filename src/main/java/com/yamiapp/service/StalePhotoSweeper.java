@@ -0,0 +1,47 @@
+package com.yamiapp.service;
+
+import com.yamiapp.repo.FoodRepository;
+import com.yamiapp.repo.RestaurantRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+
+/**
+ * Fails the pictures whose PhotoPipeline job was lost, for example with the instance that was running it, so they
+ * don't stay PENDING forever. A job either finishes or gives up well within yami.photos.sweep.stale-after-minutes
+ * (queue wait plus every retry), so a picture pending for longer than that can't be completed anymore.
+ * The picture can't be requeued: its bytes only lived in the lost job.
+ */
+@Slf4j
+@Service
+public class StalePhotoSweeper {
+
+    private final FoodRepository foodRepository;
+    private final RestaurantRepository restaurantRepository;
+    private final long staleAfterMinutes;
+
+    public StalePhotoSweeper(
+        FoodRepository foodRepository,
+        RestaurantRepository restaurantRepository,
+        @Value("${yami.photos.sweep.stale-after-minutes}") long staleAfterMinutes
+    ) {
+        this.foodRepository = foodRepository;
+        this.restaurantRepository = restaurantRepository;
+        this.staleAfterMinutes = staleAfterMinutes;
+    }
+
+    @Scheduled(cron = "${yami.photos.sweep.cron}")
+    @Transactional
+    public int failStalePhotos() {
+        LocalDateTime cutoff = LocalDateTime.now().minusMinutes(staleAfterMinutes);
+        int failed = foodRepository.failPhotosPendingSince(cutoff) + restaurantRepository.failPhotosPendingSince(cutoff);
+        if (failed > 0) {
+            log.warn("Marked {} pictures stuck in PENDING as FAILED", failed);
+        }
+        return failed;
+    }
+}
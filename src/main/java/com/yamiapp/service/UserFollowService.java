@@ -20,14 +20,17 @@ public class UserFollowService {
     private final UserRepository userRepository;
     private final UserFollowRepository userFollowRepository;
     private final UserService userService;
+    private final FeedService feedService;
 
     public UserFollowService(
             final UserRepository userRepository,
             final UserFollowRepository userFollowRepository,
-            UserService userService) {
+            UserService userService,
+            FeedService feedService) {
         this.userRepository = userRepository;
         this.userFollowRepository = userFollowRepository;
         this.userService = userService;
+        this.feedService = feedService;
     }
 
     @Transactional
@@ -44,8 +47,11 @@ public class UserFollowService {
 
         userRepository.save(followed);
         userRepository.save(follower);
+        userService.invalidateUserCounts(follower.getId(), followed.getId());
+        feedService.onFollow(follower.getId(), followed.getId());
     }
 
+    @Transactional
     public void unfollow(String unfollowerToken, Long unfollowedId) {
         User unfollower = userService.getRawByToken(unfollowerToken);
         User unfollowed = userService.getRawById(unfollowedId);
@@ -55,6 +61,8 @@ public class UserFollowService {
 
         userRepository.save(unfollowed);
         userRepository.save(unfollower);
+        userService.invalidateUserCounts(unfollower.getId(), unfollowed.getId());
+        feedService.onUnfollow(unfollower.getId(), unfollowed.getId());
     }
 
     public List<UserResponseDTO> getFollowers(Long userId) {
@@ -1,19 +1,27 @@
 package com.yamiapp.service;
 
+import com.yamiapp.cache.AccessTokenCache;
+import com.yamiapp.cache.UserCountsCache;
+import com.yamiapp.cache.UsernameIndex;
 import com.yamiapp.exception.*;
 import com.yamiapp.model.Role;
 import com.yamiapp.model.User;
 import com.yamiapp.model.dto.*;
+import com.yamiapp.model.projection.AuthenticatedUser;
 import com.yamiapp.repo.UserRepository;
 import com.yamiapp.validator.UserCreateRequestValidator;
 import com.yamiapp.validator.UserEditRequestValidator;
 import com.yamiapp.validator.UserLoginRequestValidator;
+import jakarta.persistence.EntityManager;
 import jakarta.persistence.EntityNotFoundException;
+import jakarta.persistence.PersistenceContext;
 import lombok.extern.slf4j.Slf4j;
 import org.hibernate.exception.ConstraintViolationException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageImpl;
@@ -24,7 +32,13 @@ import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 import java.util.stream.Stream;
@@ -39,16 +53,37 @@ public class UserService {
     private final UserEditRequestValidator editValidator;
     private final UserLoginRequestValidator loginValidator;
     private final UsernameTransactionHelper usernameTransactionHelper;
+    private final AccessTokenCache accessTokenCache;
+    private final UserCountsCache userCountsCache;
+    private final ExecutorService queryFanOutExecutor;
+    private final RatingStatsService ratingStatsService;
+    private final UsernameIndex usernameIndex;
+
+    private static final long SEARCH_SOURCE_TIMEOUT_MS = Long.parseLong(UserRepository.SEARCH_QUERY_TIMEOUT_MS);
+
+    // caps how many search source queries run at once across all searches, so searches can't take the whole pool
+    private final Semaphore searchQueryPermits;
+
+    @Value("${yami.search.usernames.max-candidates}")
+    private int maxSearchCandidates;
+
+    @PersistenceContext
+    private EntityManager entityManager;
 
     @Autowired
-    public UserService(UserRepository userRepository, UsernameTransactionHelper usernameTransactionHelper) {
+    public UserService(UserRepository userRepository, UsernameTransactionHelper usernameTransactionHelper, AccessTokenCache accessTokenCache, UserCountsCache userCountsCache, @Qualifier("queryFanOutExecutor") ExecutorService queryFanOutExecutor, RatingStatsService ratingStatsService, UsernameIndex usernameIndex, @Value("${yami.search.fanout.max-concurrent-queries}") int maxConcurrentSearchQueries) {
         this.userRepository = userRepository;
         this.encoder = new BCryptPasswordEncoder();
         this.createValidator = new UserCreateRequestValidator();
         this.editValidator = new UserEditRequestValidator();
         this.loginValidator = new UserLoginRequestValidator();
         this.usernameTransactionHelper = usernameTransactionHelper;
-
+        this.accessTokenCache = accessTokenCache;
+        this.userCountsCache = userCountsCache;
+        this.queryFanOutExecutor = queryFanOutExecutor;
+        this.ratingStatsService = ratingStatsService;
+        this.usernameIndex = usernameIndex;
+        this.searchQueryPermits = new Semaphore(maxConcurrentSearchQueries);
     }
 
     public User createRawUser(UserDTO dto) {
@@ -67,7 +102,9 @@ public class UserService {
 
         // save on db
         try {
-            return userRepository.save(u);
+            u = userRepository.save(u);
+            ratingStatsService.createUserStats(u);
+            return u;
         } catch(DataIntegrityViolationException e) {
             if (e.getCause() instanceof ConstraintViolationException) {
                 System.out.println("Constraint name: " + ((ConstraintViolationException) e.getCause()).getConstraintName());
@@ -85,6 +122,9 @@ public class UserService {
     public User updateRawUser(User u, UserDTO dto) {
         editValidator.validate(dto);
 
+        // the cached snapshot is stale either way (and the token may be rotated below), so drop it before mutating
+        accessTokenCache.invalidate(u.getAccessToken());
+
         if (dto.getUsername() != null) {
             u = usernameTransactionHelper.updateUsername(u, dto.getUsername());
         }
@@ -118,6 +158,8 @@ public class UserService {
 
     //TODO: optimize by deleting via access token
     public void deleteUser(User u) {
+        accessTokenCache.invalidate(u.getAccessToken());
+        userCountsCache.invalidate(u.getId());
         userRepository.delete(u);
     }
 
@@ -136,15 +178,34 @@ public class UserService {
         }
     }
 
-    public User getRawByToken(String accessToken) {
+    // who is calling, served from the AccessTokenCache. Enough for authorization checks and ids; anything that reads
+    // the rest of the user or writes to it loads it with getRawByToken instead
+    public AuthenticatedUser authenticate(String accessToken) {
         if (accessToken == null) {
             throw new UnauthorizedException(ErrorStrings.INVALID_TOKEN.getMessage());
         }
 
+        AuthenticatedUser u = accessTokenCache.get(accessToken, userRepository::findAuthenticatedByAccessToken);
+        if (u == null) {
+            throw new UnauthorizedException(ErrorStrings.INVALID_TOKEN.getMessage());
+        }
+        return u;
+    }
+
+    // always read from the database, so it's attached to the current persistence context (if any) and never stale
+    public User getRawByToken(String accessToken) {
+        if (accessToken == null) {
+            throw new UnauthorizedException(ErrorStrings.INVALID_TOKEN.getMessage());
+        }
         return userRepository.findByAccessToken(accessToken)
             .orElseThrow(() -> new UnauthorizedException(ErrorStrings.INVALID_TOKEN.getMessage()));
     }
 
+    // a lazy reference to the caller, for setting associations without loading the row
+    public User getReferenceByToken(String accessToken) {
+        return entityManager.getReference(User.class, authenticate(accessToken).id());
+    }
+
     public Optional<User> getRawByEmail(String email) {
         if (email == null) {
             return Optional.empty();
@@ -181,42 +242,29 @@ public class UserService {
 
     public UserCountsDTO getUserCounts(Long userId) {
         try {
-            return userRepository.getUserCounts(userId);
+            return userCountsCache.get(userId, userRepository::getUserCounts);
         } catch (EntityNotFoundException e) {
             throw new NotFoundException(ErrorStrings.INVALID_USER_ID.getMessage());
         }
     }
 
+    // batched getUserCounts; every requested id is present in the result, with zeroed counts if it doesn't exist
+    public Map<Long, UserCountsDTO> getUserCounts(Collection<Long> userIds) {
+        return userCountsCache.getAll(userIds, ids -> userRepository.getUserCountsByIds(List.copyOf(ids)).stream()
+            .collect(Collectors.toMap(UserCountsWithIdDTO::getUserId, c -> c)));
+    }
+
+    // must be called by every write path that changes follower, following or review counts
+    public void invalidateUserCounts(Long... userIds) {
+        userCountsCache.invalidate(userIds);
+    }
+
     public UserStats getUserStats(Long userId) {
         if (!userExists(userId)) {
             throw new NotFoundException(ErrorStrings.INVALID_USER_ID.getMessage());
         }
 
-        try {
-            List<RatingDistributionEntry> ratingDistributionEntries = userRepository.getRatingDistribution(userId);
-            Double avgRating = userRepository.getAverageRating(userId);
-            avgRating = (avgRating == null) ? 0D : avgRating;
-
-            Map<Integer, Long> ratingMap = IntStream.rangeClosed(0, 20)
-                    .boxed()
-                    .collect(Collectors.toMap(
-                            key -> key,
-                            key -> 0L
-                    ));
-
-            ratingDistributionEntries.forEach(entry -> {
-                if (entry.key() != null && entry.value() != null) {
-                    ratingMap.put(entry.key(), entry.value());
-                }
-            });
-
-            return new UserStats(
-                    avgRating,
-                    ratingMap
-            );
-        } catch (Exception e) {
-            throw e;
-        }
+        return ratingStatsService.getUserStats(userId);
     }
 
     public UserResponseDTO getById(Long id) {
@@ -228,37 +276,51 @@ public class UserService {
     }
 
     public Page<UserResponseDTO> searchUsersUnauthenticated(String searchParams, Pageable pageable) {
-        Page<User> users = userRepository.getUsersByAnonymousSearch("%" + searchParams + "%", pageable);
-        return users.map(user -> new UserResponseDTO(user).withoutSensitiveData().withCounts(getUserCounts(user.getId())).withFollowing(false)); // TODO: optimize queries
+        Page<User> users = findUsersByUsername(usernameIndex.search(searchParams, maxSearchCandidates), pageable);
+        Map<Long, UserCountsDTO> counts = getUserCounts(users.stream().map(User::getId).toList());
+        return users.map(user -> new UserResponseDTO(user).withoutSensitiveData().withCounts(counts.get(user.getId())).withFollowing(false));
     }
 
     public Page<UserResponseDTO> searchUsersAuthenticated(String searchParams, String accessToken, Pageable pageable) {
-        User u;
+        AuthenticatedUser u;
         try{
-            u = getRawByToken(accessToken);
+            u = authenticate(accessToken);
         } catch (UnauthorizedException | NotFoundException e) {
             log.warn("Failed to authenticate user in searchusersAuthenticating; falling back to searchUsersUnauthenticated");
             return searchUsersUnauthenticated(searchParams, pageable);
         }
 
-        searchParams = "%" + searchParams + "%";
+        UsernameIndex.Matches matches = usernameIndex.search(searchParams, maxSearchCandidates);
+        if (matches.ids().isEmpty()) {
+            return new PageImpl<>(List.of(), pageable, 0);
+        }
+
+        List<Long> candidateIds = matches.ids();
+        Long userId = u.id();
         int pageSize = pageable.getPageSize();
         int pageNumber = pageable.getPageNumber();
+        Pageable sourcePage = PageRequest.of(pageNumber, pageSize / 4);
 
-        Page<User> second = userRepository.findSecondDegree(u.getId(), searchParams, PageRequest.of(pageNumber, pageSize / 4));
-        Page<User> shared = userRepository.findSharedInterest(u.getId(), searchParams, PageRequest.of(pageNumber, pageSize / 4));
-        Page<User> popular = userRepository.findPopularUsersExcludingFollows(u.getId(), searchParams, PageRequest.of(pageNumber, pageSize / 4));
-        Page<User> general = userRepository.getUsersByAnonymousSearch(searchParams, PageRequest.of(pageNumber, pageSize / 4));
-        List<UserResponseDTO> result = new ArrayList<>();
+        // the four sources are independent, so they run concurrently; the merge below still consumes them in a fixed order
+        CompletableFuture<Page<User>> secondF = searchSource("second degree", () -> userRepository.findSecondDegree(userId, candidateIds, sourcePage));
+        CompletableFuture<Page<User>> sharedF = searchSource("shared interest", () -> userRepository.findSharedInterest(userId, candidateIds, sourcePage));
+        CompletableFuture<Page<User>> popularF = searchSource("popular", () -> userRepository.findPopularUsersExcludingFollows(userId, candidateIds, sourcePage));
+        CompletableFuture<Page<User>> generalF = searchSource("general", () -> findUsersByUsername(matches, sourcePage));
+
+        Page<User> second = secondF.join();
+        Page<User> shared = sharedF.join();
+        Page<User> popular = popularF.join();
+        Page<User> general = generalF.join();
+        List<User> merged = new ArrayList<>();
 
         Set<Long> userIds = new HashSet<>();
 
         Consumer<Page<User>> addToResult = page -> {
             for (User user : page.getContent()) {
-                if (result.size() >= pageSize || userIds.contains(user.getId())) {
+                if (merged.size() >= pageSize || userIds.contains(user.getId())) {
                     continue;
                 }
-                result.add(new UserResponseDTO(user).withoutSensitiveData().withCounts(getUserCounts(user.getId())).withFollowing(false)); // TODO: Make this query efficient
+                merged.add(user);
                 userIds.add(user.getId());
             }
         };
@@ -268,8 +330,64 @@ public class UserService {
         addToResult.accept(popular);
         addToResult.accept(general);
 
+        Map<Long, UserCountsDTO> counts = getUserCounts(userIds);
+        List<UserResponseDTO> result = merged.stream()
+            .map(user -> new UserResponseDTO(user).withoutSensitiveData().withCounts(counts.get(user.getId())).withFollowing(false))
+            .toList();
+
         long total = second.getTotalElements() + shared.getTotalElements() + popular.getTotalElements() + general.getTotalElements();
         return new PageImpl<>(result, pageable, total);
     }
 
+    // a page of the users the UsernameIndex matched, in its ranking; only that page's users are loaded from the database.
+    // candidates past max-candidates are left out, though they still count towards the total
+    private Page<User> findUsersByUsername(UsernameIndex.Matches matches, Pageable pageable) {
+        List<Long> ids = matches.ids();
+        int from = (int) Math.min(pageable.getOffset(), ids.size());
+        int to = Math.min(from + pageable.getPageSize(), ids.size());
+        List<Long> pageIds = ids.subList(from, to);
+        if (pageIds.isEmpty()) {
+            return new PageImpl<>(List.of(), pageable, matches.total());
+        }
+
+        Map<Long, User> users = userRepository.findAllById(pageIds).stream()
+            .collect(Collectors.toMap(User::getId, user -> user));
+        // ids of users deleted by another instance can linger in the index until its next rebuild
+        List<User> content = pageIds.stream().map(users::get).filter(Objects::nonNull).toList();
+        return new PageImpl<>(content, pageable, matches.total());
+    }
+
+    // runs a single search source on the fan-out executor, once it gets one of the search query permits. A source that
+    // fails or misses its deadline contributes an empty page instead of failing the whole search; at the deadline its
+    // task is interrupted (which gives up waiting for a permit or a pooled connection), and a query already running is
+    // cancelled by its statement timeout
+    private CompletableFuture<Page<User>> searchSource(String name, Supplier<Page<User>> query) {
+        CompletableFuture<Page<User>> result = new CompletableFuture<>();
+        Future<?> task = queryFanOutExecutor.submit(() -> {
+            try {
+                if (!searchQueryPermits.tryAcquire(SEARCH_SOURCE_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                    result.complete(Page.empty());
+                    return;
+                }
+                try {
+                    result.complete(query.get());
+                } finally {
+                    searchQueryPermits.release();
+                }
+            } catch (InterruptedException e) {
+                result.complete(Page.empty());
+            } catch (RuntimeException e) {
+                result.completeExceptionally(e);
+            }
+        });
+
+        return result
+            .completeOnTimeout(Page.empty(), SEARCH_SOURCE_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+            .whenComplete((page, e) -> task.cancel(true))
+            .exceptionally(e -> {
+                log.warn("User search source '{}' failed; skipping it: {}", name, e.getMessage());
+                return Page.empty();
+            });
+    }
+
 }
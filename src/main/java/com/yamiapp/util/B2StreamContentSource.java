@@ -0,0 +1,118 @@
+package com.yamiapp.util;
+
+import com.backblaze.b2.client.contentSources.B2ContentSource;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * B2 upload content that is read straight from memory or from the request, instead of from a temp file.
+ * The sha1 is left to the SDK, which computes it while sending and appends it to the body (B2's hex_digits_at_end),
+ * so we never read the content twice. Supports ranges, which the SDK needs to split large files into parts.
+ */
+public class B2StreamContentSource implements B2ContentSource {
+
+    @FunctionalInterface
+    private interface StreamOpener {
+        InputStream open(long start, long length) throws IOException;
+    }
+
+    private final long contentLength;
+    private final StreamOpener opener;
+
+    private B2StreamContentSource(long contentLength, StreamOpener opener) {
+        this.contentLength = contentLength;
+        this.opener = opener;
+    }
+
+    public static B2StreamContentSource of(byte[] content) {
+        return new B2StreamContentSource(content.length, (start, length) -> new ByteArrayInputStream(content, Math.toIntExact(start), Math.toIntExact(length)));
+    }
+
+    // every call to createInputStream reopens the multipart stream, so SDK retries start from a fresh stream
+    public static B2StreamContentSource of(MultipartFile file) {
+        return new B2StreamContentSource(file.getSize(), (start, length) -> {
+            InputStream in = file.getInputStream();
+            in.skipNBytes(start);
+            return new LimitedInputStream(in, length);
+        });
+    }
+
+    @Override
+    public long getContentLength() {
+        return contentLength;
+    }
+
+    @Override
+    public String getSha1OrNull() {
+        return null;
+    }
+
+    @Override
+    public Long getSrcLastModifiedMillisOrNull() {
+        return null;
+    }
+
+    @Override
+    public InputStream createInputStream() throws IOException {
+        return opener.open(0, contentLength);
+    }
+
+    @Override
+    public B2ContentSource createContentSourceWithRangeOrNull(long start, long length) {
+        return new B2StreamContentSource(length, (rangeStart, rangeLength) -> opener.open(start + rangeStart, rangeLength));
+    }
+
+    private static class LimitedInputStream extends FilterInputStream {
+        private long remaining;
+
+        LimitedInputStream(InputStream in, long limit) {
+            super(in);
+            this.remaining = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int b = super.read();
+            if (b >= 0) {
+                remaining--;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int n = super.read(b, off, (int) Math.min(len, remaining));
+            if (n > 0) {
+                remaining -= n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(Math.min(n, remaining));
+            remaining -= skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(super.available(), remaining);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+}
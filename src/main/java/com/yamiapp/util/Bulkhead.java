@@ -0,0 +1,142 @@
+package com.yamiapp.util;
+
+import com.yamiapp.exception.ErrorStrings;
+import com.yamiapp.exception.ServiceUnavailableException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * Guards the calls to a single downstream. At most maxConcurrent calls are in flight at once; callers over the
+ * limit wait up to maxWait for a slot and then fail with a ServiceUnavailableException, rather than piling up
+ * behind a slow downstream (which, with virtual threads, they'd otherwise do by the thousands).
+ * Calls also go through a CircuitBreaker, which fails them fast while the downstream keeps erroring out; isFailure
+ * decides which exceptions count against it (a B2 404 is an answer, not an outage).
+ * Everything is reported under yami.downstream.* with a downstream tag.
+ */
+public class Bulkhead {
+
+    @FunctionalInterface
+    public interface Call<T, E extends Exception> {
+        T run() throws E;
+    }
+
+    @FunctionalInterface
+    public interface VoidCall<E extends Exception> {
+        void run() throws E;
+    }
+
+    private final String name;
+    private final int maxConcurrent;
+    private final Duration maxWait;
+    private final Semaphore permits;
+    private final CircuitBreaker circuitBreaker;
+    private final Predicate<Throwable> isFailure;
+
+    private final Counter succeeded;
+    private final Counter failed;
+    private final Counter rejected;
+    private final Counter shortCircuited;
+    private final Timer latency;
+
+    public Bulkhead(
+        String name,
+        int maxConcurrent,
+        Duration maxWait,
+        CircuitBreaker circuitBreaker,
+        Predicate<Throwable> isFailure,
+        MeterRegistry meterRegistry
+    ) {
+        this.name = name;
+        this.maxConcurrent = maxConcurrent;
+        this.maxWait = maxWait;
+        this.permits = new Semaphore(maxConcurrent, true);
+        this.circuitBreaker = circuitBreaker;
+        this.isFailure = isFailure;
+
+        this.succeeded = outcome(meterRegistry, "success");
+        this.failed = outcome(meterRegistry, "failure");
+        this.rejected = outcome(meterRegistry, "rejected");
+        this.shortCircuited = outcome(meterRegistry, "short_circuited");
+        this.latency = Timer.builder("yami.downstream.latency").tag("downstream", name).register(meterRegistry);
+        Gauge.builder("yami.downstream.in_flight", this, Bulkhead::getInFlight).tag("downstream", name).register(meterRegistry);
+        // 0 closed, 1 half open, 2 open
+        Gauge.builder("yami.downstream.circuit_state", circuitBreaker, cb -> cb.getState().ordinal()).tag("downstream", name).register(meterRegistry);
+    }
+
+    public <T, E extends Exception> T execute(Call<T, E> call) throws E {
+        if (!circuitBreaker.tryAcquire()) {
+            shortCircuited.increment();
+            throw new ServiceUnavailableException(ErrorStrings.DOWNSTREAM_UNAVAILABLE.getMessage());
+        }
+        if (!acquire()) {
+            circuitBreaker.onAbandoned();
+            rejected.increment();
+            throw new ServiceUnavailableException(ErrorStrings.DOWNSTREAM_BUSY.getMessage());
+        }
+
+        long start = System.nanoTime();
+        Throwable failure = null;
+        try {
+            return call.run();
+        } catch (Throwable t) {
+            failure = t;
+            throw t;
+        } finally {
+            permits.release();
+            latency.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            if (failure != null && isFailure.test(failure)) {
+                failed.increment();
+                circuitBreaker.onFailure();
+            } else {
+                succeeded.increment();
+                circuitBreaker.onSuccess();
+            }
+        }
+    }
+
+    public <E extends Exception> void run(VoidCall<E> call) throws E {
+        execute(() -> {
+            call.run();
+            return null;
+        });
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getMaxConcurrent() {
+        return maxConcurrent;
+    }
+
+    public int getInFlight() {
+        return maxConcurrent - permits.availablePermits();
+    }
+
+    public CircuitBreaker.State getCircuitState() {
+        return circuitBreaker.getState();
+    }
+
+    private boolean acquire() {
+        try {
+            return permits.tryAcquire(maxWait.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private Counter outcome(MeterRegistry meterRegistry, String outcome) {
+        return Counter.builder("yami.downstream.calls")
+            .tag("downstream", name)
+            .tag("outcome", outcome)
+            .register(meterRegistry);
+    }
+}
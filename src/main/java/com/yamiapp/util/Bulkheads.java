@@ -0,0 +1,68 @@
+package com.yamiapp.util;
+
+import com.backblaze.b2.client.exceptions.B2Exception;
+import com.backblaze.b2.client.exceptions.B2NetworkException;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.time.Duration;
+
+/**
+ * One Bulkhead per remote dependency we call synchronously from requests.
+ * Postgres doesn't get one here: the Hikari pool already is its bulkhead (see spring.datasource.hikari.*).
+ */
+@Component
+public class Bulkheads {
+
+    private final Bulkhead redis;
+    private final Bulkhead b2;
+    private final Bulkhead smtp;
+
+    public Bulkheads(
+        MeterRegistry meterRegistry,
+        @Value("${yami.bulkhead.redis.max-concurrent}") int redisMaxConcurrent,
+        @Value("${yami.bulkhead.redis.max-wait-ms}") long redisMaxWaitMillis,
+        @Value("${yami.bulkhead.b2.max-concurrent}") int b2MaxConcurrent,
+        @Value("${yami.bulkhead.b2.max-wait-ms}") long b2MaxWaitMillis,
+        @Value("${yami.bulkhead.smtp.max-concurrent}") int smtpMaxConcurrent,
+        @Value("${yami.bulkhead.smtp.max-wait-ms}") long smtpMaxWaitMillis,
+        @Value("${yami.bulkhead.circuit.failure-threshold}") int failureThreshold,
+        @Value("${yami.bulkhead.circuit.open-ms}") long openMillis
+    ) {
+        Duration openDuration = Duration.ofMillis(openMillis);
+
+        // every redis error is a connection or server problem; RedisHelper wraps them all anyway
+        this.redis = new Bulkhead(
+            "redis", redisMaxConcurrent, Duration.ofMillis(redisMaxWaitMillis),
+            new CircuitBreaker(failureThreshold, openDuration), e -> true, meterRegistry
+        );
+        // 4xx answers (missing files, bad requests) mean b2 is up and talking to us. IOExceptions are b2's too:
+        // nothing inside this bulkhead writes to a client (see BackblazeService#streamFile)
+        this.b2 = new Bulkhead(
+            "b2", b2MaxConcurrent, Duration.ofMillis(b2MaxWaitMillis),
+            new CircuitBreaker(failureThreshold, openDuration),
+            e -> e instanceof B2NetworkException
+                || (e instanceof B2Exception b2e && (b2e.getStatus() >= 500 || b2e.getStatus() == 429))
+                || e instanceof IOException,
+            meterRegistry
+        );
+        this.smtp = new Bulkhead(
+            "smtp", smtpMaxConcurrent, Duration.ofMillis(smtpMaxWaitMillis),
+            new CircuitBreaker(failureThreshold, openDuration), e -> true, meterRegistry
+        );
+    }
+
+    public Bulkhead redis() {
+        return redis;
+    }
+
+    public Bulkhead b2() {
+        return b2;
+    }
+
+    public Bulkhead smtp() {
+        return smtp;
+    }
+}
@@ -0,0 +1,72 @@
+package com.yamiapp.util;
+
+import java.time.Duration;
+
+/**
+ * Consecutive-failure circuit breaker. After failureThreshold failures in a row the circuit opens and calls fail
+ * fast for openDuration; then a single trial call is let through, which either closes the circuit or re-opens it.
+ * The critical sections never block, so plain synchronized is fine even on virtual threads.
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED,
+        HALF_OPEN,
+        OPEN
+    }
+
+    private final int failureThreshold;
+    private final long openNanos;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures = 0;
+    private long openedAt;
+    private boolean trialInFlight = false;
+
+    public CircuitBreaker(int failureThreshold, Duration openDuration) {
+        this.failureThreshold = Math.max(failureThreshold, 1);
+        this.openNanos = openDuration.toNanos();
+    }
+
+    // false means the call must not be attempted
+    public synchronized boolean tryAcquire() {
+        if (state == State.OPEN) {
+            if (System.nanoTime() - openedAt < openNanos) {
+                return false;
+            }
+            state = State.HALF_OPEN;
+            trialInFlight = false;
+        }
+        if (state == State.HALF_OPEN) {
+            if (trialInFlight) {
+                return false;
+            }
+            trialInFlight = true;
+        }
+        return true;
+    }
+
+    public synchronized void onSuccess() {
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+        trialInFlight = false;
+    }
+
+    public synchronized void onFailure() {
+        consecutiveFailures++;
+        trialInFlight = false;
+        if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+            state = State.OPEN;
+            openedAt = System.nanoTime();
+        }
+    }
+
+    // the call was let through but never reached the downstream (e.g. the bulkhead was full), so it proves nothing
+    public synchronized void onAbandoned() {
+        trialInFlight = false;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+}
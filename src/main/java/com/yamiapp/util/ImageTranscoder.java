@@ -0,0 +1,211 @@
+package com.yamiapp.util;
+
+import com.yamiapp.exception.BadRequestException;
+import com.yamiapp.exception.ErrorStrings;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.imageio.*;
+import javax.imageio.stream.ImageInputStreamImpl;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Turns uploaded pictures into the JPEGs we store: the full-size picture (capped at max-dimension) plus its
+ * PictureVariants thumbnails, all out of a single decode.
+ * Oversized inputs are subsampled while they're being read, so a 12MP phone photo never sits in the heap at full
+ * resolution, and the number of concurrent decodes is capped, since each one can still take tens of MB.
+ */
+@Component
+public class ImageTranscoder {
+
+    public record Result(byte[] jpeg, Map<Integer, byte[]> thumbnails) {}
+
+    // originalSize is the larger dimension of the picture as uploaded, before any subsampling
+    private record Decoded(BufferedImage image, boolean jpeg, int originalSize) {}
+
+    private final int maxDimension;
+    private final float quality;
+    private final Semaphore decodePermits;
+
+    public ImageTranscoder(
+        @Value("${yami.photos.transcoder.max-dimension}") int maxDimension,
+        @Value("${yami.photos.transcoder.quality}") float quality,
+        @Value("${yami.photos.transcoder.max-concurrent-decodes}") int maxConcurrentDecodes
+    ) {
+        this.maxDimension = maxDimension;
+        this.quality = quality;
+        this.decodePermits = new Semaphore(Math.max(maxConcurrentDecodes, 1), true);
+    }
+
+    // thumbnails are keyed by their max dimension; sizes the picture is already smaller than are skipped.
+    // JPEGs that didn't need to be shrunk are stored as they were uploaded, rather than re-encoded.
+    // that goes by what the bytes actually are, since the uploaded content type is whatever the client said
+    public Result transcode(byte[] content, int[] thumbnailSizes) throws IOException, InterruptedException {
+        decodePermits.acquire();
+        try {
+            int largestThumbnail = Arrays.stream(thumbnailSizes).max().orElse(0);
+            Decoded decoded = decode(content, largestThumbnail);
+            BufferedImage image = decoded.image();
+            // decided on the uploaded size: a subsampled decode can come out at exactly maxDimension
+            boolean shrunk = decoded.originalSize() > maxDimension;
+            if (Math.max(image.getWidth(), image.getHeight()) > maxDimension) {
+                image = scaleDown(image, maxDimension);
+            }
+            image = toRGB(image);
+
+            byte[] jpeg = !shrunk && decoded.jpeg() ? content : encode(image);
+
+            Map<Integer, byte[]> thumbnails = new LinkedHashMap<>();
+            int[] descending = Arrays.stream(thumbnailSizes).boxed().sorted(Comparator.reverseOrder()).mapToInt(Integer::intValue).toArray();
+            // each size is scaled down from the previous (larger) one, which keeps it cheap and smooth
+            BufferedImage source = image;
+            for (int size : descending) {
+                if (Math.min(decoded.originalSize(), maxDimension) <= size) {
+                    continue;
+                }
+                source = scaleDown(source, size);
+                thumbnails.put(size, encode(source));
+            }
+            return new Result(jpeg, thumbnails);
+        } finally {
+            decodePermits.release();
+        }
+    }
+
+    // reads the dimensions from the header first, and subsamples by the largest step that still leaves enough pixels
+    // for the largest output; the bilinear pass in scaleDown takes it the rest of the way. That's maxDimension, except
+    // for JPEGs that already fit: those are stored as uploaded, so only their largest thumbnail is decoded for
+    private Decoded decode(byte[] content, int largestThumbnail) throws IOException {
+        try (ByteArrayImageInputStream in = new ByteArrayImageInputStream(content)) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) {
+                throw new BadRequestException(ErrorStrings.INVALID_IMAGE_FILETYPE.getMessage());
+            }
+
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                int originalSize = Math.max(reader.getWidth(0), reader.getHeight(0));
+                boolean jpeg = "jpeg".equalsIgnoreCase(reader.getFormatName());
+                int largestOutput = jpeg && originalSize <= maxDimension ? largestThumbnail : maxDimension;
+                int step = subsamplingStep(originalSize, largestOutput);
+                ImageReadParam param = reader.getDefaultReadParam();
+                if (step > 1) {
+                    param.setSourceSubsampling(step, step, 0, 0);
+                }
+                return new Decoded(reader.read(0, param), jpeg, originalSize);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    // subsampling by step keeps ceil(size / step) pixels, so this is the largest step that keeps at least target
+    static int subsamplingStep(int size, int target) {
+        if (target <= 1 || size <= target) {
+            return 1;
+        }
+        return (size - 1) / (target - 1);
+    }
+
+    private byte[] encode(BufferedImage image) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        // sized for roughly 2 bits per pixel, which covers most pictures at our quality without regrowing
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(Math.max(16 * 1024, image.getWidth() * image.getHeight() / 4));
+        try (ImageOutputStream out = new MemoryCacheImageOutputStream(buffer)) {
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(quality);
+            writer.setOutput(out);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return buffer.toByteArray();
+    }
+
+    // the jpeg writer can't handle alpha or indexed images, so those are flattened onto white
+    private static BufferedImage toRGB(BufferedImage image) {
+        int type = image.getType();
+        if (type == BufferedImage.TYPE_INT_RGB || type == BufferedImage.TYPE_3BYTE_BGR || type == BufferedImage.TYPE_BYTE_GRAY) {
+            return image;
+        }
+
+        BufferedImage rgb = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = rgb.createGraphics();
+        g.drawImage(image, 0, 0, Color.WHITE, null);
+        g.dispose();
+        return rgb;
+    }
+
+    // halves the image until it's within 2x of the target before the final bilinear pass; a single large
+    // bilinear step would skip most source pixels and alias badly
+    private static BufferedImage scaleDown(BufferedImage image, int maxDimension) {
+        double scale = (double) maxDimension / Math.max(image.getWidth(), image.getHeight());
+        int targetWidth = Math.max(1, (int) Math.round(image.getWidth() * scale));
+        int targetHeight = Math.max(1, (int) Math.round(image.getHeight() * scale));
+
+        BufferedImage current = image;
+        int width = image.getWidth();
+        int height = image.getHeight();
+        do {
+            width = Math.max(targetWidth, width / 2);
+            height = Math.max(targetHeight, height / 2);
+
+            BufferedImage next = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            Graphics2D g = next.createGraphics();
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.drawImage(current, 0, 0, width, height, Color.WHITE, null);
+            g.dispose();
+            current = next;
+        } while (width != targetWidth || height != targetHeight);
+        return current;
+    }
+
+    // reads straight from the upload's byte array; ImageIO's own streams would copy it into a cache first
+    private static final class ByteArrayImageInputStream extends ImageInputStreamImpl {
+
+        private final byte[] data;
+
+        private ByteArrayImageInputStream(byte[] data) {
+            this.data = data;
+        }
+
+        @Override
+        public int read() throws IOException {
+            checkClosed();
+            bitOffset = 0;
+            return streamPos < data.length ? data[(int) streamPos++] & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            checkClosed();
+            bitOffset = 0;
+            if (len == 0) {
+                return 0;
+            }
+            if (streamPos >= data.length) {
+                return -1;
+            }
+            int n = (int) Math.min(len, data.length - streamPos);
+            System.arraycopy(data, (int) streamPos, b, off, n);
+            streamPos += n;
+            return n;
+        }
+
+        @Override
+        public long length() {
+            return data.length;
+        }
+    }
+}
@@ -1,7 +1,7 @@
 package com.yamiapp.util;
 
 import com.yamiapp.exception.ErrorStrings;
-import com.yamiapp.exception.InternalServerException;
+import com.yamiapp.exception.BadGatewayException;
 import jakarta.mail.Message;
 import jakarta.mail.MessagingException;
 import jakarta.mail.Session;
@@ -13,9 +13,11 @@ public class MailHelper {
 
     private final Session session;
     private final String username;
+    private final Bulkhead bulkhead;
 
-    public MailHelper(Session session) {
+    public MailHelper(Session session, Bulkhead bulkhead) {
         this.session = session;
+        this.bulkhead = bulkhead;
 
         this.username = session.getProperty("mail.smtp.user");
 
@@ -25,21 +27,57 @@ public class MailHelper {
             ); // this should never throw
         }
     }
+
+    // a single smtp connection, reused for every message sent through it
+    @FunctionalInterface
+    public interface Connection {
+        void send(String to, String subject, String content) throws MessagingException;
+    }
+
+    @FunctionalInterface
+    public interface Batch {
+        void sendAll(Connection connection);
+    }
+
+    // opens one connection (holding one bulkhead slot) for the whole batch, instead of one per message like sendMail.
+    // failing to connect throws a BadGatewayException; a message that fails throws from Connection#send, and it's up
+    // to the batch whether to go on with the rest
+    public void withConnection(Batch batch) {
+        try {
+            bulkhead.run(() -> {
+                try (Transport transport = session.getTransport("smtp")) {
+                    transport.connect();
+                    batch.sendAll((to, subject, content) -> {
+                        Message message = plainMessage(to, subject, content);
+                        transport.sendMessage(message, message.getAllRecipients());
+                    });
+                }
+            });
+        } catch (MessagingException e) {
+            throw new BadGatewayException(ErrorStrings.MAIL_ERROR.getMessage());
+        }
+    }
+
     public void sendMail(String to, String subject, String content) {
         try {
-            Message message = new MimeMessage(session);
-            message.setFrom(new InternetAddress(username));
-            message.setRecipients(Message.RecipientType.TO, InternetAddress.parse(to));
-            message.setSubject(subject);
-            message.setText(content);
+            Message message = plainMessage(to, subject, content);
 
-            Transport.send(message);
+            bulkhead.run(() -> Transport.send(message));
 
         } catch (MessagingException e) {
-            throw new InternalServerException(ErrorStrings.MAIL_ERROR.getMessage());
+            throw new BadGatewayException(ErrorStrings.MAIL_ERROR.getMessage());
         }
     }
 
+    private Message plainMessage(String to, String subject, String content) throws MessagingException {
+        Message message = new MimeMessage(session);
+        message.setFrom(new InternetAddress(username));
+        message.setRecipients(Message.RecipientType.TO, InternetAddress.parse(to));
+        message.setSubject(subject);
+        message.setText(content);
+        return message;
+    }
+
     public void sendHtmlMail(String to, String subject, String htmlContent) {
         try {
             Message message = new MimeMessage(session);
@@ -48,10 +86,10 @@ public class MailHelper {
             message.setSubject(subject);
             message.setContent(htmlContent, "text/html; charset=utf-8");
 
-            Transport.send(message);
+            bulkhead.run(() -> Transport.send(message));
 
         } catch (MessagingException e) {
-            throw new InternalServerException(ErrorStrings.MAIL_ERROR.getMessage());
+            throw new BadGatewayException(ErrorStrings.MAIL_ERROR.getMessage());
         }
     }
 }
\ No newline at end of file
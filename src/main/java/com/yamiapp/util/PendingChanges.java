@@ -0,0 +1,50 @@
+package com.yamiapp.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The changes made to an in-memory index while it's being rebuilt. A rebuild reads the database without holding the
+ * index's lock, so writes that land meanwhile may be missing from what it read; they're recorded here and replayed
+ * onto the rebuilt index before it's swapped in.
+ * Not thread-safe: callers guard it with the lock they update the index under.
+ */
+public final class PendingChanges<C> {
+
+    @FunctionalInterface
+    public interface Replay<C, E extends Exception> {
+        void apply(C change) throws E;
+    }
+
+    private List<C> changes;
+
+    public void start() {
+        changes = new ArrayList<>();
+    }
+
+    public boolean isRecording() {
+        return changes != null;
+    }
+
+    // no-op unless a rebuild is in progress
+    public void record(C change) {
+        if (changes != null) {
+            changes.add(change);
+        }
+    }
+
+    // applies the recorded changes in the order they were made, then stops recording (even if one of them fails)
+    public <E extends Exception> void replay(Replay<C, E> replay) throws E {
+        try {
+            for (C change : changes) {
+                replay.apply(change);
+            }
+        } finally {
+            changes = null;
+        }
+    }
+
+    public void stop() {
+        changes = null;
+    }
+}
@@ -0,0 +1,74 @@
+package com.yamiapp.util;
+
+import com.backblaze.b2.client.exceptions.B2Exception;
+import com.yamiapp.cache.CachedImageResource;
+import com.yamiapp.model.dto.StreamedPicture;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.http.converter.HttpMessageNotWritableException;
+
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes picture bodies without holding them on the heap: cached pictures go out with FileChannel#transferTo
+ * (instead of the buffer copy ResourceHttpMessageConverter does), and streamed ones are piped from backblaze as they arrive.
+ * Write-only; registered ahead of the default converters in WebConfig.
+ * Range requests on cached pictures never reach this converter; spring serves those as ResourceRegions.
+ */
+public class PictureHttpMessageConverter extends AbstractHttpMessageConverter<Object> {
+
+    public PictureHttpMessageConverter() {
+        super(MediaType.ALL);
+    }
+
+    @Override
+    protected boolean supports(Class<?> clazz) {
+        return CachedImageResource.class.isAssignableFrom(clazz) || StreamedPicture.class.isAssignableFrom(clazz);
+    }
+
+    @Override
+    protected boolean canRead(MediaType mediaType) {
+        return false;
+    }
+
+    @Override
+    protected Object readInternal(Class<?> clazz, HttpInputMessage inputMessage) throws HttpMessageNotReadableException {
+        throw new HttpMessageNotReadableException("Pictures can't be read from requests", inputMessage);
+    }
+
+    @Override
+    protected Long getContentLength(Object picture, MediaType contentType) throws IOException {
+        // streamed pictures go out chunked; we don't know their size without an extra round-trip to b2
+        return picture instanceof CachedImageResource cached ? cached.contentLength() : null;
+    }
+
+    @Override
+    protected void writeInternal(Object picture, HttpOutputMessage outputMessage) throws IOException, HttpMessageNotWritableException {
+        if (picture instanceof StreamedPicture streamed) {
+            try {
+                streamed.writer().writeTo(outputMessage.getBody());
+            } catch (B2Exception e) {
+                // the status line is most likely gone already, so all we can do is abort the response
+                throw new HttpMessageNotWritableException("Failed to stream picture from backblaze", e);
+            }
+            return;
+        }
+
+        CachedImageResource cached = (CachedImageResource) picture;
+        try (FileChannel file = FileChannel.open(cached.getFile().toPath(), StandardOpenOption.READ)) {
+            WritableByteChannel out = Channels.newChannel(outputMessage.getBody());
+            long position = 0;
+            long size = file.size();
+            while (position < size) {
+                position += file.transferTo(position, size - position, out);
+            }
+        }
+    }
+}
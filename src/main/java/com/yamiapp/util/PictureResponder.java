@@ -0,0 +1,41 @@
+package com.yamiapp.util;
+
+import com.backblaze.b2.client.exceptions.B2Exception;
+import com.yamiapp.model.dto.Picture;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.WebRequest;
+
+import java.time.Duration;
+
+/**
+ * Builds the responses of the picture endpoints.
+ * The B2 file id changes with every upload, so it doubles as a strong ETag: a matching If-None-Match is answered
+ * with a 304 before we touch the cache or backblaze. Range requests on cached pictures are handled by spring.
+ */
+@Component
+public class PictureResponder {
+
+    private final CacheControl cacheControl;
+
+    public PictureResponder(@Value("${yami.pictures.max-age-seconds}") long maxAgeSeconds) {
+        this.cacheControl = CacheControl.maxAge(Duration.ofSeconds(maxAgeSeconds)).cachePublic().mustRevalidate();
+    }
+
+    public ResponseEntity<Object> respond(Picture picture, WebRequest request) throws B2Exception {
+        String etag = picture.photoId();
+        if (etag != null && request.checkNotModified(etag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).cacheControl(cacheControl).build();
+        }
+
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok().contentType(MediaType.IMAGE_JPEG).cacheControl(cacheControl);
+        if (etag != null) {
+            response.eTag(etag);
+        }
+        return response.body(picture.open());
+    }
+}
@@ -0,0 +1,57 @@
+package com.yamiapp.util;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+/**
+ * The downscaled copies generated for every uploaded picture, and how we keep track of them.
+ * Each variant is stored next to the original (1/food/2.jpg -> 1/food/2_256.jpg), and the photo_variants column
+ * holds their B2 file ids as "64:id,256:id,...". Sizes are the max of width and height, in pixels.
+ */
+public final class PictureVariants {
+
+    public static final int[] SIZES = {64, 256, 1024};
+    // column length of photo_variants: B2 file ids run past 80 characters each, with room left for more sizes
+    public static final int MAX_LENGTH = 1024;
+
+    private PictureVariants() {
+    }
+
+    public static String pathFor(String photoPath, int size) {
+        int dot = photoPath.lastIndexOf('.');
+        return dot < 0
+            ? photoPath + "_" + size
+            : photoPath.substring(0, dot) + "_" + size + photoPath.substring(dot);
+    }
+
+    // size -> B2 file id, smallest first
+    public static TreeMap<Integer, String> parse(String variants) {
+        TreeMap<Integer, String> parsed = new TreeMap<>();
+        if (variants == null || variants.isBlank()) {
+            return parsed;
+        }
+        for (String entry : variants.split(",")) {
+            int colon = entry.indexOf(':');
+            parsed.put(Integer.parseInt(entry.substring(0, colon)), entry.substring(colon + 1));
+        }
+        return parsed;
+    }
+
+    public static String format(Map<Integer, String> variants) {
+        if (variants.isEmpty()) {
+            return null;
+        }
+        return new TreeMap<>(variants).entrySet().stream()
+            .map(e -> e.getKey() + ":" + e.getValue())
+            .collect(Collectors.joining(","));
+    }
+
+    // the smallest variant at least as big as the requested size, or null if the original should be served
+    public static Map.Entry<Integer, String> pick(String variants, Integer requestedSize) {
+        if (requestedSize == null) {
+            return null;
+        }
+        return parse(variants).ceilingEntry(requestedSize);
+    }
+}
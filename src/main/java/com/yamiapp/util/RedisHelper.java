@@ -1,38 +1,41 @@
 package com.yamiapp.util;
 
-import com.yamiapp.exception.BadGatewayException;
 import com.yamiapp.exception.ErrorStrings;
 import com.yamiapp.exception.ServiceUnavailableException;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Component;
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
 
 import java.util.function.Function;
 
+@Slf4j
 @Component
 public class RedisHelper {
 
     private final JedisPool jedisPool;
+    private final Bulkhead bulkhead;
 
-    public RedisHelper(JedisPool jedisPool) {
+    public RedisHelper(JedisPool jedisPool, Bulkheads bulkheads) {
         this.jedisPool = jedisPool;
+        this.bulkhead = bulkheads.redis();
     }
 
     public <T> T execute(Function<Jedis, T> function) {
-        try (var jedis = jedisPool.getResource()) {
-            return function.apply(jedis);
-        } catch (Exception e) {
-            System.out.println(e.getMessage());
-            throw new ServiceUnavailableException(ErrorStrings.REDIS_ERROR.getMessage());
-        }
+        return bulkhead.execute(() -> {
+            try (var jedis = jedisPool.getResource()) {
+                return function.apply(jedis);
+            } catch (Exception e) {
+                log.warn("Redis call failed: {}", e.getMessage());
+                throw new ServiceUnavailableException(ErrorStrings.REDIS_ERROR.getMessage());
+            }
+        });
     }
 
     public void executeVoid(java.util.function.Consumer<Jedis> consumer) {
-        try (var jedis = jedisPool.getResource()) {
+        execute(jedis -> {
             consumer.accept(jedis);
-        } catch (Exception e) {
-            System.out.println(e.getMessage());
-            throw new ServiceUnavailableException(ErrorStrings.REDIS_ERROR.getMessage());
-        }
+            return null;
+        });
     }
 }
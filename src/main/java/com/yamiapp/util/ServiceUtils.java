@@ -4,39 +4,40 @@ import com.yamiapp.exception.BadRequestException;
 import com.yamiapp.exception.ErrorStrings;
 import com.yamiapp.exception.ForbiddenException;
 import com.yamiapp.model.Role;
-import com.yamiapp.model.User;
+import com.yamiapp.model.projection.AuthenticatedUser;
 import com.yamiapp.service.UserService;
-import org.apache.http.entity.ContentType;
 import org.springframework.web.multipart.MultipartFile;
 
 import javax.imageio.ImageIO;
-import java.awt.image.BufferedImage;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import javax.imageio.stream.ImageInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 
 public class ServiceUtils {
 
-    public static MultipartFile convertToJPEG(MultipartFile multipartFile) throws IOException {
-        byte[] fileBytes = multipartFile.getBytes();
-
-        ByteArrayInputStream byteArrayInputStream = new ByteArrayInputStream(fileBytes);
-        BufferedImage bufferedImage = ImageIO.read(byteArrayInputStream);
-
-        if (bufferedImage == null) {
-            System.out.println("Buffered image is NULL");
-            throw new BadRequestException(ErrorStrings.INVALID_IMAGE_FILETYPE.getMessage());
+    // only reads the image header, so it's cheap enough to run on the request thread before handing the
+    // actual decoding off to the PhotoPipeline
+    public static void validateImage(MultipartFile multipartFile) throws IOException {
+        try (InputStream in = multipartFile.getInputStream(); ImageInputStream imageIn = ImageIO.createImageInputStream(in)) {
+            if (imageIn == null || !ImageIO.getImageReaders(imageIn).hasNext()) {
+                throw new BadRequestException(ErrorStrings.INVALID_IMAGE_FILETYPE.getMessage());
+            }
         }
-
-        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-        ImageIO.write(bufferedImage, "JPEG", byteArrayOutputStream);
-        return  new ByteArrayMultipartFile(byteArrayOutputStream.toByteArray(), multipartFile.getName(), multipartFile.getOriginalFilename(), ContentType.IMAGE_JPEG.getMimeType());
     }
 
+    // turns a search keyword into a "contains" pattern for `lower(column) like :pattern escape '\'`, with the
+    // keyword's own wildcards escaped so they match literally
+    public static String containsPattern(String keyword) {
+        String escaped = keyword.toLowerCase()
+            .replace("\\", "\\\\")
+            .replace("%", "\\%")
+            .replace("_", "\\_");
+        return "%" + escaped + "%";
+    }
 
-    public static User validateModeratorUser(UserService userService, String userToken) {
-        User u = userService.getRawByToken(userToken);
-        if (u.getRole().ordinal() <= Role.PRO_USER.ordinal()) {
+    public static AuthenticatedUser validateModeratorUser(UserService userService, String userToken) {
+        AuthenticatedUser u = userService.authenticate(userToken);
+        if (u.role().ordinal() <= Role.PRO_USER.ordinal()) {
             throw new ForbiddenException(ErrorStrings.FORBIDDEN_NOT_ADMIN.getMessage());
         }
         return u;
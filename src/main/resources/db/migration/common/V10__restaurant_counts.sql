@@ -0,0 +1,12 @@
+-- restaurants.food_count and review_count, kept up to date by FoodService and FoodReviewService
+alter table restaurants add column if not exists food_count bigint default 0 not null;
+alter table restaurants add column if not exists review_count bigint default 0 not null;
+
+update restaurants
+set food_count = (select count(*) from foods f where f.restaurant_id = restaurants.restaurant_id),
+    review_count = (
+        select count(*)
+        from food_reviews fr
+        join foods f on f.food_id = fr.food_id
+        where f.restaurant_id = restaurants.restaurant_id
+    );
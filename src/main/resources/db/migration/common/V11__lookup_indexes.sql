@@ -0,0 +1,15 @@
+-- indexes behind the hot lookups, which ddl-auto never created. "if not exists" since some databases may have had
+-- them added by hand
+
+-- a food's and a user's reviews, newest first
+create index if not exists idx_food_reviews_food_created on food_reviews (food_id, created_at);
+create index if not exists idx_food_reviews_user_created on food_reviews (user_id, created_at);
+
+-- a review's likes; user_id also covers the "did this user like it" checks
+create index if not exists idx_review_like_review_user on review_like (food_review_id, user_id);
+
+-- a user's followers; the primary key (follower_id, following_id) only covers who they follow
+create index if not exists idx_follows_following on follows (following_id);
+
+-- a restaurant's menu; the (name, restaurant_id) unique key leads with the name
+create index if not exists idx_foods_restaurant on foods (restaurant_id);
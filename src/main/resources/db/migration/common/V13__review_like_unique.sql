@@ -0,0 +1,12 @@
+-- one like per user and review. FoodReviewLikeService counts on this insert failing for a repeated like, but the
+-- entity named a column that doesn't exist, so the constraint was never created. Duplicates that got in since are
+-- dropped and the like counts recomputed first
+delete from review_like
+where review_like_id not in (select min(review_like_id) from review_like group by food_review_id, user_id);
+
+update food_reviews
+set like_count = (select count(*) from review_like rl where rl.food_review_id = food_reviews.food_review_id);
+
+-- also serves the lookups idx_review_like_review_user was added for
+create unique index if not exists uk_review_like_review_user on review_like (food_review_id, user_id);
+drop index if exists idx_review_like_review_user;
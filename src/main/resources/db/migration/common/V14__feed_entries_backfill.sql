@@ -0,0 +1,22 @@
+-- fills the inboxes of the follows that existed before feed_entries, so home feeds aren't empty until the first
+-- run of the repair job. The numbers are the defaults of yami.feed.fanout.max-followers and yami.feed.backfill-size
+
+-- authors already past the fan-out limit start in pull mode, as FeedService#onFollow would have switched them
+update users
+set feed_pull = true
+where (select count(*) from follows f where f.following_id = users.user_id) > 5000;
+
+-- the same insert as FeedEntryRepository#backfillAll
+insert into feed_entries (owner_id, food_review_id, author_id, created_at)
+select f.follower_id, latest.food_review_id, latest.user_id, latest.created_at
+from follows f
+join users u on u.user_id = f.following_id and u.feed_pull = false
+join (
+    select fr.food_review_id, fr.user_id, fr.created_at,
+        row_number() over (partition by fr.user_id order by fr.created_at desc, fr.food_review_id desc) as rn
+    from food_reviews fr
+) latest on latest.user_id = f.following_id and latest.rn <= 100
+where not exists (
+    select 1 from feed_entries fe
+    where fe.owner_id = f.follower_id and fe.food_review_id = latest.food_review_id
+);
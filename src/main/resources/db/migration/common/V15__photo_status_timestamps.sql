@@ -0,0 +1,7 @@
+-- when photo_status last changed, so StalePhotoSweeper can tell pictures whose pipeline job was lost.
+-- pictures already pending are timed from this migration
+alter table foods add column if not exists photo_status_at timestamp(6);
+alter table restaurants add column if not exists photo_status_at timestamp(6);
+
+update foods set photo_status_at = current_timestamp where photo_status = 'PENDING';
+update restaurants set photo_status_at = current_timestamp where photo_status = 'PENDING';
@@ -0,0 +1,4 @@
+-- three B2 file ids don't fit in 255 characters; see PictureVariants.MAX_LENGTH
+alter table foods alter column photo_variants set data type varchar(1024);
+alter table restaurants alter column photo_variants set data type varchar(1024);
+alter table stored_pictures alter column photo_variants set data type varchar(1024);
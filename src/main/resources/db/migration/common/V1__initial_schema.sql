@@ -0,0 +1,98 @@
+-- the schema as hibernate's ddl-auto created it before the migrations took over. Databases that were created that
+-- way are baselined at this version (see spring.flyway.baseline-on-migrate), so this only runs on empty ones; every
+-- change since then is a later version.
+-- Kept to SQL both postgres and H2 (the test database) understand
+
+create table users (
+    user_id bigint generated by default as identity,
+    username varchar(255) not null,
+    bio varchar(128),
+    location varchar(128),
+    password_hash varchar(255) not null,
+    access_token varchar(255) not null,
+    email varchar(255) not null,
+    role smallint not null check (role between 0 and 3),
+    primary key (user_id),
+    constraint uk_users_username unique (username),
+    constraint uk_users_email unique (email),
+    constraint uk_users_access_token unique (access_token)
+);
+
+create table follows (
+    follower_id bigint not null,
+    following_id bigint not null,
+    primary key (follower_id, following_id),
+    constraint fk_follows_follower foreign key (follower_id) references users,
+    constraint fk_follows_following foreign key (following_id) references users
+);
+
+create table restaurants (
+    restaurant_id bigint generated by default as identity,
+    name varchar(255) not null,
+    short_name varchar(255),
+    photo varchar(255),
+    photo_id varchar(255),
+    description varchar(255) not null,
+    primary key (restaurant_id),
+    constraint uk_restaurants_name unique (name)
+);
+
+create table restaurant_follow (
+    restaurant_follow_id bigint generated by default as identity,
+    restaurant_id bigint not null,
+    user_id bigint not null,
+    primary key (restaurant_follow_id),
+    constraint uk_restaurant_follow_restaurant_user unique (restaurant_id, user_id),
+    constraint fk_restaurant_follow_restaurant foreign key (restaurant_id) references restaurants,
+    constraint fk_restaurant_follow_user foreign key (user_id) references users
+);
+
+create table foods (
+    food_id bigint generated by default as identity,
+    name varchar(255) not null,
+    description varchar(511) not null,
+    photo varchar(255),
+    photo_id varchar(255),
+    avg_rating float(53),
+    restaurant_id bigint,
+    primary key (food_id),
+    constraint uk_foods_name_restaurant unique (name, restaurant_id),
+    constraint fk_foods_restaurant foreign key (restaurant_id) references restaurants
+);
+
+create table food_reviews (
+    food_review_id bigint generated by default as identity,
+    review varchar(255),
+    rating integer,
+    user_id bigint not null,
+    food_id bigint not null,
+    created_at timestamp(6) not null,
+    primary key (food_review_id),
+    constraint uk_food_reviews_user_food unique (user_id, food_id),
+    constraint fk_food_reviews_user foreign key (user_id) references users,
+    constraint fk_food_reviews_food foreign key (food_id) references foods
+);
+
+create table review_like (
+    review_like_id bigint generated by default as identity,
+    food_review_id bigint not null,
+    user_id bigint not null,
+    liked_at timestamp(6),
+    primary key (review_like_id),
+    constraint fk_review_like_food_review foreign key (food_review_id) references food_reviews,
+    constraint fk_review_like_user foreign key (user_id) references users
+);
+
+create table reviews (
+    review_id bigint generated by default as identity,
+    review varchar(1023),
+    rating float(24),
+    user_id bigint,
+    food_id bigint,
+    primary key (review_id),
+    constraint uk_reviews_user unique (user_id),
+    constraint uk_reviews_food unique (food_id),
+    constraint uk_reviews_user_food unique (user_id, food_id),
+    constraint fk_reviews_user foreign key (user_id) references users,
+    constraint fk_reviews_food foreign key (food_id) references foods
+);
@@ -0,0 +1,7 @@
+-- food_reviews.like_count, kept up to date by FoodReviewLikeService instead of counting review_like on every read.
+-- "if not exists" here and in the later versions: databases that ran a build with ddl-auto after the baseline may
+-- already have the column
+alter table food_reviews add column if not exists like_count bigint default 0 not null;
+
+update food_reviews
+set like_count = (select count(*) from review_like rl where rl.food_review_id = food_reviews.food_review_id);
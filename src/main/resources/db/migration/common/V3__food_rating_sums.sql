@@ -0,0 +1,8 @@
+-- running sum and count of each food's ratings, which avg_rating is derived from on every review write
+alter table foods add column if not exists rating_sum bigint default 0 not null;
+alter table foods add column if not exists rating_count bigint default 0 not null;
+
+update foods
+set rating_sum = coalesce((select sum(fr.rating) from food_reviews fr where fr.food_id = foods.food_id), 0),
+    rating_count = (select count(*) from food_reviews fr where fr.food_id = foods.food_id),
+    avg_rating = (select avg(cast(fr.rating as double precision)) from food_reviews fr where fr.food_id = foods.food_id);
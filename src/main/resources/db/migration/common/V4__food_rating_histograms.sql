@@ -0,0 +1,7 @@
+-- one rating distribution per food, see FoodRatingHistogram
+create table if not exists food_rating_histograms (
+    food_id bigint not null,
+    buckets bigint array not null,
+    primary key (food_id),
+    constraint fk_food_rating_histograms_food foreign key (food_id) references foods on delete cascade
+);
@@ -0,0 +1,9 @@
+-- one rating distribution, sum and count per user, see UserRatingStats
+create table if not exists user_rating_stats (
+    user_id bigint not null,
+    buckets bigint array not null,
+    rating_sum bigint not null,
+    rating_count bigint not null,
+    primary key (user_id),
+    constraint fk_user_rating_stats_user foreign key (user_id) references users on delete cascade
+);
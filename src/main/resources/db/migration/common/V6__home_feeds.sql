@@ -0,0 +1,17 @@
+-- materialized home feeds, see FeedService
+alter table users add column if not exists feed_pull boolean default false not null;
+
+create table if not exists feed_entries (
+    feed_entry_id bigint generated by default as identity,
+    owner_id bigint not null,
+    food_review_id bigint not null,
+    author_id bigint not null,
+    created_at timestamp(6) not null,
+    primary key (feed_entry_id),
+    constraint uk_feed_entries_owner_review unique (owner_id, food_review_id),
+    constraint fk_feed_entries_owner foreign key (owner_id) references users on delete cascade,
+    constraint fk_feed_entries_food_review foreign key (food_review_id) references food_reviews on delete cascade
+);
+
+create index if not exists idx_feed_entries_owner_created on feed_entries (owner_id, created_at, food_review_id);
+create index if not exists idx_feed_entries_owner_author on feed_entries (owner_id, author_id);
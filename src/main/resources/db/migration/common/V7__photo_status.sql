@@ -0,0 +1,6 @@
+-- where a picture is in the PhotoPipeline. Pictures uploaded before it existed were uploaded inline, so they're ready
+alter table foods add column if not exists photo_status varchar(255);
+alter table restaurants add column if not exists photo_status varchar(255);
+
+update foods set photo_status = 'READY' where photo is not null and photo_status is null;
+update restaurants set photo_status = 'READY' where photo is not null and photo_status is null;
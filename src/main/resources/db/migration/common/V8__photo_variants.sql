@@ -0,0 +1,3 @@
+-- thumbnails of each picture, in the PictureVariants encoding; null for pictures uploaded before they existed
+alter table foods add column if not exists photo_variants varchar(255);
+alter table restaurants add column if not exists photo_variants varchar(255);
@@ -0,0 +1,12 @@
+-- content-addressed index of the pictures on B2, see PictureStore. The photo indexes back its reference counts
+create table if not exists stored_pictures (
+    content_hash varchar(64) not null,
+    photo_path varchar(255) not null,
+    photo_id varchar(255) not null,
+    photo_variants varchar(255),
+    primary key (content_hash)
+);
+
+create index if not exists idx_stored_picture_path on stored_pictures (photo_path);
+create index if not exists idx_food_photo on foods (photo);
+create index if not exists idx_restaurant_photo on restaurants (photo);
@@ -0,0 +1,6 @@
+-- pg_trgm index behind the review keyword searches in FoodReviewRepository. It indexes lower(review), matching their
+-- `lower(review) like '%kw%'` filters, so postgres answers those from the index instead of scanning the table.
+-- Postgres only: on H2 (tests) the same queries just scan
+create extension if not exists pg_trgm;
+
+create index if not exists idx_food_reviews_review_trgm on food_reviews using gin (lower(review) gin_trgm_ops);
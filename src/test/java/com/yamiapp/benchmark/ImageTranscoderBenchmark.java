@@ -0,0 +1,111 @@
+package com.yamiapp.benchmark;
+
+import com.yamiapp.util.ImageTranscoder;
+import com.yamiapp.util.PictureVariants;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import javax.imageio.ImageIO;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the ImageTranscoder against the ImageIO round-trip the photo pipeline used before it
+ * (decode, re-encode at default quality, then decode the JPEG again for the thumbnails), on a 12MP phone-sized picture.
+ * Run with: mvn -Pbenchmark -DskipTests test (the gc profiler's alloc.rate.norm is the number to watch)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xmx1g"})
+public class ImageTranscoderBenchmark {
+
+    @Param({"image/jpeg", "image/png"})
+    public String contentType;
+
+    private byte[] content;
+    private ImageTranscoder transcoder;
+
+    @Setup
+    public void setup() throws IOException {
+        // a smooth gradient with some noise, which compresses roughly like a real photo
+        BufferedImage image = new BufferedImage(4032, 3024, BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(42);
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                int r = (x * 255 / image.getWidth() + random.nextInt(16)) & 0xff;
+                int g = (y * 255 / image.getHeight() + random.nextInt(16)) & 0xff;
+                int b = ((x + y) * 255 / (image.getWidth() + image.getHeight()) + random.nextInt(16)) & 0xff;
+                image.setRGB(x, y, (r << 16) | (g << 8) | b);
+            }
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "image/png".equals(contentType) ? "png" : "jpeg", out);
+        content = out.toByteArray();
+        transcoder = new ImageTranscoder(2048, 0.85f, 2);
+    }
+
+    @Benchmark
+    public void transcoder(Blackhole bh) throws Exception {
+        bh.consume(transcoder.transcode(content, PictureVariants.SIZES));
+    }
+
+    // the clone() calls stand in for the MultipartFile#getBytes copies the old path made
+    @Benchmark
+    public void imageIoRoundTrip(Blackhole bh) throws IOException {
+        byte[] jpeg = content;
+        if (!"image/jpeg".equals(contentType)) {
+            BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(content.clone()));
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            ImageIO.write(decoded, "JPEG", out);
+            jpeg = out.toByteArray();
+        }
+        bh.consume(jpeg);
+
+        BufferedImage source = ImageIO.read(new ByteArrayInputStream(jpeg.clone()));
+        int[] descending = Arrays.stream(PictureVariants.SIZES).boxed().sorted(Comparator.reverseOrder()).mapToInt(Integer::intValue).toArray();
+        for (int size : descending) {
+            if (Math.max(source.getWidth(), source.getHeight()) <= size) {
+                continue;
+            }
+            source = scaleDown(source, size);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            ImageIO.write(source, "JPEG", out);
+            bh.consume(out.toByteArray());
+        }
+    }
+
+    // the scaling the old path used, copied so the baseline stays put
+    private static BufferedImage scaleDown(BufferedImage image, int maxDimension) {
+        double scale = (double) maxDimension / Math.max(image.getWidth(), image.getHeight());
+        int targetWidth = Math.max(1, (int) Math.round(image.getWidth() * scale));
+        int targetHeight = Math.max(1, (int) Math.round(image.getHeight() * scale));
+
+        BufferedImage current = image;
+        int width = image.getWidth();
+        int height = image.getHeight();
+        do {
+            width = Math.max(targetWidth, width / 2);
+            height = Math.max(targetHeight, height / 2);
+
+            BufferedImage next = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            Graphics2D g = next.createGraphics();
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.drawImage(current, 0, 0, width, height, null);
+            g.dispose();
+            current = next;
+        } while (width != targetWidth || height != targetHeight);
+        return current;
+    }
+}
@@ -0,0 +1,97 @@
+package com.yamiapp.benchmark;
+
+import com.yamiapp.Yami;
+import com.yamiapp.config.TestConfig;
+import com.yamiapp.util.Bulkheads;
+import io.github.cdimascio.dotenv.Dotenv;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Load test for yami.virtual-threads.enabled: 64 concurrent clients against an endpoint that does what most of
+ * ours do, one quick query plus a ~20ms blocking call to a remote service (simulated inside the redis bulkhead).
+ * With undertow's 4 workers throughput tops out around 4 / 20ms; with virtual threads it's bounded by the bulkhead.
+ * Run with: mvn -Pbenchmark -DskipTests test
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Threads(64)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 10)
+@Fork(1)
+public class RequestExecutionBenchmark {
+
+    private static final long DOWNSTREAM_LATENCY_MS = 20;
+
+    @Param({"false", "true"})
+    public boolean virtualThreads;
+
+    private ConfigurableApplicationContext context;
+    private HttpClient client;
+    private HttpRequest request;
+
+    @Setup
+    public void setup() {
+        Dotenv.configure().ignoreIfMissing().load()
+            .entries().forEach(e -> System.setProperty(e.getKey(), e.getValue()));
+
+        context = new SpringApplicationBuilder(Yami.class, TestConfig.class)
+            .profiles("test")
+            .properties(
+                "server.port=0",
+                "yami.virtual-threads.enabled=" + virtualThreads,
+                "yami.benchmark.endpoint.enabled=true"
+            )
+            .run();
+
+        int port = context.getEnvironment().getRequiredProperty("local.server.port", Integer.class);
+        client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/benchmark/request")).build();
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public int request() throws Exception {
+        HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
+        if (response.statusCode() != 200) {
+            throw new IllegalStateException("Unexpected status " + response.statusCode());
+        }
+        return response.statusCode();
+    }
+
+    @RestController
+    @ConditionalOnProperty(name = "yami.benchmark.endpoint.enabled", havingValue = "true")
+    public static class BenchmarkController {
+
+        private final JdbcTemplate jdbcTemplate;
+        private final Bulkheads bulkheads;
+
+        public BenchmarkController(JdbcTemplate jdbcTemplate, Bulkheads bulkheads) {
+            this.jdbcTemplate = jdbcTemplate;
+            this.bulkheads = bulkheads;
+        }
+
+        @GetMapping("/benchmark/request")
+        public String request() throws InterruptedException {
+            jdbcTemplate.queryForObject("select 1", Integer.class);
+            bulkheads.redis().run(() -> Thread.sleep(DOWNSTREAM_LATENCY_MS));
+            return "ok";
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.yamiapp.cache;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// the cache only touches the filesystem, so it's tested on its own rather than through the picture endpoints
+public class ImageDiskCacheTest {
+
+    private static final int PICTURE_SIZE = 100;
+
+    @TempDir
+    private Path directory;
+
+    private ImageDiskCache cache;
+    private final AtomicInteger downloads = new AtomicInteger();
+
+    @BeforeEach
+    public void setup() {
+        // room for three pictures
+        cache = new ImageDiskCache(directory.toString(), 3 * PICTURE_SIZE);
+        downloads.set(0);
+    }
+
+    private ImageDiskCache.Downloader picture(int size) {
+        return target -> {
+            downloads.incrementAndGet();
+            try {
+                Files.write(target, new byte[size]);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        };
+    }
+
+    private CachedImageResource get(String photoPath, String photoId) throws Exception {
+        return cache.get(photoPath, photoId, picture(PICTURE_SIZE));
+    }
+
+    @Test
+    public void repeatedReadsAreServedFromDisk() throws Exception {
+        CachedImageResource first = get("food/1", "id1");
+        CachedImageResource second = get("food/1", "id1");
+
+        assertEquals(1, downloads.get());
+        assertEquals(first.getFile(), second.getFile());
+        assertEquals("food/1", second.getFilename());
+        assertEquals(PICTURE_SIZE, cache.size());
+    }
+
+    @Test
+    public void leastRecentlyUsedPictureIsEvictedFirst() throws Exception {
+        CachedImageResource a = get("food/a", "id");
+        get("food/b", "id");
+        get("food/c", "id");
+        // a becomes the most recently used, so b is the eldest when d needs room
+        get("food/a", "id");
+        get("food/d", "id");
+
+        assertEquals(4, downloads.get());
+        assertEquals(3 * PICTURE_SIZE, cache.size());
+        assertTrue(Files.exists(a.getFile().toPath()));
+
+        get("food/a", "id");
+        get("food/c", "id");
+        get("food/d", "id");
+        assertEquals(4, downloads.get(), "a, c and d should still be cached");
+        get("food/b", "id");
+        assertEquals(5, downloads.get(), "b should have been evicted");
+    }
+
+    @Test
+    public void evictedFilesAreDeleted() throws Exception {
+        CachedImageResource a = get("food/a", "id");
+        get("food/b", "id");
+        get("food/c", "id");
+        get("food/d", "id");
+
+        assertFalse(Files.exists(a.getFile().toPath()));
+    }
+
+    @Test
+    public void invalidateDropsEveryVersionOfAPath() throws Exception {
+        CachedImageResource v1 = get("food/1", "v1");
+        CachedImageResource v2 = get("food/1", "v2");
+        CachedImageResource other = get("food/10", "v1");
+
+        cache.invalidate("food/1");
+
+        assertFalse(Files.exists(v1.getFile().toPath()));
+        assertFalse(Files.exists(v2.getFile().toPath()));
+        // "food/10" shares the prefix but not the path
+        assertTrue(Files.exists(other.getFile().toPath()));
+        assertEquals(PICTURE_SIZE, cache.size());
+
+        get("food/1", "v2");
+        assertEquals(4, downloads.get());
+    }
+
+    @Test
+    public void picturesLargerThanTheCacheAreNotKept() throws Exception {
+        CachedImageResource resource = cache.get("food/huge", "id", picture(4 * PICTURE_SIZE));
+
+        assertNull(resource);
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void zeroMaxBytesDisablesTheCache() throws Exception {
+        ImageDiskCache disabled = new ImageDiskCache(directory.resolve("disabled").toString(), 0);
+
+        assertFalse(disabled.isEnabled());
+        assertNull(disabled.get("food/1", "id", target -> fail("a disabled cache shouldn't download anything")));
+    }
+}
@@ -0,0 +1,139 @@
+package com.yamiapp.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.yamiapp.cache.AccessTokenCache;
+import com.yamiapp.model.Role;
+import com.yamiapp.model.User;
+import com.yamiapp.model.dto.UserDTO;
+import com.yamiapp.repo.UserRepository;
+import io.github.cdimascio.dotenv.Dotenv;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.web.servlet.MockMvc;
+
+import static com.yamiapp.util.TestUtils.createUserWithRole;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.patch;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+// the test profile turns the token cache off, since most tests edit users straight through the repositories
+@SpringBootTest
+@AutoConfigureMockMvc
+@ActiveProfiles("test")
+@TestPropertySource(properties = "yami.cache.token.ttl-seconds=60")
+public class AccessTokenCacheTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private AccessTokenCache accessTokenCache;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private final UserDTO defaultUser = new UserDTO("cacheduser", "password123", "bio", "location", "cached@example.com");
+    private User createdUser;
+
+    @BeforeAll
+    public static void initialize() {
+        Dotenv dotenv = Dotenv.load();
+        dotenv.entries().forEach(dotenvEntry -> System.setProperty(dotenvEntry.getKey(), dotenvEntry.getValue()));
+    }
+
+    @BeforeEach
+    public void setup() throws Exception {
+        accessTokenCache.invalidateAll();
+        createdUser = createUserWithRole(mockMvc, objectMapper, userRepository, defaultUser, Role.USER);
+    }
+
+    @AfterEach
+    public void cleanup() {
+        userRepository.deleteAll();
+    }
+
+    private double tokenLookups(String result) {
+        return meterRegistry.get("cache.gets").tag("cache", "access-tokens").tag("result", result).functionCounter().count();
+    }
+
+    @Test
+    public void repeatedRequestsAreServedFromTheCache() throws Exception {
+        double hits = tokenLookups("hit");
+        double misses = tokenLookups("miss");
+
+        for (int i = 0; i < 3; i++) {
+            mockMvc.perform(get("/user/feed")
+                    .param("cursor", "")
+                    .header(HttpHeaders.AUTHORIZATION, "Bearer " + createdUser.getAccessToken()))
+                    .andExpect(status().isOk());
+        }
+
+        assertEquals(misses + 1, tokenLookups("miss"));
+        assertEquals(hits + 2, tokenLookups("hit"));
+    }
+
+    @Test
+    public void rotatedTokenIsRejectedRightAway() throws Exception {
+        String oldToken = createdUser.getAccessToken();
+        mockMvc.perform(get("/user/feed")
+                .param("cursor", "")
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + oldToken))
+                .andExpect(status().isOk());
+
+        mockMvc.perform(patch("/user")
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + oldToken)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(defaultUser.copy().withPassword("DifferentPassword"))))
+                .andExpect(status().isOk());
+
+        mockMvc.perform(get("/user/feed")
+                .param("cursor", "")
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + oldToken))
+                .andExpect(status().isUnauthorized());
+        String newToken = userRepository.findById(createdUser.getId()).orElseThrow().getAccessToken();
+        mockMvc.perform(get("/user/feed")
+                .param("cursor", "")
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + newToken))
+                .andExpect(status().isOk());
+    }
+
+    @Test
+    public void editsAreAppliedToTheCurrentUserAfterCaching() throws Exception {
+        // caches the token, then edits twice; each edit must start from what the previous one saved
+        mockMvc.perform(get("/user/feed")
+                .param("cursor", "")
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + createdUser.getAccessToken()))
+                .andExpect(status().isOk());
+
+        mockMvc.perform(patch("/user")
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + createdUser.getAccessToken())
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"bio\":\"first edit\"}"))
+                .andExpect(status().isOk());
+        mockMvc.perform(patch("/user")
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + createdUser.getAccessToken())
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"location\":\"second edit\"}"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.bio").value("first edit"))
+                .andExpect(jsonPath("$.location").value("second edit"));
+    }
+}
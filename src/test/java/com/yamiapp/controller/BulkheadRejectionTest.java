@@ -0,0 +1,87 @@
+package com.yamiapp.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.yamiapp.exception.ErrorStrings;
+import com.yamiapp.model.Role;
+import com.yamiapp.model.dto.UserDTO;
+import com.yamiapp.repo.UserRepository;
+import io.github.cdimascio.dotenv.Dotenv;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.util.Map;
+
+import static com.yamiapp.util.TestUtils.createUserWithRole;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+// redis gets no slots at all, so every call to it is turned away by its bulkhead without ever reaching redis
+@SpringBootTest
+@AutoConfigureMockMvc
+@ActiveProfiles("test")
+@TestPropertySource(properties = {
+    "yami.bulkhead.redis.max-concurrent=0",
+    "yami.bulkhead.redis.max-wait-ms=0"
+})
+public class BulkheadRejectionTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private final UserDTO defaultUser = new UserDTO("bulkheaduser", "password123", "bio", "location", "bulkhead@example.com");
+
+    @BeforeAll
+    public static void initialize() {
+        Dotenv dotenv = Dotenv.load();
+        dotenv.entries().forEach(dotenvEntry -> System.setProperty(dotenvEntry.getKey(), dotenvEntry.getValue()));
+    }
+
+    @BeforeEach
+    public void setup() throws Exception {
+        createUserWithRole(mockMvc, objectMapper, userRepository, defaultUser, Role.USER);
+    }
+
+    @AfterEach
+    public void cleanup() {
+        userRepository.deleteAll();
+    }
+
+    private double rejectedRedisCalls() {
+        return meterRegistry.get("yami.downstream.calls").tag("downstream", "redis").tag("outcome", "rejected").counter().count();
+    }
+
+    @Test
+    public void rejectedCallsAreAnsweredWith503() throws Exception {
+        double rejected = rejectedRedisCalls();
+
+        mockMvc.perform(post("/user/request-reset")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(Map.of("email", defaultUser.getEmail()))))
+                .andExpect(status().isServiceUnavailable())
+                .andExpect(jsonPath("$.status").value("error"))
+                .andExpect(jsonPath("$.message").value(ErrorStrings.DOWNSTREAM_BUSY.getMessage()));
+
+        assertEquals(rejected + 1, rejectedRedisCalls());
+    }
+}
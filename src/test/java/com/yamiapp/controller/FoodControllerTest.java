@@ -12,7 +12,9 @@ import com.yamiapp.model.dto.RestaurantDTO;
 import com.yamiapp.model.dto.UserDTO;
 import com.yamiapp.repo.FoodRepository;
 import com.yamiapp.repo.RestaurantRepository;
+import com.yamiapp.repo.StoredPictureRepository;
 import com.yamiapp.repo.UserRepository;
+import com.yamiapp.service.PictureStore;
 import com.yamiapp.service.RestaurantService;
 import com.yamiapp.util.MessageStrings;
 import io.github.cdimascio.dotenv.Dotenv;
@@ -32,6 +34,9 @@ import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
@@ -45,6 +50,7 @@ import static org.springframework.test.web.servlet.request.MockMvcRequestBuilder
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 
 @SpringBootTest
 @AutoConfigureMockMvc
@@ -67,6 +73,9 @@ public class FoodControllerTest {
     @Autowired
     private FoodRepository foodRepository;
 
+    @Autowired
+    private StoredPictureRepository storedPictureRepository;
+
     @Autowired
     private FakeBackblazeService backblazeService;
 
@@ -646,6 +655,95 @@ public class FoodControllerTest {
 
     }
 
+    @Test
+    public void testGetFoodImageNotModified() throws Exception {
+        Food createdFood = createTestFood();
+        String etag = mockMvc.perform(get("/food/" + createdFood.getId() + "/picture"))
+                .andExpect(status().isOk())
+                .andExpect(header().exists(HttpHeaders.ETAG))
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+        mockMvc.perform(get("/food/" + createdFood.getId() + "/picture")
+                        .header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpect(status().isNotModified());
+    }
+
+    @Test
+    public void testGetFoodThumbnailSuccess() throws Exception {
+        Food createdFood = createTestFood();
+        mockMvc.perform(get("/food/" + createdFood.getId() + "/picture").param("size", "64"))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(ContentType.IMAGE_JPEG.getMimeType()));
+    }
+
+    @Test
+    public void testGetFoodImageInvalidSizeError() throws Exception {
+        Food createdFood = createTestFood();
+        mockMvc.perform(get("/food/" + createdFood.getId() + "/picture").param("size", "0"))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.status").value("error"))
+                .andExpect(jsonPath("$.message").value(ErrorStrings.INVALID_PICTURE_SIZE.getMessage()));
+    }
+
+    @Test
+    public void testIdenticalPicturesAreStoredOnce() throws Exception {
+        // the restaurant created in setup was uploaded with the same bytes
+        Food createdFood = createTestFood();
+        Restaurant restaurant = restaurantRepository.findAll().getFirst();
+        assertEquals(restaurant.getPhotoPath(), createdFood.getPhotoPath());
+        assertEquals(restaurant.getPhotoId(), createdFood.getPhotoId());
+    }
+
+    @Test
+    public void testSharedPictureIsOnlyReleasedWithItsLastReference() throws Exception {
+        Food createdFood = createTestFood();
+        String contentHash = PictureStore.hash(testImageBytes);
+
+        mockMvc.perform(delete("/food/" + createdFood.getId())
+                        .header(HttpHeaders.AUTHORIZATION, "Bearer " + createdAdminUser.getAccessToken())
+                        .param("username", adminUser.getUsername())
+                        .param("password", adminUser.getPassword()))
+                .andExpect(status().isOk());
+        // the restaurant still points at it
+        assertTrue(storedPictureRepository.existsById(contentHash));
+        mockMvc.perform(get("/restaurant/" + createdRestaurant.getId() + "/picture"))
+                .andExpect(status().isOk());
+
+        mockMvc.perform(delete("/restaurant/" + createdRestaurant.getId())
+                        .header(HttpHeaders.AUTHORIZATION, "Bearer " + createdAdminUser.getAccessToken())
+                        .param("username", adminUser.getUsername())
+                        .param("password", adminUser.getPassword()))
+                .andExpect(status().isOk());
+        assertFalse(storedPictureRepository.existsById(contentHash));
+    }
+
+    @Test
+    public void testDeletingARestaurantReleasesItsFoodsPictures() throws Exception {
+        // a picture of its own, so only the food references it
+        BufferedImage image = new BufferedImage(16, 16, BufferedImage.TYPE_INT_RGB);
+        image.setRGB(0, 0, 0x00ff00);
+        ByteArrayOutputStream foodPicture = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", foodPicture);
+        String contentHash = PictureStore.hash(foodPicture.toByteArray());
+
+        mockMvc.perform(MockMvcRequestBuilders.multipart("/food")
+                        .file(new MockMultipartFile("photo", "food.png", MediaType.IMAGE_PNG_VALUE, foodPicture.toByteArray()))
+                        .header(HttpHeaders.AUTHORIZATION, "Bearer " + createdAdminUser.getAccessToken())
+                        .param("name", "strogonoff")
+                        .param("description", "delicious brazilian-style strogonoff")
+                        .param("restaurantId", createdRestaurant.getId().toString()))
+                .andExpect(status().isOk());
+        assertTrue(storedPictureRepository.existsById(contentHash));
+
+        mockMvc.perform(delete("/restaurant/" + createdRestaurant.getId())
+                        .header(HttpHeaders.AUTHORIZATION, "Bearer " + createdAdminUser.getAccessToken())
+                        .param("username", adminUser.getUsername())
+                        .param("password", adminUser.getPassword()))
+                .andExpect(status().isOk());
+        assertTrue(foodRepository.findAll().isEmpty());
+        assertFalse(storedPictureRepository.existsById(contentHash));
+    }
+
     @Test
     public void testGetFoodWrongIdError() throws Exception {
         Food createdFood = createTestFood();
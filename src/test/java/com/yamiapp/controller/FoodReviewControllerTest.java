@@ -8,6 +8,8 @@ import com.yamiapp.model.*;
 import com.yamiapp.model.dto.FoodDTO;
 import com.yamiapp.model.dto.FoodReviewDTO;
 import com.yamiapp.model.dto.UserDTO;
+import com.yamiapp.repo.FeedEntryRepository;
+import com.yamiapp.repo.FoodRatingHistogramRepository;
 import com.yamiapp.repo.FoodRepository;
 import com.yamiapp.repo.FoodReviewRepository;
 import com.yamiapp.repo.RestaurantRepository;
@@ -89,6 +91,10 @@ public class FoodReviewControllerTest {
     private FoodReviewRepository foodReviewRepository;
     @Autowired
     private FoodReviewService foodReviewService;
+    @Autowired
+    private FoodRatingHistogramRepository foodHistogramRepository;
+    @Autowired
+    private FeedEntryRepository feedEntryRepository;
 
     @BeforeAll
     public static void initialize() {
@@ -161,6 +167,27 @@ public class FoodReviewControllerTest {
         createDefaultFoodReview(createdAdminUser);
     }
 
+    @Test
+    public void createdFoodReviewIsReturnedAndFannedOut() throws Exception {
+        mockMvc.perform(post("/user/follow/" + createdAdminUser.getId())
+                        .header("Authorization", "Bearer " + createdRegularUser.getAccessToken()))
+                .andExpect(status().isOk());
+
+        mockMvc.perform(post("/food/review/" + createdFood.getId())
+                        .contentType(ContentType.APPLICATION_JSON.getMimeType())
+                        .content(objectMapper.writeValueAsString(foodReviewDTO))
+                        .header("Authorization", "Bearer " + createdAdminUser.getAccessToken()))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.userId").value(createdAdminUser.getId()))
+                .andExpect(jsonPath("$.username").value(createdAdminUser.getUsername()))
+                .andExpect(jsonPath("$.restaurantId").value(createdRestaurant.getId()))
+                .andExpect(jsonPath("$.restaurantName").value(createdRestaurant.getName()));
+
+        List<FeedEntry> entries = feedEntryRepository.findAll();
+        assertEquals(1, entries.size());
+        assertEquals(createdAdminUser.getId(), entries.getFirst().getAuthorId());
+    }
+
     @Test
     public void createFoodReviewWithoutToken() throws Exception {
         mockMvc.perform(post("/food/review/" + createdFood.getId())
@@ -327,6 +354,65 @@ public class FoodReviewControllerTest {
         assertEquals(0, foodReviews.size());
     }
 
+    @Test
+    public void reviewWritesUpdateRestaurantCounts() throws Exception {
+        createDefaultFoodReview(createdRegularUser);
+        FoodReview review = createDefaultFoodReview(createdAdminUser);
+
+        mockMvc.perform(get("/restaurant/" + createdRestaurant.getId()))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.foodCount").value(1))
+                .andExpect(jsonPath("$.reviewCount").value(2));
+
+        mockMvc.perform(delete("/food/review/" + review.getId())
+                .contentType(ContentType.APPLICATION_JSON.getMimeType())
+                .header("Authorization", "Bearer " + createdAdminUser.getAccessToken()))
+                .andExpect(status().isOk());
+
+        mockMvc.perform(get("/restaurant/" + createdRestaurant.getId()))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.reviewCount").value(1));
+    }
+
+    @Test
+    public void likesAndUnlikesUpdateLikeCount() throws Exception {
+        FoodReview review = createDefaultFoodReview(createdAdminUser);
+
+        like(review, createdRegularUser).andExpect(status().isNoContent());
+        like(review, createdModeratorUser).andExpect(status().isNoContent());
+        expectLikeCount(review, 2);
+
+        // a repeated like is rejected and not counted again
+        like(review, createdRegularUser).andExpect(status().isConflict());
+        expectLikeCount(review, 2);
+
+        unlike(review, createdRegularUser).andExpect(status().isNoContent());
+        expectLikeCount(review, 1);
+
+        // unliking a review that isn't liked leaves the count alone
+        unlike(review, createdRegularUser).andExpect(status().isNoContent());
+        expectLikeCount(review, 1);
+
+        unlike(review, createdModeratorUser).andExpect(status().isNoContent());
+        expectLikeCount(review, 0);
+    }
+
+    private ResultActions like(FoodReview review, User user) throws Exception {
+        return mockMvc.perform(post("/food/review/" + review.getId() + "/like")
+                .header("Authorization", "Bearer " + user.getAccessToken()));
+    }
+
+    private ResultActions unlike(FoodReview review, User user) throws Exception {
+        return mockMvc.perform(delete("/food/review/" + review.getId() + "/like")
+                .header("Authorization", "Bearer " + user.getAccessToken()));
+    }
+
+    private void expectLikeCount(FoodReview review, int likeCount) throws Exception {
+        mockMvc.perform(get("/food/review/" + review.getId()))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.likeCount").value(likeCount));
+    }
+
     @Test
     public void deleteFoodReviewWithoutBeingFoodOwner() throws Exception {
         FoodReview review = createDefaultFoodReview(createdModeratorUser);
@@ -609,6 +695,17 @@ public class FoodReviewControllerTest {
                 .andExpect(jsonPath("$.content[0].id").value(review1.getId()));
     }
 
+    @Test
+    public void getFoodReviewsKeywordMatchesWildcardsLiterally() throws Exception {
+        FoodReview review1 = createDefaultFoodReview(createdRegularUser, "100% beef");
+        createDefaultFoodReview(createdAdminUser, "100 grams of beef");
+
+        mockMvc.perform(get("/food/" + createdFood.getId() + "/reviews").param("keyword", "100%"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.content.length()").value(1))
+                .andExpect(jsonPath("$.content[0].id").value(review1.getId()));
+    }
+
     @Test
     public void getUserReviewsSuccess() throws Exception {
         // Create 2 reviews from regular user
@@ -685,6 +782,108 @@ public class FoodReviewControllerTest {
         }
     }
 
+    @Test
+    public void foodReviewUpdateAndDeleteUpdateUserStats() throws Exception {
+        FoodReview review = createDefaultFoodReview(createdRegularUser);
+        mockMvc.perform(patch("/food/review/" + review.getId())
+                        .contentType(ContentType.APPLICATION_JSON.getMimeType())
+                        .content(objectMapper.writeValueAsString(FoodReviewDTO.builder().rating(4).build()))
+                        .header("Authorization", "Bearer " + createdRegularUser.getAccessToken()))
+                .andExpect(status().isOk());
+
+        mockMvc.perform(get("/user/" + createdRegularUser.getId() + "/stats"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.averageRating").value(4.0))
+                .andExpect(jsonPath("$.ratingDistribution.4").value(1))
+                .andExpect(jsonPath("$.ratingDistribution." + foodReviewDTO.getRating()).value(0));
+
+        mockMvc.perform(delete("/food/review/" + review.getId())
+                        .header("Authorization", "Bearer " + createdRegularUser.getAccessToken()))
+                .andExpect(status().isOk());
+
+        mockMvc.perform(get("/user/" + createdRegularUser.getId() + "/stats"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.averageRating").value(0.0))
+                .andExpect(jsonPath("$.ratingDistribution.4").value(0));
+    }
+
+    @Test
+    public void rebuildingRatingsRecomputesFoodHistograms() throws Exception {
+        createDefaultFoodReview(createdRegularUser);
+        createDefaultFoodReview(createdAdminUser);
+
+        // drift the histogram away from the reviews
+        FoodRatingHistogram histogram = foodHistogramRepository.findById(createdFood.getId()).orElseThrow();
+        histogram.add(foodReviewDTO.getRating(), 5);
+        histogram.add(3, 1);
+        foodHistogramRepository.save(histogram);
+
+        mockMvc.perform(post("/food/ratings/rebuild")
+                        .header("Authorization", "Bearer " + createdAdminUser.getAccessToken()))
+                .andExpect(status().isOk());
+
+        mockMvc.perform(get("/food/" + createdFood.getId() + "/stats"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$['" + foodReviewDTO.getRating() + "']").value(2))
+                .andExpect(jsonPath("$['3']").value(0));
+        assertTrue(foodHistogramRepository.existsById(createdFood.getId()), "the rebuild should keep the histogram");
+    }
+
+    @Test
+    public void getFeedWithCursorSuccess() throws Exception {
+        // reviews written before the follow are backfilled, the one written after it is fanned out
+        createFoodReviewBatchFromOneUser(createdAdminUser, 3);
+        mockMvc.perform(post("/user/follow/" + createdAdminUser.getId())
+                .header("Authorization", "Bearer " + createdRegularUser.getAccessToken()))
+                .andExpect(status().isOk());
+        createDefaultFoodReview(createdAdminUser, "review after follow");
+
+        MvcResult firstPage = mockMvc.perform(get("/user/feed")
+                .param("cursor", "")
+                .param("count", "3")
+                .header("Authorization", "Bearer " + createdRegularUser.getAccessToken()))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.content.length()").value(3))
+                .andExpect(jsonPath("$.content[0].review").value("review after follow"))
+                .andExpect(jsonPath("$.nextCursor").isString())
+                .andReturn();
+        String cursor = objectMapper.readTree(firstPage.getResponse().getContentAsString()).path("nextCursor").asText();
+
+        mockMvc.perform(get("/user/feed")
+                .param("cursor", cursor)
+                .param("count", "3")
+                .header("Authorization", "Bearer " + createdRegularUser.getAccessToken()))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.content.length()").value(1))
+                .andExpect(jsonPath("$.nextCursor").isEmpty());
+    }
+
+    @Test
+    public void getFeedWithOffsetSuccess() throws Exception {
+        createFoodReviewBatchFromOneUser(createdAdminUser, 3);
+        mockMvc.perform(post("/user/follow/" + createdAdminUser.getId())
+                .header("Authorization", "Bearer " + createdRegularUser.getAccessToken()))
+                .andExpect(status().isOk());
+        createDefaultFoodReview(createdAdminUser, "review after follow");
+
+        mockMvc.perform(get("/user/feed")
+                .param("offset", "0")
+                .param("count", "3")
+                .header("Authorization", "Bearer " + createdRegularUser.getAccessToken()))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.content.length()").value(3))
+                .andExpect(jsonPath("$.content[0].review").value("review after follow"))
+                .andExpect(jsonPath("$.totalElements").value(4));
+
+        mockMvc.perform(get("/user/feed")
+                .param("offset", "1")
+                .param("count", "3")
+                .header("Authorization", "Bearer " + createdRegularUser.getAccessToken()))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.content.length()").value(1))
+                .andExpect(jsonPath("$.totalElements").value(4));
+    }
+
     public FoodReview createDefaultFoodReview(User u) throws Exception {
         return createDefaultFoodReview(u, foodReviewDTO.getReview());
     }
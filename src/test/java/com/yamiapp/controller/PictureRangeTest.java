@@ -0,0 +1,143 @@
+package com.yamiapp.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.yamiapp.config.TestConfig;
+import com.yamiapp.model.Restaurant;
+import com.yamiapp.model.Role;
+import com.yamiapp.model.User;
+import com.yamiapp.model.dto.UserDTO;
+import com.yamiapp.repo.RestaurantRepository;
+import com.yamiapp.repo.StoredPictureRepository;
+import com.yamiapp.repo.UserRepository;
+import io.github.cdimascio.dotenv.Dotenv;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+import static com.yamiapp.util.TestUtils.createUserWithRole;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+// the test profile turns the image disk cache off; range requests are only honored on pictures served from it
+@SpringBootTest
+@AutoConfigureMockMvc
+@Import(TestConfig.class)
+@ActiveProfiles("test")
+@TestPropertySource(properties = {
+    "yami.cache.images.max-bytes=10485760",
+    "yami.cache.images.dir=${java.io.tmpdir}/yami-images-range-test"
+})
+public class PictureRangeTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private RestaurantRepository restaurantRepository;
+
+    @Autowired
+    private StoredPictureRepository storedPictureRepository;
+
+    private final UserDTO adminUser = new UserDTO("rangeadmin", "adminpassword123", "admin bio", "admin location", "rangeadmin@example.com");
+    private Restaurant createdRestaurant;
+
+    @BeforeAll
+    public static void initialize() {
+        Dotenv dotenv = Dotenv.load();
+        dotenv.entries().forEach(dotenvEntry -> System.setProperty(dotenvEntry.getKey(), dotenvEntry.getValue()));
+    }
+
+    @BeforeEach
+    public void setup() throws Exception {
+        // this context has its own fake backblaze, so pictures indexed by other test classes can't be deduplicated against
+        storedPictureRepository.deleteAll();
+        User admin = createUserWithRole(mockMvc, objectMapper, userRepository, adminUser, Role.ADMIN);
+
+        MockMultipartFile photo = new MockMultipartFile(
+                "photo",
+                "photo.jpg",
+                MediaType.IMAGE_JPEG_VALUE,
+                Files.readAllBytes(Paths.get("src/test/resources/test-image.png"))
+        );
+        mockMvc.perform(MockMvcRequestBuilders.multipart("/restaurant")
+                        .file(photo)
+                        .param("name", "RangeRestaurant")
+                        .param("shortName", "Range")
+                        .param("description", "RestaurantDescription")
+                        .header(HttpHeaders.AUTHORIZATION, "Bearer " + admin.getAccessToken()))
+                .andExpect(status().isOk());
+        createdRestaurant = restaurantRepository.findAll().getFirst();
+    }
+
+    @AfterEach
+    public void cleanup() {
+        restaurantRepository.deleteAll();
+        userRepository.deleteAll();
+        storedPictureRepository.deleteAll();
+    }
+
+    private byte[] fullPicture() throws Exception {
+        return mockMvc.perform(get("/restaurant/" + createdRestaurant.getId() + "/picture"))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsByteArray();
+    }
+
+    @Test
+    public void rangeRequestReturnsPartialContent() throws Exception {
+        byte[] full = fullPicture();
+
+        byte[] part = mockMvc.perform(get("/restaurant/" + createdRestaurant.getId() + "/picture")
+                        .header(HttpHeaders.RANGE, "bytes=10-19"))
+                .andExpect(status().isPartialContent())
+                .andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes 10-19/" + full.length))
+                .andExpect(header().exists(HttpHeaders.ETAG))
+                .andReturn().getResponse().getContentAsByteArray();
+
+        assertArrayEquals(Arrays.copyOfRange(full, 10, 20), part);
+    }
+
+    @Test
+    public void suffixRangeReturnsTheEndOfThePicture() throws Exception {
+        byte[] full = fullPicture();
+
+        byte[] part = mockMvc.perform(get("/restaurant/" + createdRestaurant.getId() + "/picture")
+                        .header(HttpHeaders.RANGE, "bytes=-5"))
+                .andExpect(status().isPartialContent())
+                .andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes " + (full.length - 5) + "-" + (full.length - 1) + "/" + full.length))
+                .andReturn().getResponse().getContentAsByteArray();
+
+        assertArrayEquals(Arrays.copyOfRange(full, full.length - 5, full.length), part);
+    }
+
+    @Test
+    public void unsatisfiableRangeIsRejected() throws Exception {
+        byte[] full = fullPicture();
+
+        mockMvc.perform(get("/restaurant/" + createdRestaurant.getId() + "/picture")
+                        .header(HttpHeaders.RANGE, "bytes=" + (full.length + 10) + "-"))
+                .andExpect(status().isRequestedRangeNotSatisfiable());
+    }
+}
@@ -3,6 +3,7 @@ package com.yamiapp.controller;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.yamiapp.config.TestConfig;
 import com.yamiapp.exception.ErrorStrings;
+import com.yamiapp.model.PhotoStatus;
 import com.yamiapp.model.Restaurant;
 import com.yamiapp.model.Role;
 import com.yamiapp.model.User;
@@ -10,6 +11,7 @@ import com.yamiapp.model.dto.UserDTO;
 import com.yamiapp.model.dto.UserLoginDTO;
 import com.yamiapp.repo.RestaurantRepository;
 import com.yamiapp.repo.UserRepository;
+import com.yamiapp.service.StalePhotoSweeper;
 import com.yamiapp.util.MessageStrings;
 import io.github.cdimascio.dotenv.Dotenv;
 import org.junit.jupiter.api.AfterEach;
@@ -22,14 +24,19 @@ import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.context.annotation.Import;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.mock.web.MockMultipartFile;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
 
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Optional;
 
@@ -57,6 +64,12 @@ public class RestaurantControllerTest {
     @Autowired
     private RestaurantRepository restaurantRepository;
 
+    @Autowired
+    private StalePhotoSweeper stalePhotoSweeper;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
     private final UserDTO adminUser = new UserDTO("adminuser", "adminpassword123", "admin bio", "admin location", "admin@example.com");
     private final UserDTO regularUser = new UserDTO("regularuser", "userpassword123", "user bio", "user location", "user@example.com");
     private final UserDTO moderatorUser = new UserDTO("moderatoruser", "modpassword123", "mod bio", "mod location", "mod@example.com");
@@ -342,6 +355,44 @@ public class RestaurantControllerTest {
         assertEquals("Updated By Moderator", updatedRestaurant.get().getName());
     }
 
+    @Test
+    public void testUpdateRestaurantWithDuplicateNameKeepsPicture() throws Exception {
+        Restaurant taken = createTestRestaurant();
+        mockMvc.perform(MockMvcRequestBuilders.multipart("/restaurant")
+                        .file(new MockMultipartFile("photo", "test-image.png", MediaType.IMAGE_PNG_VALUE, testImageBytes))
+                        .param("shortName", "Other")
+                        .param("name", "Other Restaurant")
+                        .param("description", "Another test restaurant")
+                        .header(HttpHeaders.AUTHORIZATION, "Bearer " + createdAdminUser.getAccessToken()))
+                .andExpect(status().isOk());
+        Restaurant other = restaurantRepository.findAll().stream()
+                .filter(r -> r.getName().equals("Other Restaurant"))
+                .findFirst()
+                .orElseThrow();
+
+        // a picture that differs from the current one, so replacing it would change the path
+        BufferedImage image = new BufferedImage(16, 16, BufferedImage.TYPE_INT_RGB);
+        image.setRGB(0, 0, 0xff0000);
+        ByteArrayOutputStream newPicture = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", newPicture);
+
+        mockMvc.perform(MockMvcRequestBuilders.multipart("/restaurant/" + other.getId().toString())
+                        .file(new MockMultipartFile("photo", "new-image.png", MediaType.IMAGE_PNG_VALUE, newPicture.toByteArray()))
+                        .param("name", taken.getName())
+                        .header(HttpHeaders.AUTHORIZATION, "Bearer " + createdModeratorUser.getAccessToken())
+                        .with(request -> {
+                            request.setMethod("PATCH");
+                            return request;
+                        }))
+                .andExpect(status().isConflict())
+                .andExpect(jsonPath("$.message").value(ErrorStrings.CONFLICT_RESTAURANT_NAME.getMessage()));
+
+        Restaurant unchanged = restaurantRepository.findById(Math.toIntExact(other.getId())).orElseThrow();
+        assertEquals("Other Restaurant", unchanged.getName());
+        assertEquals(PhotoStatus.READY, unchanged.getPhotoStatus());
+        assertEquals(other.getPhotoPath(), unchanged.getPhotoPath());
+    }
+
     @Test
     public void testUpdateRestaurantWithRegularUserForbidden() throws Exception {
         Restaurant restaurant = createTestRestaurant();
@@ -597,8 +648,74 @@ public class RestaurantControllerTest {
                 .andExpect(jsonPath("$.message").value(ErrorStrings.INVALID_RESTAURANT_ID.getMessage()));
     }
 
+    @Test
+    public void testGetRestaurantImageWhilePending() throws Exception {
+        Restaurant restaurant = createTestRestaurant();
+        restaurantRepository.setPhoto(restaurant.getId(), null, null, null, PhotoStatus.PENDING);
+
+        mockMvc.perform(get("/restaurant/" + restaurant.getId() + "/picture"))
+                .andExpect(status().isNotFound())
+                .andExpect(jsonPath("$.status").value("error"))
+                .andExpect(jsonPath("$.message").value(ErrorStrings.RESTAURANT_DOESNT_HAVE_PHOTO.getMessage()));
+    }
+
+    @Test
+    public void testStalePendingPicturesAreFailed() throws Exception {
+        Restaurant restaurant = createTestRestaurant();
+        restaurantRepository.setPhoto(restaurant.getId(), null, null, null, PhotoStatus.PENDING);
+
+        // a job that is still within its time isn't touched
+        assertEquals(0, stalePhotoSweeper.failStalePhotos());
+        assertEquals(PhotoStatus.PENDING, restaurantRepository.findById(Math.toIntExact(restaurant.getId())).orElseThrow().getPhotoStatus());
+
+        jdbcTemplate.update("update restaurants set photo_status_at = ? where restaurant_id = ?", LocalDateTime.now().minusDays(1), restaurant.getId());
+        assertEquals(1, stalePhotoSweeper.failStalePhotos());
+        assertEquals(PhotoStatus.FAILED, restaurantRepository.findById(Math.toIntExact(restaurant.getId())).orElseThrow().getPhotoStatus());
+    }
+
+    // RESTAURANT SEARCH TESTS
+
+    @Test
+    public void testSearchRestaurantsFoldsAccentsAndToleratesTypos() throws Exception {
+        createNamedRestaurant("Pão de Açúcar", "Padaria");
+        createNamedRestaurant("Churrascaria Gaúcha", "Churrascaria");
+
+        mockMvc.perform(get("/restaurant/search/acucar"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.content.length()").value(1))
+                .andExpect(jsonPath("$.content[0].name").value("Pão de Açúcar"));
+
+        mockMvc.perform(get("/restaurant/search/churascaria"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.content.length()").value(1))
+                .andExpect(jsonPath("$.content[0].name").value("Churrascaria Gaúcha"));
+
+        // deleted restaurants leave the index along with their rows
+        restaurantRepository.deleteAll();
+        mockMvc.perform(get("/restaurant/search/acucar"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.totalElements").value(0));
+    }
+
     // HELPER METHODS
 
+    private void createNamedRestaurant(String name, String shortName) throws Exception {
+        MockMultipartFile photoFile = new MockMultipartFile(
+                "photo",
+                "test-image.png",
+                MediaType.IMAGE_PNG_VALUE,
+                testImageBytes
+        );
+
+        mockMvc.perform(MockMvcRequestBuilders.multipart("/restaurant")
+                        .file(photoFile)
+                        .param("shortName", shortName)
+                        .param("name", name)
+                        .param("description", "A test restaurant description")
+                        .header(HttpHeaders.AUTHORIZATION, "Bearer " + createdAdminUser.getAccessToken()))
+                .andExpect(status().isOk());
+    }
+
     private Restaurant createTestRestaurant() throws Exception {
         MockMultipartFile photoFile = new MockMultipartFile(
                 "photo",
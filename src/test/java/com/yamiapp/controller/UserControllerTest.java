@@ -4,8 +4,11 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.yamiapp.exception.ErrorStrings;
 import com.yamiapp.model.Role;
 import com.yamiapp.model.User;
+import com.yamiapp.model.UserRatingStats;
+import com.yamiapp.model.dto.RatingHistogram;
 import com.yamiapp.model.dto.UserDTO;
 import com.yamiapp.model.dto.UserLoginDTO;
+import com.yamiapp.repo.UserRatingStatsRepository;
 import com.yamiapp.repo.UserRepository;
 import com.yamiapp.service.UserService;
 import com.yamiapp.util.MessageStrings;
@@ -50,6 +53,8 @@ public class UserControllerTest {
     private User createdUser;
     @Autowired
     private UserService userService;
+    @Autowired
+    private UserRatingStatsRepository userStatsRepository;
 
     @BeforeAll
     public static void initialize() {
@@ -679,6 +684,92 @@ public class UserControllerTest {
                 .andExpect(jsonPath("$.role").doesNotExist());
     }
 
+    // search
+    @Test
+    public void testSearchUsersFollowsRenames() throws Exception {
+        mockMvc.perform(post("/user")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(differentUser)))
+                .andExpect(status().isOk());
+
+        // prefix matches are ranked first
+        mockMvc.perform(get("/user/search/DIFF"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.content.length()").value(1))
+                .andExpect(jsonPath("$.content[0].username").value(differentUser.getUsername()));
+        mockMvc.perform(get("/user/search/user"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.content.length()").value(2))
+                .andExpect(jsonPath("$.content[0].username").value(defaultUser.getUsername()));
+        // queries shorter than a trigram only match at the start of a username
+        mockMvc.perform(get("/user/search/Di"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.content.length()").value(1))
+                .andExpect(jsonPath("$.content[0].username").value(differentUser.getUsername()));
+        mockMvc.perform(get("/user/search/us"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.content.length()").value(0));
+
+        mockMvc.perform(patch("/user")
+                        .header(HttpHeaders.AUTHORIZATION, "Bearer " + createdUser.getAccessToken())
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(new UserDTO().withUsername("renamedperson"))))
+                .andExpect(status().isOk());
+
+        mockMvc.perform(get("/user/search/testuser"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.content.length()").value(0));
+        mockMvc.perform(get("/user/search/renamed"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.content.length()").value(1))
+                .andExpect(jsonPath("$.content[0].id").value(createdUser.getId()));
+        mockMvc.perform(get("/user/search/te"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.content.length()").value(0));
+        mockMvc.perform(get("/user/search/r"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.content.length()").value(1))
+                .andExpect(jsonPath("$.content[0].id").value(createdUser.getId()));
+    }
+
+    @Test
+    public void testSearchUsersCarriesEachUsersCounts() throws Exception {
+        User different = userService.createRawUser(differentUser);
+        User third = userService.createRawUser(new UserDTO("thirduser", "thirdpassword", "bio", "location", "third@example.com"));
+        // testuser: 2 followers, 1 following; differentuser: 1 and 1; thirduser: 0 and 1
+        follow(different, createdUser);
+        follow(third, createdUser);
+        follow(createdUser, different);
+
+        // the counts of the whole page are fetched in one batch, so each must still land on the right user
+        mockMvc.perform(get("/user/search/user"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.content.length()").value(3))
+                .andExpect(jsonPath("$.content[?(@.username == 'testuser')].followerCount").value(2))
+                .andExpect(jsonPath("$.content[?(@.username == 'testuser')].followingCount").value(1))
+                .andExpect(jsonPath("$.content[?(@.username == 'differentuser')].followerCount").value(1))
+                .andExpect(jsonPath("$.content[?(@.username == 'differentuser')].followingCount").value(1))
+                .andExpect(jsonPath("$.content[?(@.username == 'thirduser')].followerCount").value(0))
+                .andExpect(jsonPath("$.content[?(@.username == 'thirduser')].followingCount").value(1));
+
+        // the follows are committed, so undo them before cleanup deletes the users
+        unfollow(different, createdUser);
+        unfollow(third, createdUser);
+        unfollow(createdUser, different);
+    }
+
+    private void follow(User follower, User followed) throws Exception {
+        mockMvc.perform(post("/user/follow/" + followed.getId())
+                        .header(HttpHeaders.AUTHORIZATION, "Bearer " + follower.getAccessToken()))
+                .andExpect(status().isOk());
+    }
+
+    private void unfollow(User follower, User followed) throws Exception {
+        mockMvc.perform(delete("/user/follow/" + followed.getId())
+                        .header(HttpHeaders.AUTHORIZATION, "Bearer " + follower.getAccessToken()))
+                .andExpect(status().isOk());
+    }
+
     // stats
     @Test
     public void testGetUserStats() throws Exception {
@@ -693,6 +784,15 @@ public class UserControllerTest {
         }
     }
 
+    @Test
+    public void testUserStatsAreCreatedWithTheUser() throws Exception {
+        // the stats endpoint reads this row instead of aggregating the user's reviews
+        UserRatingStats stats = userStatsRepository.findById(createdUser.getId()).orElseThrow();
+        assertEquals(0L, stats.getRatingCount());
+        assertEquals(0L, stats.getRatingSum());
+        assertArrayEquals(new long[RatingHistogram.BUCKETS], stats.getBuckets());
+    }
+
     @Test
     public void testGetUserStatsFromNonexistentUser() throws Exception {
         mockMvc.perform(get("/user/999999/stats"))
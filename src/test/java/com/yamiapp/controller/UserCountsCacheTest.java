@@ -0,0 +1,102 @@
+package com.yamiapp.controller;
+
+import com.yamiapp.config.TestConfig;
+import com.yamiapp.model.User;
+import com.yamiapp.model.dto.UserDTO;
+import com.yamiapp.repo.UserRepository;
+import com.yamiapp.service.UserService;
+import io.github.cdimascio.dotenv.Dotenv;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.web.servlet.MockMvc;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+// the test profile turns the counts cache off; this turns its local tier back on (the shared one needs redis), to
+// check that the write paths invalidate what's cached
+@SpringBootTest
+@AutoConfigureMockMvc
+@Import(TestConfig.class)
+@ActiveProfiles("test")
+@TestPropertySource(properties = "yami.cache.user-counts.local-ttl-seconds=60")
+public class UserCountsCacheTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private User follower, followed;
+
+    @BeforeAll
+    public static void initialize() {
+        Dotenv dotenv = Dotenv.load();
+        dotenv.entries().forEach(dotenvEntry -> System.setProperty(dotenvEntry.getKey(), dotenvEntry.getValue()));
+    }
+
+    @BeforeEach
+    public void setup() {
+        follower = userService.createRawUser(new UserDTO("follower", "followerpwd", "bio", "location", "follower@example.com"));
+        followed = userService.createRawUser(new UserDTO("followed", "followedpwd", "bio", "location", "followed@example.com"));
+    }
+
+    @AfterEach
+    public void cleanup() {
+        userRepository.deleteAll();
+    }
+
+    private void expectCounts(User user, int followers, int following) throws Exception {
+        mockMvc.perform(get("/user/" + user.getId()))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.followerCount").value(followers))
+                .andExpect(jsonPath("$.followingCount").value(following));
+    }
+
+    @Test
+    public void countsAreServedFromTheCache() throws Exception {
+        double hits = meterRegistry.get("cache.gets").tag("cache", "user-counts").tag("result", "hit").functionCounter().count();
+
+        expectCounts(followed, 0, 0);
+        expectCounts(followed, 0, 0);
+
+        double after = meterRegistry.get("cache.gets").tag("cache", "user-counts").tag("result", "hit").functionCounter().count();
+        assertTrue(after > hits, "the second read should have hit the cache");
+    }
+
+    @Test
+    public void followAndUnfollowInvalidateCachedCounts() throws Exception {
+        expectCounts(follower, 0, 0);
+        expectCounts(followed, 0, 0);
+
+        mockMvc.perform(post("/user/follow/" + followed.getId())
+                        .header("Authorization", "Bearer " + follower.getAccessToken()))
+                .andExpect(status().isOk());
+        expectCounts(follower, 0, 1);
+        expectCounts(followed, 1, 0);
+
+        mockMvc.perform(delete("/user/follow/" + followed.getId())
+                        .header("Authorization", "Bearer " + follower.getAccessToken()))
+                .andExpect(status().isOk());
+        expectCounts(follower, 0, 0);
+        expectCounts(followed, 0, 0);
+    }
+}
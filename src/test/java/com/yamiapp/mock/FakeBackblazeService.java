@@ -3,11 +3,13 @@ package com.yamiapp.mock;
 import com.backblaze.b2.client.structures.*;
 import com.yamiapp.service.BackblazeService;
 import org.jetbrains.annotations.NotNull;
-import org.springframework.core.io.ByteArrayResource;
 import org.springframework.stereotype.Component;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
@@ -23,8 +25,21 @@ public class FakeBackblazeService extends BackblazeService {
     }
 
     @Override
-    public ByteArrayResource downloadFile(String filePath) {
-        return new ByteArrayResource(files.get(filePath));
+    public void downloadToFile(String filePath, Path target) {
+        try {
+            Files.write(target, files.get(filePath));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void streamFile(String filePath, OutputStream out) {
+        try {
+            out.write(files.get(filePath));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
     }
 
     @Override
@@ -0,0 +1,39 @@
+package com.yamiapp.repo;
+
+import com.yamiapp.config.TestConfig;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+// the plans h2 picks on the test profile. Only a proxy for production: h2's planner says nothing about what postgres
+// will do, and the postgres-only migrations (the pg_trgm index) aren't applied here. It runs everywhere, though, so a
+// lookup losing its index shows up even where PostgresQueryPlanTest is skipped
+@SpringBootTest
+@Import({TestConfig.class, QueryPlanTest.StatementCapture.class})
+@ActiveProfiles("test")
+public class H2QueryPlanTest extends QueryPlanTest {
+
+    // h2 marks a full scan as /* PUBLIC.TABLE.tableScan */
+    private static final Pattern TABLE_SCAN = Pattern.compile("public\\.(\\w+)\\.tablescan");
+
+    @Override
+    protected Set<String> fullScans(Connection connection, StatementCapture.Statement statement) throws SQLException {
+        Matcher scans = TABLE_SCAN.matcher(statement.explain(connection, "explain ").toLowerCase());
+        return scans.results().map(scan -> scan.group(1)).collect(Collectors.toSet());
+    }
+
+    @Override
+    protected boolean indexExists(String name) {
+        Integer count = jdbcTemplate.queryForObject(
+            "select count(*) from information_schema.indexes where index_name = ?", Integer.class, name.toUpperCase()
+        );
+        return count != null && count > 0;
+    }
+}
@@ -0,0 +1,343 @@
+package com.yamiapp.repo;
+
+import io.github.cdimascio.dotenv.Dotenv;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// checks that the hot repository lookups run off an index rather than a full scan, on the schema built by the
+// migrations and a few thousand seeded rows. Each lookup is called through its repository, and every statement
+// hibernate sends for it is explained with the parameters it was bound with. How a plan is read depends on the
+// database, see H2QueryPlanTest and PostgresQueryPlanTest
+public abstract class QueryPlanTest {
+
+    private static final int USERS = 200;
+    private static final int RESTAURANTS = 10;
+    private static final int FOODS_PER_RESTAURANT = 20;
+    private static final int REVIEWS_PER_USER = 10;
+    private static final int FOLLOWS_PER_USER = 10;
+    // every this many users posts too much to be fanned out, so their followers pull their reviews instead
+    private static final int FEED_PULL_EVERY = 20;
+
+    // restaurants stay small enough that scanning them is fine
+    private static final List<String> GROWING_TABLES = List.of("users", "follows", "food_reviews", "review_like", "feed_entries", "foods");
+
+    @Autowired
+    protected JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private FoodRepository foodRepository;
+
+    @Autowired
+    private RestaurantRepository restaurantRepository;
+
+    @Autowired
+    private FoodReviewRepository foodReviewRepository;
+
+    @Autowired
+    private ReviewLikeRepository reviewLikeRepository;
+
+    @Autowired
+    private FeedEntryRepository feedEntryRepository;
+
+    private Long userId;
+    private Long foodId;
+    private Long reviewId;
+    private Long restaurantId;
+    private List<Long> candidateIds;
+    // a review by a feed-pull user, so none of the inboxes hold it yet
+    private Long pulledReviewId;
+    private Long pulledAuthorId;
+
+    @BeforeAll
+    public static void initialize() {
+        Dotenv dotenv = Dotenv.load();
+        dotenv.entries().forEach(dotenvEntry -> System.setProperty(dotenvEntry.getKey(), dotenvEntry.getValue()));
+    }
+
+    @BeforeEach
+    public void seed() {
+        List<Object[]> users = new ArrayList<>();
+        for (int i = 0; i < USERS; i++) {
+            users.add(new Object[]{"planuser" + i, "hash", "plantoken" + i, "planuser" + i + "@example.com"});
+        }
+        jdbcTemplate.batchUpdate("insert into users (username, password_hash, access_token, email, role) values (?, ?, ?, ?, 0)", users);
+        List<Long> userIds = jdbcTemplate.queryForList("select user_id from users where username like 'planuser%' order by user_id", Long.class);
+
+        jdbcTemplate.update("update users set feed_pull = true where username like 'planuser%' and mod(user_id, ?) = 0", FEED_PULL_EVERY);
+
+        List<Object[]> restaurants = new ArrayList<>();
+        for (int i = 0; i < RESTAURANTS; i++) {
+            restaurants.add(new Object[]{"PlanRestaurant" + i});
+        }
+        jdbcTemplate.batchUpdate("insert into restaurants (name, description) values (?, 'description')", restaurants);
+        List<Long> restaurantIds = jdbcTemplate.queryForList("select restaurant_id from restaurants where name like 'PlanRestaurant%' order by restaurant_id", Long.class);
+
+        List<Object[]> foods = new ArrayList<>();
+        for (Long restaurant : restaurantIds) {
+            for (int i = 0; i < FOODS_PER_RESTAURANT; i++) {
+                foods.add(new Object[]{"planfood" + i, restaurant});
+            }
+        }
+        jdbcTemplate.batchUpdate("insert into foods (name, description, restaurant_id) values (?, 'description', ?)", foods);
+        List<Long> foodIds = jdbcTemplate.queryForList("select food_id from foods order by food_id", Long.class);
+
+        LocalDateTime now = LocalDateTime.now();
+        List<Object[]> reviews = new ArrayList<>();
+        List<Object[]> follows = new ArrayList<>();
+        for (int u = 0; u < USERS; u++) {
+            for (int k = 0; k < REVIEWS_PER_USER; k++) {
+                reviews.add(new Object[]{"review", k, userIds.get(u), foodIds.get((u * REVIEWS_PER_USER + k) % foodIds.size()), now.minusMinutes(u * REVIEWS_PER_USER + k)});
+            }
+            for (int k = 1; k <= FOLLOWS_PER_USER; k++) {
+                follows.add(new Object[]{userIds.get(u), userIds.get((u + k) % USERS)});
+            }
+        }
+        jdbcTemplate.batchUpdate("insert into food_reviews (review, rating, user_id, food_id, created_at) values (?, ?, ?, ?, ?)", reviews);
+        jdbcTemplate.batchUpdate("insert into follows (follower_id, following_id) values (?, ?)", follows);
+
+        List<Long> reviewIds = jdbcTemplate.queryForList("select food_review_id from food_reviews order by food_review_id", Long.class);
+        List<Object[]> likes = new ArrayList<>();
+        for (int r = 0; r < reviewIds.size(); r++) {
+            likes.add(new Object[]{reviewIds.get(r), userIds.get((r + 1) % USERS)});
+            likes.add(new Object[]{reviewIds.get(r), userIds.get((r + 2) % USERS)});
+        }
+        jdbcTemplate.batchUpdate("insert into review_like (food_review_id, user_id) values (?, ?)", likes);
+
+        // the inboxes, as the fan-out would have filled them
+        jdbcTemplate.update("""
+            insert into feed_entries (owner_id, food_review_id, author_id, created_at)
+            select f.follower_id, fr.food_review_id, fr.user_id, fr.created_at
+            from follows f
+            join users author on author.user_id = f.following_id and author.feed_pull = false
+            join food_reviews fr on fr.user_id = f.following_id
+        """);
+
+        // statistics for the planner
+        jdbcTemplate.execute("analyze");
+
+        userId = userIds.get(USERS / 2);
+        foodId = foodIds.get(foodIds.size() / 2);
+        reviewId = reviewIds.get(reviewIds.size() / 2);
+        restaurantId = restaurantIds.get(RESTAURANTS / 2);
+        Map<String, Object> pulled = jdbcTemplate.queryForMap("""
+            select fr.food_review_id, fr.user_id from food_reviews fr
+            join users u on u.user_id = fr.user_id
+            where u.feed_pull = true
+            order by fr.food_review_id
+            fetch first 1 rows only
+        """);
+        pulledReviewId = ((Number) pulled.get("food_review_id")).longValue();
+        pulledAuthorId = ((Number) pulled.get("user_id")).longValue();
+        // around userId, so they include the users it follows and the users those follow
+        candidateIds = userIds.subList(USERS / 2 - FOLLOWS_PER_USER, USERS / 2 + 2 * FOLLOWS_PER_USER);
+    }
+
+    @AfterEach
+    public void cleanup() {
+        jdbcTemplate.update("delete from feed_entries");
+        jdbcTemplate.update("delete from review_like");
+        jdbcTemplate.update("delete from food_reviews");
+        jdbcTemplate.update("delete from follows");
+        jdbcTemplate.update("delete from foods");
+        jdbcTemplate.update("delete from restaurants");
+        jdbcTemplate.update("delete from users");
+    }
+
+    // the tables the plan of statement reads in full
+    protected abstract Set<String> fullScans(Connection connection, StatementCapture.Statement statement) throws SQLException;
+
+    protected abstract boolean indexExists(String name);
+
+    @Test
+    public void migrationsCreateTheLookupIndexes() {
+        for (String index : List.of(
+            "idx_food_reviews_food_created",
+            "idx_food_reviews_user_created",
+            "uk_review_like_review_user",
+            "idx_follows_following",
+            "idx_foods_restaurant",
+            "idx_feed_entries_owner_created",
+            "idx_feed_entries_owner_author"
+        )) {
+            assertTrue(indexExists(index), "missing index " + index);
+        }
+    }
+
+    @Test
+    public void repositoryLookupsDoNotScan() {
+        Pageable page = PageRequest.of(0, 10);
+        LocalDateTime now = LocalDateTime.now();
+        Map<String, Runnable> lookups = new LinkedHashMap<>();
+
+        lookups.put("FoodReviewRepository#getFoodReviewsByFoodId", () -> foodReviewRepository.getFoodReviewsByFoodId(foodId, page));
+        lookups.put("FoodReviewRepository#getFoodReviewsByUserId", () -> foodReviewRepository.getFoodReviewsByUserId(userId, page));
+        lookups.put("UserRepository#getRatingDistribution", () -> userRepository.getRatingDistribution(userId));
+        lookups.put("ReviewLikeRepository#countByReviewId", () -> reviewLikeRepository.countByReviewId(reviewId));
+        lookups.put("ReviewLikeRepository#existsByUserIdAndReviewId", () -> reviewLikeRepository.existsByUserIdAndReviewId(userId, reviewId));
+        lookups.put("ReviewLikeRepository#getReviewLikes", () -> reviewLikeRepository.getReviewLikes(reviewId, page));
+        lookups.put("UserRepository#getUserCounts", () -> userRepository.getUserCounts(userId));
+        lookups.put("UserRepository#getUserCountsByIds", () -> userRepository.getUserCountsByIds(candidateIds));
+        lookups.put("FoodRepository#getRestaurantFoods", () -> foodRepository.getRestaurantFoods(restaurantId));
+
+        // home feed: the materialized inbox, and the keyset reads of the authors it doesn't cover
+        lookups.put("FeedEntryRepository#findInboxFirstSlice", () -> feedEntryRepository.findInboxFirstSlice(userId, page));
+        lookups.put("FeedEntryRepository#findInboxAfter", () -> feedEntryRepository.findInboxAfter(userId, now, reviewId, page));
+        lookups.put("FoodReviewRepository#findPulledFeedFirstSlice", () -> foodReviewRepository.findPulledFeedFirstSlice(userId, page));
+        lookups.put("FoodReviewRepository#findPulledFeedAfter", () -> foodReviewRepository.findPulledFeedAfter(userId, now, reviewId, page));
+        lookups.put("FeedEntryRepository#countInbox", () -> feedEntryRepository.countInbox(userId));
+        lookups.put("FoodReviewRepository#countPulledFeedNotInInbox", () -> foodReviewRepository.countPulledFeedNotInInbox(userId));
+        lookups.put("FeedEntryRepository#fanOut", () -> transactionTemplate.executeWithoutResult(status -> {
+            feedEntryRepository.fanOut(pulledReviewId, pulledAuthorId, now);
+            status.setRollbackOnly();
+        }));
+
+        // searches: users (candidates come from the UsernameIndex), reviews by keyword, and the pages of catalog
+        // results the CatalogIndex returned
+        lookups.put("UserRepository#findSecondDegree", () -> userRepository.findSecondDegree(userId, candidateIds, page));
+        lookups.put("UserRepository#findSharedInterest", () -> userRepository.findSharedInterest(userId, candidateIds, page));
+        lookups.put("UserRepository#findPopularUsersExcludingFollows", () -> userRepository.findPopularUsersExcludingFollows(userId, candidateIds, page));
+        lookups.put("FoodReviewRepository#searchFoodReviewsByFoodId", () -> foodReviewRepository.searchFoodReviewsByFoodId(foodId, "%rev%", page));
+        lookups.put("FoodReviewRepository#searchFoodReviewsByUserId", () -> foodReviewRepository.searchFoodReviewsByUserId(userId, null, "%rev%", page));
+        lookups.put("RestaurantRepository#getRestaurantsByIdsWithMetrics", () -> restaurantRepository.getRestaurantsByIdsWithMetrics(List.of(restaurantId)));
+        lookups.put("FoodRepository#findAllByIdWithRestaurant", () -> foodRepository.findAllByIdWithRestaurant(List.of(foodId)));
+
+        lookups.forEach((name, lookup) -> {
+            List<StatementCapture.Statement> issued = StatementCapture.during(lookup);
+            assertFalse(issued.isEmpty(), name + " issued no statements");
+            for (StatementCapture.Statement statement : issued) {
+                Set<String> scanned = jdbcTemplate.execute((ConnectionCallback<Set<String>>) c -> fullScans(c, statement));
+                assertNotNull(scanned);
+                Set<String> growing = scanned.stream().filter(GROWING_TABLES::contains).collect(Collectors.toSet());
+                assertTrue(growing.isEmpty(), "full scan of " + growing + " in the plan of " + name + ":\n" + statement.sql());
+            }
+        });
+    }
+
+    /**
+     * Wraps the DataSource so that every prepared statement remembers its SQL and the setter calls that bound its
+     * parameters once it's executed, which lets the test explain exactly what hibernate sent for a repository call.
+     */
+    @TestConfiguration
+    static class StatementCapture implements BeanPostProcessor {
+
+        record Binding(Method setter, Object[] args) {}
+
+        record Statement(String sql, List<Binding> bindings) {
+
+            // prefix + sql, bound the way hibernate bound it (setNull keeps its sql type, which postgres needs);
+            // returns the first column of every row
+            String explain(Connection connection, String prefix) throws SQLException {
+                try (PreparedStatement explain = connection.prepareStatement(prefix + sql)) {
+                    for (Binding binding : bindings) {
+                        try {
+                            binding.setter().invoke(explain, binding.args());
+                        } catch (IllegalAccessException e) {
+                            throw new IllegalStateException(e);
+                        } catch (InvocationTargetException e) {
+                            throw e.getCause() instanceof SQLException cause ? cause : new IllegalStateException(e.getCause());
+                        }
+                    }
+                    StringBuilder plan = new StringBuilder();
+                    try (ResultSet rows = explain.executeQuery()) {
+                        while (rows.next()) {
+                            plan.append(rows.getString(1)).append('\n');
+                        }
+                    }
+                    return plan.toString();
+                }
+            }
+        }
+
+        private static final List<Statement> statements = new CopyOnWriteArrayList<>();
+
+        // the statements run by call; the explains the test runs afterwards go through the same DataSource
+        static List<Statement> during(Runnable call) {
+            statements.clear();
+            call.run();
+            return List.copyOf(statements);
+        }
+
+        @Override
+        public Object postProcessAfterInitialization(Object bean, String beanName) {
+            if (bean instanceof DataSource dataSource) {
+                return proxy(DataSource.class, dataSource, (method, args, result) ->
+                    result instanceof Connection connection ? proxy(Connection.class, connection, StatementCapture::onConnectionCall) : result
+                );
+            }
+            return bean;
+        }
+
+        private static Object onConnectionCall(Method method, Object[] args, Object result) {
+            if (method.getName().equals("prepareStatement") && result instanceof PreparedStatement statement) {
+                String sql = (String) args[0];
+                Map<Integer, Binding> bindings = new TreeMap<>();
+                return proxy(PreparedStatement.class, statement, (m, a, r) -> {
+                    String name = m.getName();
+                    if (name.startsWith("set") && a != null && a.length >= 2 && a[0] instanceof Integer index) {
+                        bindings.put(index, new Binding(m, a.clone()));
+                    } else if (name.equals("clearParameters")) {
+                        bindings.clear();
+                    } else if (name.startsWith("execute") && (a == null || a.length == 0)) {
+                        statements.add(new Statement(sql, List.copyOf(bindings.values())));
+                    }
+                    return r;
+                });
+            }
+            return result;
+        }
+
+        @FunctionalInterface
+        private interface AfterCall {
+            Object apply(Method method, Object[] args, Object result) throws Exception;
+        }
+
+        // forwards every call to target, then lets after inspect (or replace) the result
+        private static <T> T proxy(Class<T> type, T target, AfterCall after) {
+            return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (p, method, args) -> {
+                Object result;
+                try {
+                    result = method.invoke(target, args);
+                } catch (InvocationTargetException e) {
+                    throw e.getCause();
+                }
+                return after.apply(method, args, result);
+            }));
+        }
+    }
+}
@@ -0,0 +1,292 @@
+package com.yamiapp.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.yamiapp.util.Bulkheads;
+import com.yamiapp.util.RedisHelper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.mail.Address;
+import jakarta.mail.Message;
+import jakarta.mail.MessagingException;
+import jakarta.mail.NoSuchProviderException;
+import jakarta.mail.Provider;
+import jakarta.mail.Session;
+import jakarta.mail.Transport;
+import jakarta.mail.URLName;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Answers;
+import org.mockito.invocation.InvocationOnMock;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Transaction;
+import redis.clients.jedis.args.ListDirection;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+// runs against an in-memory stand-in for the few redis commands the queue uses, and a fake smtp transport
+public class MailQueueTest {
+
+    private static final int MAX_ATTEMPTS = 2;
+    private static final long STALE_AFTER_MS = 60_000;
+    private static final long CIRCUIT_OPEN_MS = 100;
+
+    private FakeRedis redis;
+    private RedisHelper redisHelper;
+    private Bulkheads bulkheads;
+    private MailQueue mailQueue;
+
+    @BeforeEach
+    public void setup() throws NoSuchProviderException {
+        FakeTransport.reset();
+        redis = new FakeRedis();
+        JedisPool pool = mock(JedisPool.class);
+        when(pool.getResource()).thenReturn(redis.jedis);
+
+        // smtp's circuit opens after two failed connections
+        bulkheads = new Bulkheads(new SimpleMeterRegistry(), 4, 100, 4, 100, 4, 100, 2, CIRCUIT_OPEN_MS);
+        redisHelper = new RedisHelper(pool, bulkheads);
+        mailQueue = newMailQueue(bulkheads);
+    }
+
+    private MailQueue newMailQueue(Bulkheads bulkheads) throws NoSuchProviderException {
+        Properties props = new Properties();
+        props.put("mail.smtp.user", "noreply@example.com");
+        Session session = Session.getInstance(props);
+        session.setProvider(new Provider(Provider.Type.TRANSPORT, "smtp", FakeTransport.class.getName(), "yami", "1"));
+        return new MailQueue(redisHelper, session, bulkheads, new ObjectMapper(), 10, MAX_ATTEMPTS, 0, STALE_AFTER_MS);
+    }
+
+    private void enqueue(String to) {
+        redisHelper.executeVoid(j -> {
+            Transaction t = j.multi();
+            mailQueue.enqueue(t, to, "subject", "content");
+            t.exec();
+        });
+    }
+
+    @Test
+    public void drainSendsEveryQueuedMail() {
+        enqueue("a@example.com");
+        enqueue("b@example.com");
+        enqueue("c@example.com");
+
+        assertEquals(3, mailQueue.drain());
+        assertEquals(List.of("a@example.com", "b@example.com", "c@example.com"), FakeTransport.sent);
+        assertTrue(redis.list("mail:queue").isEmpty());
+        assertTrue(redis.zset("mail:retry").isEmpty());
+        assertTrue(redis.lists.entrySet().stream()
+            .filter(e -> e.getKey().startsWith("mail:processing:"))
+            .allMatch(e -> e.getValue().isEmpty()));
+    }
+
+    @Test
+    public void failedSendsAreRetriedAndThenDeadLettered() {
+        FakeTransport.rejectMessages = true;
+        enqueue("a@example.com");
+
+        assertEquals(0, mailQueue.drain());
+        assertEquals(1, redis.zset("mail:retry").size());
+        assertTrue(redis.list("mail:dead").isEmpty());
+
+        assertEquals(0, mailQueue.drain());
+        assertTrue(redis.zset("mail:retry").isEmpty());
+        assertEquals(1, redis.list("mail:dead").size());
+    }
+
+    @Test
+    public void connectionFailuresDoNotCountAsAttempts() throws InterruptedException {
+        FakeTransport.down = true;
+        enqueue("a@example.com");
+
+        // well past max-attempts; the circuit opens after the second drain, so the later ones fail fast
+        for (int i = 0; i < MAX_ATTEMPTS * 3; i++) {
+            assertEquals(0, mailQueue.drain());
+        }
+        assertTrue(redis.list("mail:dead").isEmpty());
+        assertEquals(1, redis.zset("mail:retry").size());
+        assertTrue(redis.zset("mail:retry").keySet().iterator().next().contains("\"attempts\":0"));
+
+        FakeTransport.down = false;
+        Thread.sleep(CIRCUIT_OPEN_MS * 2);
+        assertEquals(1, mailQueue.drain());
+        assertEquals(List.of("a@example.com"), FakeTransport.sent);
+    }
+
+    @Test
+    public void batchesClaimedByLiveInstancesAreLeftAlone() {
+        enqueue("a@example.com");
+        // another instance claimed it and is still sending
+        redis.list("mail:processing:other").addFirst(redis.list("mail:queue").pollLast());
+        redis.zset("mail:instances").put("other", (double) System.currentTimeMillis());
+
+        assertEquals(0, mailQueue.drain());
+        assertEquals(1, redis.list("mail:processing:other").size());
+        assertTrue(FakeTransport.sent.isEmpty());
+    }
+
+    @Test
+    public void batchesClaimedByStaleInstancesAreRequeued() {
+        enqueue("a@example.com");
+        // another instance claimed it, then stopped draining
+        redis.list("mail:processing:other").addFirst(redis.list("mail:queue").pollLast());
+        redis.zset("mail:instances").put("other", (double) (System.currentTimeMillis() - STALE_AFTER_MS - 1));
+
+        assertEquals(1, mailQueue.drain());
+        assertTrue(redis.list("mail:processing:other").isEmpty());
+        assertFalse(redis.zset("mail:instances").containsKey("other"));
+        assertEquals(List.of("a@example.com"), FakeTransport.sent);
+    }
+
+    @Test
+    public void retriesPromotedByTwoInstancesAreSentOnce() throws NoSuchProviderException {
+        FakeTransport.rejectMessages = true;
+        enqueue("a@example.com");
+        assertEquals(0, mailQueue.drain());
+        assertEquals(1, redis.zset("mail:retry").size());
+        FakeTransport.rejectMessages = false;
+
+        // another instance promotes and sends the retry between our read of the due retries and our promotion
+        MailQueue other = newMailQueue(bulkheads);
+        redis.afterRetriesRead = other::drain;
+
+        mailQueue.drain();
+        assertEquals(List.of("a@example.com"), FakeTransport.sent);
+        assertTrue(redis.list("mail:queue").isEmpty());
+    }
+
+    public static class FakeTransport extends Transport {
+
+        static volatile boolean down;
+        static volatile boolean rejectMessages;
+        static final List<String> sent = new CopyOnWriteArrayList<>();
+
+        static void reset() {
+            down = false;
+            rejectMessages = false;
+            sent.clear();
+        }
+
+        public FakeTransport(Session session, URLName urlName) {
+            super(session, urlName);
+        }
+
+        @Override
+        protected boolean protocolConnect(String host, int port, String user, String password) throws MessagingException {
+            if (down) {
+                throw new MessagingException("connection refused");
+            }
+            return true;
+        }
+
+        @Override
+        public void sendMessage(Message message, Address[] addresses) throws MessagingException {
+            if (rejectMessages) {
+                throw new MessagingException("mailbox unavailable");
+            }
+            Arrays.stream(addresses).forEach(address -> sent.add(address.toString()));
+        }
+    }
+
+    // lists and sorted sets, with transactions applied as they're built (the tests are single-threaded)
+    private static class FakeRedis {
+
+        final Map<String, LinkedList<String>> lists = new HashMap<>();
+        final Map<String, Map<String, Double>> zsets = new HashMap<>();
+        final Transaction transaction = mock(Transaction.class, this::handle);
+        final Jedis jedis = mock(Jedis.class, this::handle);
+        // runs once, right after the next read of the retry set
+        Runnable afterRetriesRead;
+
+        LinkedList<String> list(String key) {
+            return lists.computeIfAbsent(key, k -> new LinkedList<>());
+        }
+
+        Map<String, Double> zset(String key) {
+            return zsets.computeIfAbsent(key, k -> new HashMap<>());
+        }
+
+        private Object handle(InvocationOnMock invocation) throws Throwable {
+            List<Object> args = new ArrayList<>();
+            for (Object arg : invocation.getArguments()) {
+                if (arg instanceof String[] values) {
+                    args.addAll(Arrays.asList(values));
+                } else {
+                    args.add(arg);
+                }
+            }
+            Object result = switch (invocation.getMethod().getName()) {
+                case "multi" -> transaction;
+                case "lpush" -> {
+                    LinkedList<String> list = list((String) args.get(0));
+                    args.subList(1, args.size()).forEach(value -> list.addFirst((String) value));
+                    yield (long) list.size();
+                }
+                case "lmove" -> {
+                    LinkedList<String> from = list((String) args.get(0));
+                    String value = args.get(2) == ListDirection.RIGHT ? from.pollLast() : from.pollFirst();
+                    if (value != null) {
+                        LinkedList<String> to = list((String) args.get(1));
+                        if (args.get(3) == ListDirection.LEFT) {
+                            to.addFirst(value);
+                        } else {
+                            to.addLast(value);
+                        }
+                    }
+                    yield value;
+                }
+                case "lrem" -> {
+                    boolean removed = list((String) args.get(0)).removeFirstOccurrence(args.get(2));
+                    yield removed ? 1L : 0L;
+                }
+                case "zadd" -> {
+                    Double previous = zset((String) args.get(0)).put((String) args.get(2), (Double) args.get(1));
+                    yield previous == null ? 1L : 0L;
+                }
+                case "zrem" -> {
+                    Map<String, Double> zset = zset((String) args.get(0));
+                    yield args.subList(1, args.size()).stream().filter(member -> zset.remove(member) != null).count();
+                }
+                case "zrangeByScore" -> {
+                    double min = (Double) args.get(1), max = (Double) args.get(2);
+                    List<String> members = new ArrayList<>();
+                    zset((String) args.get(0)).entrySet().stream()
+                        .filter(e -> e.getValue() >= min && e.getValue() <= max)
+                        .sorted(Map.Entry.comparingByValue())
+                        .forEach(e -> members.add(e.getKey()));
+                    if ("mail:retry".equals(args.get(0)) && afterRetriesRead != null) {
+                        Runnable hook = afterRetriesRead;
+                        afterRetriesRead = null;
+                        hook.run();
+                    }
+                    yield Collections.unmodifiableList(members);
+                }
+                // the only script the queue runs: zrem the member from KEYS[1], and lpush it onto KEYS[2] if it was there
+                case "eval" -> {
+                    List<?> keys = (List<?>) args.get(1), values = (List<?>) args.get(2);
+                    String member = (String) values.get(0);
+                    if (zset((String) keys.get(0)).remove(member) == null) {
+                        yield 0L;
+                    }
+                    list((String) keys.get(1)).addFirst(member);
+                    yield 1L;
+                }
+                default -> Answers.RETURNS_DEFAULTS.answer(invocation);
+            };
+            // the transaction's commands return responses nobody reads here
+            Class<?> type = invocation.getMethod().getReturnType();
+            return type.isPrimitive() || type.isInstance(result) ? result : null;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.yamiapp.util;
+
+import com.backblaze.b2.client.contentSources.B2ContentSource;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockMultipartFile;
+
+import java.io.InputStream;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class B2StreamContentSourceTest {
+
+    private static byte[] content(int size) {
+        byte[] content = new byte[size];
+        for (int i = 0; i < size; i++) {
+            content[i] = (byte) i;
+        }
+        return content;
+    }
+
+    private static byte[] read(B2ContentSource source) throws Exception {
+        try (InputStream in = source.createInputStream()) {
+            return in.readAllBytes();
+        }
+    }
+
+    @Test
+    public void bytesAreUploadedWhole() throws Exception {
+        byte[] content = content(1000);
+        B2StreamContentSource source = B2StreamContentSource.of(content);
+
+        assertEquals(1000, source.getContentLength());
+        // left to the sdk, which computes it while sending
+        assertNull(source.getSha1OrNull());
+        assertArrayEquals(content, read(source));
+    }
+
+    @Test
+    public void multipartIsUploadedWhole() throws Exception {
+        byte[] content = content(1000);
+        B2StreamContentSource source = B2StreamContentSource.of(new MockMultipartFile("photo", content));
+
+        assertEquals(1000, source.getContentLength());
+        assertArrayEquals(content, read(source));
+    }
+
+    @Test
+    public void everyStreamStartsFromTheBeginning() throws Exception {
+        // the sdk reopens the content when it retries an upload
+        byte[] content = content(1000);
+        B2StreamContentSource source = B2StreamContentSource.of(new MockMultipartFile("photo", content));
+
+        assertArrayEquals(content, read(source));
+        assertArrayEquals(content, read(source));
+    }
+
+    @Test
+    public void rangesOfBytesCoverOnlyTheirPart() throws Exception {
+        byte[] content = content(1000);
+        B2ContentSource part = B2StreamContentSource.of(content).createContentSourceWithRangeOrNull(100, 250);
+
+        assertEquals(250, part.getContentLength());
+        assertArrayEquals(Arrays.copyOfRange(content, 100, 350), read(part));
+    }
+
+    @Test
+    public void rangesOfMultipartCoverOnlyTheirPart() throws Exception {
+        byte[] content = content(1000);
+        B2ContentSource part = B2StreamContentSource.of(new MockMultipartFile("photo", content)).createContentSourceWithRangeOrNull(900, 100);
+
+        assertEquals(100, part.getContentLength());
+        assertArrayEquals(Arrays.copyOfRange(content, 900, 1000), read(part));
+    }
+
+    @Test
+    public void rangesOfRangesAreRelativeToTheirParent() throws Exception {
+        byte[] content = content(1000);
+        B2ContentSource part = B2StreamContentSource.of(new MockMultipartFile("photo", content))
+                .createContentSourceWithRangeOrNull(200, 500)
+                .createContentSourceWithRangeOrNull(50, 10);
+
+        assertArrayEquals(Arrays.copyOfRange(content, 250, 260), read(part));
+    }
+
+    @Test
+    public void multipartRangeStopsAtItsLength() throws Exception {
+        byte[] content = content(1000);
+        B2ContentSource part = B2StreamContentSource.of(new MockMultipartFile("photo", content)).createContentSourceWithRangeOrNull(0, 10);
+
+        try (InputStream in = part.createInputStream()) {
+            byte[] buffer = new byte[100];
+            assertEquals(10, in.read(buffer));
+            assertEquals(-1, in.read());
+            assertEquals(-1, in.read(buffer, 0, buffer.length));
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.yamiapp.util;
+
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ImageTranscoderTest {
+
+    private static final int MAX_DIMENSION = 200;
+    private static final int[] THUMBNAILS = {64, 128};
+
+    private final ImageTranscoder transcoder = new ImageTranscoder(MAX_DIMENSION, 0.85f, 1);
+
+    private static byte[] picture(int width, int height, String format) throws IOException {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < height; y++) {
+                image.setRGB(x, y, (x * 7 + y * 13) & 0xffffff);
+            }
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, format, out);
+        return out.toByteArray();
+    }
+
+    private static int largestSide(byte[] jpeg) throws IOException {
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(jpeg));
+        return Math.max(image.getWidth(), image.getHeight());
+    }
+
+    @Test
+    public void subsamplingKeepsEnoughPixelsForTheTarget() {
+        assertEquals(1, ImageTranscoder.subsamplingStep(200, 200));
+        assertEquals(1, ImageTranscoder.subsamplingStep(150, 200));
+        // 3000 / 2 = 1500 would fall short of 2048
+        assertEquals(1, ImageTranscoder.subsamplingStep(3000, 2048));
+        // step 2 keeps 2048 of 4095, which rounding down the plain ratio would have missed
+        assertEquals(2, ImageTranscoder.subsamplingStep(4095, 2048));
+        assertEquals(3, ImageTranscoder.subsamplingStep(6143, 2048));
+        for (int size = 2048; size < 20000; size += 97) {
+            int step = ImageTranscoder.subsamplingStep(size, 2048);
+            assertTrue((size + step - 1) / step >= 2048, "step " + step + " loses pixels of " + size);
+            assertTrue((size + step) / (step + 1) < 2048, "step " + step + " isn't the largest for " + size);
+        }
+    }
+
+    @Test
+    public void oversizedPicturesAreCappedAtMaxDimension() throws Exception {
+        // subsampled by 2 while decoding, to 201 pixels, then scaled the rest of the way
+        ImageTranscoder.Result result = transcoder.transcode(picture(401, 100, "png"), THUMBNAILS);
+
+        assertEquals(MAX_DIMENSION, largestSide(result.jpeg()));
+        assertEquals(128, largestSide(result.thumbnails().get(128)));
+        assertEquals(64, largestSide(result.thumbnails().get(64)));
+    }
+
+    @Test
+    public void oversizedJpegsAreReencodedEvenWhenSubsampledToMaxDimension() throws Exception {
+        // subsampling by 2 leaves exactly MAX_DIMENSION pixels, which must still count as shrunk
+        byte[] content = picture(2 * MAX_DIMENSION, 100, "jpeg");
+        ImageTranscoder.Result result = transcoder.transcode(content, THUMBNAILS);
+
+        assertNotSame(content, result.jpeg());
+        assertEquals(MAX_DIMENSION, largestSide(result.jpeg()));
+    }
+
+    @Test
+    public void jpegsThatFitAreKeptAsUploaded() throws Exception {
+        byte[] content = picture(180, 90, "jpeg");
+        ImageTranscoder.Result result = transcoder.transcode(content, THUMBNAILS);
+
+        assertSame(content, result.jpeg());
+        assertEquals(128, largestSide(result.thumbnails().get(128)));
+        assertEquals(64, largestSide(result.thumbnails().get(64)));
+    }
+
+    @Test
+    public void thumbnailsAreOnlyMadeForSmallerSizes() throws Exception {
+        ImageTranscoder.Result result = transcoder.transcode(picture(100, 50, "png"), THUMBNAILS);
+
+        assertEquals(100, largestSide(result.jpeg()));
+        assertFalse(result.thumbnails().containsKey(128));
+        assertEquals(64, largestSide(result.thumbnails().get(64)));
+    }
+}